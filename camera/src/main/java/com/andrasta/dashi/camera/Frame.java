@@ -0,0 +1,95 @@
+package com.andrasta.dashi.camera;
+
+import android.media.Image;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copy of a YUV_420_888 camera {@link Image} kept in a pooled direct {@link ByteBuffer}.
+ * The buffer holds the tightly packed Y plane followed by interleaved V/U samples (NV21 layout),
+ * so the first width * height bytes can be handed to recognizers as a 1 byte per pixel image.
+ * <p>
+ * Frame is reference counted, it's returned to its {@link FramePool} when the last holder calls
+ * {@link #release()}. Holders must not change position or limit of the buffer.
+ */
+public final class Frame {
+    private final FramePool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger();
+    private final int width;
+    private final int height;
+    private final YuvConverter converter = new YuvConverter();
+    private long timestamp;
+
+    Frame(@NonNull FramePool pool, int width, int height) {
+        this.pool = pool;
+        this.width = width;
+        this.height = height;
+        this.buffer = ByteBuffer.allocateDirect(YuvConverter.getSize(width, height));
+    }
+
+    public @NonNull ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLumaSize() {
+        return width * height;
+    }
+
+    /**
+     * @return timestamp of the source image in ns, see {@link Image#getTimestamp()}
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void retain() {
+        references.incrementAndGet();
+    }
+
+    public void release() {
+        int count = references.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("Frame released too many times");
+        }
+    }
+
+    boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+
+    void reset() {
+        references.set(1);
+    }
+
+    /**
+     * @param timestamp frame timestamp in ns, set from the image on {@link FramePool#copyOf(Image)}
+     */
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    void copyFrom(@NonNull Image image) {
+        Preconditions.assertParameterNotNull(image, "image");
+        setTimestamp(image.getTimestamp());
+        buffer.clear();
+        converter.convert(image, YuvConverter.Format.NV21, buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,94 @@
+package com.andrasta.dashi.camera;
+
+import android.media.Image;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.ArrayDeque;
+
+/**
+ * Recycles {@link Frame}s so that camera images can be copied and closed right away
+ * without allocating a new buffer for every image.
+ * Pool never holds more than capacity frames, when all of them are in use no frame is returned.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class FramePool {
+    private final ArrayDeque<Frame> freeFrames;
+    private final int capacity;
+    private int allocated;
+
+    public FramePool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity has to be positive");
+        }
+        this.capacity = capacity;
+        this.freeFrames = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Copies the image into a pooled frame. Image isn't closed.
+     *
+     * @return frame with one reference or null if all frames are in use
+     */
+    public @Nullable Frame copyOf(@NonNull Image image) {
+        Preconditions.assertParameterNotNull(image, "image");
+        Frame frame = obtain(image.getWidth(), image.getHeight());
+        if (frame != null) {
+            frame.copyFrom(image);
+        }
+        return frame;
+    }
+
+    /**
+     * @return frame with one reference or null if all frames are in use
+     */
+    public @Nullable Frame obtain(int width, int height) {
+        Frame frame = null;
+        synchronized (this) {
+            while (!freeFrames.isEmpty()) {
+                Frame free = freeFrames.poll();
+                if (free.fits(width, height)) {
+                    frame = free;
+                    break;
+                }
+                // resolution changed, let the old buffer go
+                allocated--;
+            }
+            if (frame == null) {
+                if (allocated == capacity) {
+                    return null;
+                }
+                allocated++;
+            }
+        }
+
+        if (frame == null) {
+            frame = new Frame(this, width, height);
+        }
+        frame.reset();
+        return frame;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getFreeCount() {
+        return freeFrames.size() + capacity - allocated;
+    }
+
+    /**
+     * Drops all free frames. Frames in use are still returned to the pool.
+     */
+    public synchronized void clear() {
+        allocated -= freeFrames.size();
+        freeFrames.clear();
+    }
+
+    synchronized void recycle(@NonNull Frame frame) {
+        freeFrames.offer(frame);
+    }
+}
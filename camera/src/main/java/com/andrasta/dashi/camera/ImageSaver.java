@@ -1,47 +1,340 @@
 package com.andrasta.dashi.camera;
 
+import android.graphics.ImageFormat;
 import android.media.Image;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
 import com.andrasta.dashi.utils.Preconditions;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Help to save an {@link Image} into the specified {@link File}.
+ * Help to save an {@link Image} or encoded image data into the specified {@link File}.
+ * <p>
+ * Saves wait in a bounded queue, what happens when it's full is given by {@link OverflowPolicy}.
+ * Image content is copied when a save is queued and the {@link Image} is closed right away,
+ * so queued saves never hold camera buffers. Queued saves are written in batches through
+ * {@link FileChannel}s, files of a batch are synced to the disk together after all are written.
+ * A batch has at most {@value #MAX_BATCH} files, so only as many files are open at a time.
+ * The writer thread ends on {@link #shutdown()} once the queued saves are written.
+ * <p>
+ * Class is threadsafe.
  */
 public class ImageSaver {
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final String TAG = "ImageSaver";
+    public static final int DEFAULT_CAPACITY = 8;
+    static final int MAX_BATCH = 16;
 
-    public void saveToFile(@NonNull Image image, @NonNull File file) {
+    public enum OverflowPolicy {
+        /** New save is dropped */
+        DROP,
+        /** Caller waits until a save is written */
+        BLOCK,
+        /** New save replaces a queued save of the same file, otherwise the oldest queued save */
+        COALESCE
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final ArrayDeque<SaveTask> queue;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private boolean writing;
+    private boolean shutdown;
+
+    private long savedCount;
+    private long droppedCount;
+    private long failedCount;
+    private int maxQueueDepth;
+    private long writeTime;
+    private long maxWriteTime;
+
+    public ImageSaver() {
+        this(DEFAULT_CAPACITY, OverflowPolicy.COALESCE);
+    }
+
+    public ImageSaver(int capacity, @NonNull OverflowPolicy policy) {
+        Preconditions.assertParameterNotNull(policy, "policy");
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity has to be positive");
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Copies the image and closes it, also when the save is dropped. JPEG images are saved as they are,
+     * YUV_420_888 images are encoded to JPEG when written.
+     *
+     * @return false if the save was dropped
+     */
+    public boolean saveToFile(@NonNull Image image, @NonNull File file) {
         Preconditions.assertParameterNotNull(image, "image");
         Preconditions.assertParameterNotNull(file, "file");
-        executor.execute(new SaveImageTask(image, file));
+        SaveTask task;
+        if (policy == OverflowPolicy.DROP && isFull()) {
+            // don't copy an image that is dropped anyway
+            image.close();
+            return enqueue(null);
+        }
+        try {
+            if (image.getFormat() == ImageFormat.JPEG) {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                byte[] jpeg = new byte[buffer.remaining()];
+                buffer.get(jpeg);
+                task = new SaveTask(file, ByteBuffer.wrap(jpeg), null, 0, 0);
+            } else {
+                task = new SaveTask(file, null, ImageUtil.YUV420888toNV21(image), image.getWidth(), image.getHeight());
+            }
+        } finally {
+            image.close();
+        }
+        return enqueue(task);
     }
 
-    private static class SaveImageTask implements Runnable {
-        private final Image image;
-        private final File file;
+    /**
+     * Writes data from its position to its limit, the buffer isn't moved and must not be changed
+     * until written, e.g. a read only view of immutable data. Missing parent directories are created.
+     *
+     * @return false if the save was dropped
+     */
+    public boolean saveToFile(@NonNull ByteBuffer data, @NonNull File file) {
+        Preconditions.assertParameterNotNull(data, "data");
+        Preconditions.assertParameterNotNull(file, "file");
+        return enqueue(new SaveTask(file, data.duplicate(), null, 0, 0));
+    }
 
-        SaveImageTask(Image image, File file) {
-            this.image = image;
-            this.file = file;
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public synchronized long getSavedCount() {
+        return savedCount;
+    }
+
+    /**
+     * @return saves dropped or replaced because the queue was full
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return average time in ms from writing a file until it's synced
+     */
+    public synchronized float getAverageWriteLatency() {
+        return savedCount == 0 ? 0 : (float) TimeUnit.NANOSECONDS.toMicros(writeTime) / savedCount / 1000;
+    }
+
+    /**
+     * @return longest time in ms from writing a file until it's synced
+     */
+    public synchronized float getMaxWriteLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(maxWriteTime) / 1000f;
+    }
+
+    /**
+     * Writes the queued saves and ends the writer thread, later saves are dropped.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+        // blocked callers give up
+        notifyAll();
+    }
+
+    /**
+     * Waits until queued saves are written after {@link #shutdown()}.
+     *
+     * @return false on timeout
+     */
+    public boolean awaitTermination(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        Preconditions.assertParameterNotNull(unit, "unit");
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private synchronized boolean isFull() {
+        return queue.size() >= capacity;
+    }
+
+    /**
+     * @param task null to count a save dropped before copying
+     */
+    private synchronized boolean enqueue(@Nullable SaveTask task) {
+        if (shutdown) {
+            droppedCount++;
+            Log.w(TAG, "Shut down. Save dropped.");
+            return false;
+        }
+        if (task == null || (queue.size() >= capacity && !makeRoom(task))) {
+            droppedCount++;
+            Log.w(TAG, "Queue full. Save dropped.");
+            return false;
+        }
+        queue.addLast(task);
+        maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+        if (!writing) {
+            writing = true;
+            executor.execute(writeTask);
+        }
+        return true;
+    }
+
+    private boolean makeRoom(@NonNull SaveTask task) {
+        switch (policy) {
+            case BLOCK:
+                try {
+                    while (queue.size() >= capacity && !shutdown) {
+                        wait();
+                    }
+                    return !shutdown;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            case COALESCE:
+                droppedCount++;
+                for (Iterator<SaveTask> iterator = queue.iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().file.equals(task.file)) {
+                        iterator.remove();
+                        return true;
+                    }
+                }
+                queue.removeFirst();
+                return true;
+            default:
+                return false;
         }
+    }
+
+    private final Runnable writeTask = new Runnable() {
+        private final List<SaveTask> batch = new ArrayList<>();
+        private final List<FileChannel> channels = new ArrayList<>();
 
         @Override
         public void run() {
-            byte[] bytes = ImageUtil.imageToJpeg(image);
-            try (FileOutputStream fos = new FileOutputStream(file)) {
-                fos.write(bytes);
+            while (takeBatch()) {
+                long start = System.nanoTime();
+                for (SaveTask task : batch) {
+                    FileChannel channel = write(task);
+                    if (channel != null) {
+                        channels.add(channel);
+                    }
+                }
+                int synced = 0;
+                for (FileChannel channel : channels) {
+                    if (sync(channel)) {
+                        synced++;
+                    }
+                }
+                long time = System.nanoTime() - start;
+                synchronized (ImageSaver.this) {
+                    savedCount += synced;
+                    failedCount += batch.size() - synced;
+                    // files of a batch become durable together
+                    writeTime += time * synced;
+                    maxWriteTime = Math.max(maxWriteTime, time);
+                }
+                batch.clear();
+                channels.clear();
+            }
+        }
+
+        private boolean takeBatch() {
+            synchronized (ImageSaver.this) {
+                if (queue.isEmpty()) {
+                    writing = false;
+                    return false;
+                }
+                while (!queue.isEmpty() && batch.size() < MAX_BATCH) {
+                    batch.add(queue.removeFirst());
+                }
+                ImageSaver.this.notifyAll();
+                return true;
+            }
+        }
+
+        private FileChannel write(@NonNull SaveTask task) {
+            File dir = task.file.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "Cannot create " + dir);
+                return null;
+            }
+            ByteBuffer data = task.data != null ? task.data
+                    : ByteBuffer.wrap(ImageUtil.NV21toJPEG(task.nv21, task.width, task.height));
+            FileChannel channel = null;
+            try {
+                RandomAccessFile file = new RandomAccessFile(task.file, "rw");
+                channel = file.getChannel();
+                channel.truncate(0);
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                return channel;
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot write " + task.file, e);
+                if (channel != null) {
+                    close(channel);
+                }
+                return null;
+            }
+        }
+
+        private boolean sync(@NonNull FileChannel channel) {
+            try {
+                channel.force(false);
+                return true;
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                Log.e(TAG, "Cannot sync", e);
+                return false;
             } finally {
-                image.close();
+                close(channel);
             }
         }
+
+        private void close(@NonNull FileChannel channel) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close", e);
+            }
+        }
+    };
+
+    private static final class SaveTask {
+        private final File file;
+        private final ByteBuffer data;
+        private final byte[] nv21;
+        private final int width;
+        private final int height;
+
+        SaveTask(@NonNull File file, ByteBuffer data, byte[] nv21, int width, int height) {
+            this.file = file;
+            this.data = data;
+            this.nv21 = nv21;
+            this.width = width;
+            this.height = height;
+        }
     }
-}
\ No newline at end of file
+}
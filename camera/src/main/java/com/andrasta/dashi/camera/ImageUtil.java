@@ -2,7 +2,6 @@ package com.andrasta.dashi.camera;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
@@ -18,6 +17,19 @@ import java.nio.ByteBuffer;
 @SuppressWarnings("WeakerAccess")
 public class ImageUtil {
     private static final int JPEG_QUALITY = 80;
+    private static final ThreadLocal<YuvConverter> converter = new ThreadLocal<YuvConverter>() {
+        @Override
+        protected YuvConverter initialValue() {
+            return new YuvConverter();
+        }
+    };
+
+    private static final ThreadLocal<LumaExtractor> lumaExtractor = new ThreadLocal<LumaExtractor>() {
+        @Override
+        protected LumaExtractor initialValue() {
+            return new LumaExtractor();
+        }
+    };
 
     private ImageUtil() {
         super();
@@ -49,27 +61,16 @@ public class ImageUtil {
     }
 
     public static byte[] YUV420888toNV21(@NonNull Image image) {
-        Preconditions.assertReturnNotNull(image, "image");
-
-        byte[] nv21;
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        nv21 = new byte[ySize + uSize + vSize];
-
-        int vstat = ySize;
-        int ustat = ySize + vSize;
-        //U and V are swapped
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, vstat, vSize);
-        uBuffer.get(nv21, ustat, uSize);
+        return YUV420888toNV21(image, null);
+    }
 
-        return nv21;
+    /**
+     * @param nv21 reused when large enough for the image
+     * @return array holding the NV21 image from index 0
+     */
+    public static byte[] YUV420888toNV21(@NonNull Image image, @Nullable byte[] nv21) {
+        Preconditions.assertParameterNotNull(image, "image");
+        return converter.get().convert(image, YuvConverter.Format.NV21, nv21);
     }
 
     public static byte[] NV21toJPEG(@NonNull byte[] nv21, int width, int height) {
@@ -87,37 +88,19 @@ public class ImageUtil {
         return out.toByteArray();
     }
 
+    /**
+     * @return 1 byte per pixel luma, see {@link LumaExtractor}
+     */
     public static byte[] toGrayScale(@NonNull Bitmap bitmap) {
-        Preconditions.assertReturnNotNull(bitmap, "bitmap");
-
-        final int width = bitmap.getWidth();
-        final int height = bitmap.getHeight();
-        byte[] grayScaleArray = new byte[width * height];
-        double GS_RED = 0.299;
-        double GS_GREEN = 0.587;
-        double GS_BLUE = 0.114;
-        int pixel;
-        int R, G, B;
-
-        // scan through every single pixel
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                // get one pixel color
-                pixel = bitmap.getPixel(x, y);
-
-                // retrieve color of all channels
-                R = Color.red(pixel);
-                G = Color.green(pixel);
-                B = Color.blue(pixel);
+        return toGrayScale(bitmap, null);
+    }
 
-                // take conversion up to one single value
-                pixel = (int) (GS_RED * R + GS_GREEN * G + GS_BLUE * B);
-                // set new pixel color to output bitmap
-                int index = width * y + x;
-                grayScaleArray[index] = (byte) pixel;
-                //Show grayscaled image
-            }
-        }
-        return grayScaleArray;
+    /**
+     * @param gray reused when large enough for the bitmap
+     * @return array holding 1 byte per pixel luma from index 0
+     */
+    public static byte[] toGrayScale(@NonNull Bitmap bitmap, @Nullable byte[] gray) {
+        Preconditions.assertParameterNotNull(bitmap, "bitmap");
+        return lumaExtractor.get().extract(bitmap, gray);
     }
 }
\ No newline at end of file
@@ -0,0 +1,367 @@
+package com.andrasta.dashi.camera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dashcam loop recorder. Records {@link Frame}s at a low rate as JPEGs into fixed length segment
+ * files, every segment has an index file with one {@value #INDEX_ENTRY_SIZE} byte entry per frame:
+ * frame timestamp in ns, offset and length of its JPEG in the segment file (big endian).
+ * Oldest segments are deleted when the storage budget would be exceeded.
+ * Encoded frames can also be kept in a {@link PreEventBuffer}.
+ * <p>
+ * Recording runs on one background priority thread and holds at most one frame, frames coming
+ * while it's busy aren't taken. Encoded frames are batched in memory and written sequentially
+ * with one {@link FileChannel} write per batch, so recording doesn't compete with recognition.
+ * The thread ends on {@link #shutdown()}.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class LoopRecorder {
+    private static final String TAG = "LoopRecorder";
+    private static final String SEGMENT_SUFFIX = ".mjpeg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+    private static final int JPEG_QUALITY = 70;
+    private static final int BATCH_SIZE = 2 * 1024 * 1024;
+
+    public static final float DEFAULT_FPS = 5;
+    public static final long DEFAULT_SEGMENT_DURATION_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG);
+        }
+    });
+    private final File dir;
+    private final long budget;
+    private final long segmentDuration;
+    private final long frameInterval;
+    private final SegmentWriter writer = new SegmentWriter();
+
+    private PreEventBuffer preEventBuffer;
+    private boolean running;
+    private boolean shutdown;
+    private boolean busy;
+    private long nextFrameTimestamp;
+
+    /**
+     * @param budget disk space in bytes all segments of the directory may take
+     */
+    public LoopRecorder(@NonNull File dir, long budget) {
+        this(dir, budget, DEFAULT_SEGMENT_DURATION_MS, DEFAULT_FPS);
+    }
+
+    /**
+     * @param budget          disk space in bytes all segments of the directory may take
+     * @param segmentDuration segment length in ms of frame time
+     * @param fps             recorded frames per second
+     */
+    public LoopRecorder(@NonNull File dir, long budget, long segmentDuration, float fps) {
+        Preconditions.assertParameterNotNull(dir, "dir");
+        if (budget <= 0 || segmentDuration <= 0 || fps <= 0) {
+            throw new IllegalArgumentException("Budget, segment duration and fps have to be positive");
+        }
+        this.dir = dir;
+        this.budget = budget;
+        this.segmentDuration = TimeUnit.MILLISECONDS.toNanos(segmentDuration);
+        this.frameInterval = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+    }
+
+    /**
+     * Recorded frames are also added to given buffer.
+     */
+    public synchronized void setPreEventBuffer(@Nullable PreEventBuffer preEventBuffer) {
+        this.preEventBuffer = preEventBuffer;
+    }
+
+    public synchronized void start() {
+        if (shutdown) {
+            throw new IllegalStateException("Recorder is shut down");
+        }
+        if (!running) {
+            running = true;
+            nextFrameTimestamp = 0;
+            Log.d(TAG, "Recording to " + dir + ", budget: " + budget);
+        }
+    }
+
+    /**
+     * Stops taking frames, the frame in work and all batched data are still written.
+     */
+    public synchronized void stop() {
+        if (running) {
+            running = false;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writer.close();
+                }
+            });
+        }
+    }
+
+    /**
+     * Stops recording and ends the recorder thread once the batched data are written,
+     * the recorder can't be started again.
+     */
+    public synchronized void shutdown() {
+        stop();
+        shutdown = true;
+        executor.shutdown();
+    }
+
+    /**
+     * @param timestamp frame timestamp in ns
+     * @return true if a frame with given timestamp is due and the recorder is free to take it
+     */
+    public synchronized boolean accepts(long timestamp) {
+        return running && !busy && timestamp >= nextFrameTimestamp;
+    }
+
+    /**
+     * Takes over the frame reference. Frames not accepted are released.
+     */
+    public void submit(@NonNull final Frame frame) {
+        Preconditions.assertParameterNotNull(frame, "frame");
+        synchronized (this) {
+            long timestamp = frame.getTimestamp();
+            if (!accepts(timestamp)) {
+                frame.release();
+                return;
+            }
+            busy = true;
+            // keep the average rate when camera frames don't line up with the interval
+            nextFrameTimestamp = Math.max(nextFrameTimestamp, timestamp - frameInterval) + frameInterval;
+            // queued while running, so not after shutdown
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writer.write(frame);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Recording failed", e);
+                        writer.close();
+                    } finally {
+                        frame.release();
+                        synchronized (LoopRecorder.this) {
+                            busy = false;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Owned by the recorder thread.
+     */
+    private final class SegmentWriter {
+        private final Batch data = new Batch(BATCH_SIZE);
+        private final ByteBuffer index = ByteBuffer.allocate(BATCH_SIZE / 64);
+        private final ArrayDeque<File> segments = new ArrayDeque<>();
+        private long segmentsSize = -1;
+        private byte[] nv21;
+        private FileOutputStream dataStream;
+        private FileOutputStream indexStream;
+        private File segment;
+        private long segmentStart;
+        private long segmentSize;
+
+        void write(@NonNull Frame frame) throws IOException {
+            long timestamp = frame.getTimestamp();
+            if (segment == null || timestamp - segmentStart >= segmentDuration || timestamp < segmentStart) {
+                close();
+                open(timestamp);
+            }
+
+            int size = frame.getBuffer().capacity();
+            if (nv21 == null || nv21.length != size) {
+                nv21 = new byte[size];
+            }
+            ByteBuffer pixels = frame.getBuffer().duplicate();
+            pixels.clear();
+            pixels.get(nv21);
+
+            int offset = data.size();
+            YuvImage image = new YuvImage(nv21, ImageFormat.NV21, frame.getWidth(), frame.getHeight(), null);
+            image.compressToJpeg(new Rect(0, 0, frame.getWidth(), frame.getHeight()), JPEG_QUALITY, data);
+            int length = data.size() - offset;
+
+            index.putLong(timestamp).putLong(segmentSize + offset).putInt(length);
+            PreEventBuffer buffer;
+            synchronized (LoopRecorder.this) {
+                buffer = preEventBuffer;
+            }
+            if (buffer != null) {
+                buffer.add(timestamp, data.array(), offset, length);
+            }
+            if (data.size() >= BATCH_SIZE || index.remaining() < INDEX_ENTRY_SIZE) {
+                flush();
+            }
+        }
+
+        void close() {
+            if (segment == null) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot write " + segment, e);
+                data.reset();
+                index.clear();
+            }
+            closeQuietly(dataStream);
+            closeQuietly(indexStream);
+            segments.addLast(segment);
+            segmentsSize += segment.length() + indexFile(segment).length();
+            Log.d(TAG, "Segment closed: " + segment + ", size: " + segmentSize);
+            segment = null;
+            dataStream = null;
+            indexStream = null;
+        }
+
+        private void open(long timestamp) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            if (segmentsSize < 0) {
+                loadSegments();
+            }
+            // make room for a segment as large as the last one
+            long expected = segments.isEmpty() ? 0 : segments.peekLast().length();
+            while (!segments.isEmpty() && segmentsSize + expected > budget) {
+                deleteOldest();
+            }
+
+            File file = segmentFile(System.currentTimeMillis());
+            dataStream = new FileOutputStream(file);
+            try {
+                indexStream = new FileOutputStream(indexFile(file));
+            } catch (IOException e) {
+                closeQuietly(dataStream);
+                throw e;
+            }
+            segment = file;
+            segmentStart = timestamp;
+            segmentSize = 0;
+        }
+
+        private void flush() throws IOException {
+            FileChannel dataChannel = dataStream.getChannel();
+            ByteBuffer batch = data.wrap();
+            while (batch.hasRemaining()) {
+                dataChannel.write(batch);
+            }
+            segmentSize += data.size();
+            data.reset();
+
+            index.flip();
+            FileChannel indexChannel = indexStream.getChannel();
+            while (index.hasRemaining()) {
+                indexChannel.write(index);
+            }
+            index.clear();
+        }
+
+        private void loadSegments() {
+            File[] files = dir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+                }
+            });
+            segmentsSize = 0;
+            if (files == null) {
+                return;
+            }
+            // names are zero padded creation times
+            Arrays.sort(files);
+            for (File file : files) {
+                segments.addLast(file);
+                segmentsSize += file.length() + indexFile(file).length();
+            }
+        }
+
+        private void deleteOldest() {
+            File oldest = segments.removeFirst();
+            File oldestIndex = indexFile(oldest);
+            segmentsSize -= oldest.length() + oldestIndex.length();
+            if (!oldest.delete()) {
+                Log.w(TAG, "Cannot delete " + oldest);
+            }
+            if (!oldestIndex.delete()) {
+                Log.w(TAG, "Cannot delete " + oldestIndex);
+            }
+        }
+
+        private File segmentFile(long time) {
+            // segments opened within one ms must not overwrite each other
+            File file;
+            while ((file = new File(dir, String.format(Locale.US, "%013d", time) + SEGMENT_SUFFIX)).exists()) {
+                time++;
+            }
+            return file;
+        }
+
+        private File indexFile(@NonNull File segment) {
+            String name = segment.getName();
+            return new File(segment.getParentFile(), name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+        }
+
+        private void closeQuietly(FileOutputStream stream) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close", e);
+            }
+        }
+    }
+
+    /**
+     * JPEGs are encoded right into the batch, it's written without copying.
+     */
+    private static final class Batch extends ByteArrayOutputStream {
+        Batch(int size) {
+            super(size);
+        }
+
+        @NonNull ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+
+        @NonNull byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.andrasta.dashi.camera;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Extracts 1 byte per pixel luma of a {@link Bitmap}, ready for recognizers taking pixelSize 1.
+ * Pixels are read with one bulk call into an array kept between calls, converted with fixed point
+ * BT.601 weights row by row and rows are split across a shared fork-join pool.
+ * <p>
+ * Class isn't threadsafe.
+ */
+public final class LumaExtractor {
+    // BT.601 weights scaled by 2^8, they sum up to 256
+    private static final int SHIFT = 8;
+    private static final int R_WEIGHT = 77;
+    private static final int G_WEIGHT = 150;
+    private static final int B_WEIGHT = 29;
+    // rows converted by one task, smaller bitmaps aren't split
+    static final int ROWS_PER_TASK = 64;
+
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private int[] pixels;
+
+    /**
+     * @param dst reused when at least width * height bytes long, a new array is allocated otherwise
+     * @return array holding the luma from index 0, rows are bitmap width long
+     */
+    public @NonNull byte[] extract(@NonNull Bitmap bitmap, @Nullable byte[] dst) {
+        Preconditions.assertParameterNotNull(bitmap, "bitmap");
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int size = width * height;
+        if (dst == null || dst.length < size) {
+            dst = new byte[size];
+        }
+        if (pixels == null || pixels.length < size) {
+            pixels = new int[size];
+        }
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        extract(pixels, width, height, dst);
+        return dst;
+    }
+
+    /**
+     * @param argb pixels, rows are width long
+     * @param dst  at least width * height bytes
+     */
+    static void extract(@NonNull int[] argb, int width, int height, @NonNull byte[] dst) {
+        if (height <= ROWS_PER_TASK) {
+            convertRows(argb, width, 0, height, dst);
+        } else {
+            pool.invoke(new ConvertTask(argb, width, 0, height, dst));
+        }
+    }
+
+    private static void convertRows(@NonNull int[] argb, int width, int fromRow, int toRow, @NonNull byte[] dst) {
+        int end = toRow * width;
+        for (int i = fromRow * width; i < end; i++) {
+            int pixel = argb[i];
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            dst[i] = (byte) ((R_WEIGHT * r + G_WEIGHT * g + B_WEIGHT * b) >> SHIFT);
+        }
+    }
+
+    private static final class ConvertTask extends RecursiveAction {
+        private final int[] argb;
+        private final int width;
+        private final int fromRow;
+        private final int toRow;
+        private final byte[] dst;
+
+        ConvertTask(@NonNull int[] argb, int width, int fromRow, int toRow, @NonNull byte[] dst) {
+            this.argb = argb;
+            this.width = width;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.dst = dst;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= ROWS_PER_TASK) {
+                convertRows(argb, width, fromRow, toRow, dst);
+            } else {
+                int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new ConvertTask(argb, width, fromRow, middle, dst),
+                        new ConvertTask(argb, width, middle, toRow, dst));
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.andrasta.dashi.camera;
+
+import android.support.annotation.NonNull;
+
+import com.andrasta.dashi.utils.CyclicBuffer;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the last frames as JPEGs so that evidence can include what happened before a detection.
+ * Frames are stored in a {@link CyclicBuffer} of pooled slots, every slot has a fixed size array,
+ * so the buffer never takes more than its memory ceiling and doesn't allocate once filled.
+ * Frames larger than a slot are skipped.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class PreEventBuffer {
+    private final CyclicBuffer<Slot> ring;
+    private final int slotSize;
+    private Slot spare;
+    private long skippedFrames;
+
+    /**
+     * @param capacity      number of frames kept
+     * @param memoryCeiling bytes all frames may take together
+     */
+    public PreEventBuffer(int capacity, int memoryCeiling) {
+        if (capacity <= 0 || memoryCeiling <= 0) {
+            throw new IllegalArgumentException("Capacity and memory ceiling have to be positive");
+        }
+        this.ring = new CyclicBuffer<>(capacity);
+        // one more slot is written while the ring is full
+        this.slotSize = memoryCeiling / (capacity + 1);
+    }
+
+    /**
+     * Copies a JPEG frame into the buffer, the oldest frame is replaced when the buffer is full.
+     *
+     * @param timestamp frame timestamp in ns
+     * @return false if the frame doesn't fit into a slot
+     */
+    public synchronized boolean add(long timestamp, @NonNull byte[] jpeg, int offset, int length) {
+        Preconditions.assertParameterNotNull(jpeg, "jpeg");
+        if (length > slotSize) {
+            skippedFrames++;
+            return false;
+        }
+        if (spare == null) {
+            spare = new Slot(slotSize);
+        }
+        System.arraycopy(jpeg, offset, spare.data, 0, length);
+        spare.length = length;
+        spare.timestamp = timestamp;
+        // the replaced slot takes the next frame
+        spare = ring.add(spare);
+        return true;
+    }
+
+    /**
+     * @return copies of frames with timestamps in given range (ns, inclusive), oldest first
+     */
+    public synchronized @NonNull List<PreEventFrame> freeze(long from, long to) {
+        List<Slot> slots = ring.asList();
+        List<PreEventFrame> frames = new ArrayList<>();
+        for (Slot slot : slots) {
+            if (slot.timestamp >= from && slot.timestamp <= to) {
+                byte[] jpeg = new byte[slot.length];
+                System.arraycopy(slot.data, 0, jpeg, 0, slot.length);
+                frames.add(new PreEventFrame(slot.timestamp, jpeg));
+            }
+        }
+        // ring lists the newest first
+        Collections.reverse(frames);
+        return frames;
+    }
+
+    public synchronized void reset() {
+        ring.reset();
+    }
+
+    /**
+     * @return frames skipped since they didn't fit into a slot
+     */
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    private static final class Slot {
+        private final byte[] data;
+        private int length;
+        private long timestamp;
+
+        Slot(int size) {
+            this.data = new byte[size];
+        }
+    }
+
+    /**
+     * Frozen frame, class is immutable.
+     */
+    public static final class PreEventFrame {
+        private final long timestamp;
+        private final byte[] jpeg;
+
+        PreEventFrame(long timestamp, @NonNull byte[] jpeg) {
+            this.timestamp = timestamp;
+            this.jpeg = jpeg;
+        }
+
+        /**
+         * @return frame timestamp in ns
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return read only view of the JPEG data
+         */
+        public @NonNull ByteBuffer getJpeg() {
+            return ByteBuffer.wrap(jpeg).asReadOnlyBuffer();
+        }
+    }
+}
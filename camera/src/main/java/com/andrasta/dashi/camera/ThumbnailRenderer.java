@@ -0,0 +1,107 @@
+package com.andrasta.dashi.camera;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders a scaled ARGB thumbnail of an area of a {@link Frame} straight from its NV21 buffer.
+ * The thumbnail is usually smaller, areas smaller than the thumbnail are upscaled.
+ * Luma and chroma are sampled at the thumbnail size in one pass and converted with fixed point
+ * BT.601 coefficients, the full resolution area is never encoded or decoded.
+ * Pixel and column offset buffers are kept between calls.
+ * <p>
+ * Class isn't threadsafe.
+ */
+public final class ThumbnailRenderer {
+    // BT.601 full range coefficients scaled by 2^10
+    private static final int SHIFT = 10;
+    private static final int V_TO_R = 1436;
+    private static final int U_TO_G = 352;
+    private static final int V_TO_G = 731;
+    private static final int U_TO_B = 1815;
+
+    private int[] pixels;
+    private int[] columns;
+    private int columnsLeft;
+    private int columnsWidth;
+
+    /**
+     * Fills the whole bitmap with the area of the frame scaled to the bitmap size.
+     *
+     * @param area   area in frame coordinates
+     * @param bitmap mutable {@link Bitmap.Config#ARGB_8888} bitmap, may be reused between frames
+     */
+    public void render(@NonNull Frame frame, @NonNull Rect area, @NonNull Bitmap bitmap) {
+        Preconditions.assertParameterNotNull(frame, "frame");
+        Preconditions.assertParameterNotNull(area, "area");
+        Preconditions.assertParameterNotNull(bitmap, "bitmap");
+        int dstWidth = bitmap.getWidth();
+        int dstHeight = bitmap.getHeight();
+        if (pixels == null || pixels.length < dstWidth * dstHeight) {
+            pixels = new int[dstWidth * dstHeight];
+        }
+        render(frame.getBuffer(), frame.getWidth(), frame.getHeight(), area.left, area.top, area.width(), area.height(),
+                pixels, dstWidth, dstHeight);
+        bitmap.setPixels(pixels, 0, dstWidth, 0, 0, dstWidth, dstHeight);
+    }
+
+    /**
+     * Nearest neighbour scaling of an area of an NV21 image into ARGB pixels.
+     *
+     * @param nv21 image read from index 0, position isn't changed
+     * @param argb at least dstWidth * dstHeight pixels, rows are dstWidth long
+     */
+    void render(@NonNull ByteBuffer nv21, int width, int height, int left, int top, int areaWidth, int areaHeight,
+                @NonNull int[] argb, int dstWidth, int dstHeight) {
+        if (left < 0 || top < 0 || areaWidth <= 0 || areaHeight <= 0
+                || left + areaWidth > width || top + areaHeight > height) {
+            throw new IllegalArgumentException("Area has to be within source size");
+        }
+        if (dstWidth <= 0 || dstHeight <= 0) {
+            throw new IllegalArgumentException("Thumbnail size has to be positive");
+        }
+        prepareColumns(left, areaWidth, dstWidth);
+        int lumaSize = width * height;
+        int i = 0;
+        for (int y = 0; y < dstHeight; y++) {
+            int sourceY = top + y * areaHeight / dstHeight;
+            int lumaRow = sourceY * width;
+            int chromaRow = lumaSize + (sourceY >> 1) * width;
+            for (int x = 0; x < dstWidth; x++) {
+                int sourceX = columns[x];
+                int luma = nv21.get(lumaRow + sourceX) & 0xff;
+                int chroma = chromaRow + (sourceX & ~1);
+                int v = (nv21.get(chroma) & 0xff) - 128;
+                int u = (nv21.get(chroma + 1) & 0xff) - 128;
+                int scaledLuma = luma << SHIFT;
+                int r = clamp((scaledLuma + V_TO_R * v) >> SHIFT);
+                int g = clamp((scaledLuma - U_TO_G * u - V_TO_G * v) >> SHIFT);
+                int b = clamp((scaledLuma + U_TO_B * u) >> SHIFT);
+                argb[i++] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private void prepareColumns(int left, int areaWidth, int dstWidth) {
+        if (columns == null || columns.length != dstWidth) {
+            columns = new int[dstWidth];
+            columnsWidth = 0;
+        }
+        if (columnsLeft != left || columnsWidth != areaWidth) {
+            for (int x = 0; x < dstWidth; x++) {
+                columns[x] = left + x * areaWidth / dstWidth;
+            }
+            columnsLeft = left;
+            columnsWidth = areaWidth;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,212 @@
+package com.andrasta.dashi.camera;
+
+import android.media.Image;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV_420_888 planes to tightly packed NV21 or I420 honoring row and pixel strides.
+ * Output goes into caller supplied buffers, rows are staged in scratch arrays kept between calls.
+ * Chroma planes already interleaved in NV21 order, the common camera layout, are copied in bulk.
+ * <p>
+ * Plane buffers are read from index 0 and left cleared. Width and height have to be even.
+ * Class isn't threadsafe.
+ */
+public final class YuvConverter {
+
+    public enum Format {
+        /** Y plane followed by interleaved V/U samples */
+        NV21,
+        /** Y plane followed by U plane and V plane */
+        I420
+    }
+
+    private byte[] rowIn;
+    private byte[] rowVIn;
+    private byte[] rowOut;
+    private byte[] wrappedArray;
+    private ByteBuffer wrappedBuffer;
+
+    /**
+     * @return size of a converted image in bytes
+     */
+    public static int getSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * @param dst reused when at least {@link #getSize(int, int)} bytes long, a new array is allocated otherwise
+     * @return array holding the converted image from index 0
+     */
+    public @NonNull byte[] convert(@NonNull Image image, @NonNull Format format, @Nullable byte[] dst) {
+        Preconditions.assertParameterNotNull(image, "image");
+        int size = getSize(image.getWidth(), image.getHeight());
+        if (dst == null || dst.length < size) {
+            dst = new byte[size];
+        }
+        if (dst != wrappedArray) {
+            wrappedArray = dst;
+            wrappedBuffer = ByteBuffer.wrap(dst);
+        }
+        wrappedBuffer.clear();
+        convert(image, format, wrappedBuffer);
+        return dst;
+    }
+
+    /**
+     * Writes the converted image at the current position of dst and advances it.
+     */
+    public void convert(@NonNull Image image, @NonNull Format format, @NonNull ByteBuffer dst) {
+        Preconditions.assertParameterNotNull(image, "image");
+        Image.Plane[] planes = image.getPlanes();
+        convert(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight(), format, dst);
+    }
+
+    /**
+     * Writes the converted image at the current position of dst and advances it.
+     * U and V planes have to share row and pixel stride, as YUV_420_888 planes do.
+     */
+    public void convert(@NonNull ByteBuffer y, int yRowStride,
+                        @NonNull ByteBuffer u, @NonNull ByteBuffer v, int uvRowStride, int uvPixelStride,
+                        int width, int height, @NonNull Format format, @NonNull ByteBuffer dst) {
+        Preconditions.assertParameterNotNull(y, "y");
+        Preconditions.assertParameterNotNull(u, "u");
+        Preconditions.assertParameterNotNull(v, "v");
+        Preconditions.assertParameterNotNull(format, "format");
+        Preconditions.assertParameterNotNull(dst, "dst");
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Width and height have to be positive and even");
+        }
+        if (yRowStride < width || uvPixelStride < 1 || uvRowStride < (width / 2 - 1) * uvPixelStride + 1) {
+            throw new IllegalArgumentException("Strides don't fit image width");
+        }
+        if (dst.remaining() < getSize(width, height)) {
+            throw new IllegalArgumentException("Destination too small");
+        }
+
+        y.clear();
+        u.clear();
+        v.clear();
+        copyPlane(y, yRowStride, width, height, dst);
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (format == Format.NV21) {
+            if (uvPixelStride == 2 && isInterleavedVU(u, v)) {
+                copyInterleaved(u, v, uvRowStride, chromaWidth, chromaHeight, dst);
+            } else {
+                gatherInterleaved(u, v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst);
+            }
+        } else if (uvPixelStride == 1) {
+            copyPlane(u, uvRowStride, chromaWidth, chromaHeight, dst);
+            copyPlane(v, uvRowStride, chromaWidth, chromaHeight, dst);
+        } else {
+            gatherPlane(u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst);
+            gatherPlane(v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, dst);
+        }
+        y.clear();
+        u.clear();
+        v.clear();
+    }
+
+    /**
+     * Checks whether U and V are views of one semi-planar buffer in V/U order,
+     * i.e. the byte after each V sample is the U sample. Probes by flipping one V byte
+     * and restores it, read only buffers are treated as separate planes.
+     */
+    static boolean isInterleavedVU(@NonNull ByteBuffer u, @NonNull ByteBuffer v) {
+        if (v.isReadOnly() || v.capacity() < 2 || u.capacity() < 1) {
+            return false;
+        }
+        byte saved = v.get(1);
+        byte probe = (byte) ~saved;
+        v.put(1, probe);
+        boolean interleaved = u.get(0) == probe;
+        v.put(1, saved);
+        return interleaved;
+    }
+
+    private static void copyPlane(@NonNull ByteBuffer plane, int rowStride, int width, int rows,
+                                  @NonNull ByteBuffer dst) {
+        if (rowStride == width) {
+            plane.position(0).limit(width * rows);
+            dst.put(plane);
+        } else {
+            for (int row = 0; row < rows; row++) {
+                int offset = row * rowStride;
+                plane.position(0).limit(offset + width).position(offset);
+                dst.put(plane);
+            }
+        }
+        plane.clear();
+    }
+
+    /**
+     * V plane of a semi-planar buffer already holds V/U pairs, only its last U sample
+     * lies behind the V plane end.
+     */
+    private static void copyInterleaved(@NonNull ByteBuffer u, @NonNull ByteBuffer v, int rowStride,
+                                        int chromaWidth, int chromaHeight, @NonNull ByteBuffer dst) {
+        int rowLength = chromaWidth * 2 - 1;
+        if (rowStride == chromaWidth * 2) {
+            int length = chromaHeight * rowStride - 1;
+            v.position(0).limit(length);
+            dst.put(v);
+            dst.put(u.get(length - 1));
+        } else {
+            for (int row = 0; row < chromaHeight; row++) {
+                int offset = row * rowStride;
+                v.position(0).limit(offset + rowLength).position(offset);
+                dst.put(v);
+                dst.put(u.get(offset + rowLength - 1));
+            }
+        }
+        v.clear();
+    }
+
+    private void gatherInterleaved(@NonNull ByteBuffer u, @NonNull ByteBuffer v, int rowStride, int pixelStride,
+                                   int chromaWidth, int chromaHeight, @NonNull ByteBuffer dst) {
+        int rowLength = (chromaWidth - 1) * pixelStride + 1;
+        ensureRows(rowLength, chromaWidth * 2);
+        for (int row = 0; row < chromaHeight; row++) {
+            u.position(row * rowStride);
+            u.get(rowIn, 0, rowLength);
+            v.position(row * rowStride);
+            v.get(rowVIn, 0, rowLength);
+            for (int col = 0, i = 0; col < chromaWidth; col++, i += pixelStride) {
+                rowOut[col * 2] = rowVIn[i];
+                rowOut[col * 2 + 1] = rowIn[i];
+            }
+            dst.put(rowOut, 0, chromaWidth * 2);
+        }
+    }
+
+    private void gatherPlane(@NonNull ByteBuffer plane, int rowStride, int pixelStride,
+                             int width, int rows, @NonNull ByteBuffer dst) {
+        int rowLength = (width - 1) * pixelStride + 1;
+        ensureRows(rowLength, width);
+        for (int row = 0; row < rows; row++) {
+            plane.position(row * rowStride);
+            plane.get(rowIn, 0, rowLength);
+            for (int col = 0, i = 0; col < width; col++, i += pixelStride) {
+                rowOut[col] = rowIn[i];
+            }
+            dst.put(rowOut, 0, width);
+        }
+    }
+
+    private void ensureRows(int inLength, int outLength) {
+        if (rowIn == null || rowIn.length < inLength) {
+            rowIn = new byte[inLength];
+            rowVIn = new byte[inLength];
+        }
+        if (rowOut == null || rowOut.length < outLength) {
+            rowOut = new byte[outLength];
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.andrasta.dashi.camera;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+public class ImageSaverTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("saver", "");
+        Assert.assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        dir.delete();
+    }
+
+    @Test
+    public void testSaved() throws Exception {
+        ImageSaver saver = new ImageSaver(ImageSaver.MAX_BATCH * 3, ImageSaver.OverflowPolicy.DROP);
+        int count = ImageSaver.MAX_BATCH * 2 + 1;
+        // the writer waits for the lock, so every save is queued before the first batch
+        synchronized (saver) {
+            for (int i = 0; i < count; i++) {
+                Assert.assertTrue(saver.saveToFile(data(i), file(i)));
+            }
+            Assert.assertEquals(count, saver.getQueueDepth());
+        }
+        shutdown(saver);
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(data(i).array(), read(file(i)));
+        }
+        Assert.assertEquals(count, saver.getSavedCount());
+        Assert.assertEquals(0, saver.getDroppedCount());
+        Assert.assertEquals(0, saver.getFailedCount());
+        Assert.assertEquals(0, saver.getQueueDepth());
+        Assert.assertEquals(count, saver.getMaxQueueDepth());
+        Assert.assertTrue(saver.getMaxWriteLatency() >= saver.getAverageWriteLatency());
+    }
+
+    @Test
+    public void testDataNotMoved() throws Exception {
+        ImageSaver saver = new ImageSaver();
+        ByteBuffer data = data(1);
+        data.position(1);
+        Assert.assertTrue(saver.saveToFile(data.asReadOnlyBuffer(), file(1)));
+        shutdown(saver);
+
+        Assert.assertEquals(1, data.position());
+        Assert.assertArrayEquals(new byte[]{1, 1}, read(file(1)));
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        ImageSaver saver = new ImageSaver(2, ImageSaver.OverflowPolicy.DROP);
+        synchronized (saver) {
+            Assert.assertTrue(saver.saveToFile(data(0), file(0)));
+            Assert.assertTrue(saver.saveToFile(data(1), file(1)));
+            Assert.assertFalse(saver.saveToFile(data(2), file(2)));
+            Assert.assertFalse(saver.saveToFile(data(3), file(0)));
+        }
+        shutdown(saver);
+
+        Assert.assertArrayEquals(data(0).array(), read(file(0)));
+        Assert.assertArrayEquals(data(1).array(), read(file(1)));
+        Assert.assertFalse(file(2).exists());
+        Assert.assertEquals(2, saver.getSavedCount());
+        Assert.assertEquals(2, saver.getDroppedCount());
+        Assert.assertEquals(2, saver.getMaxQueueDepth());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        ImageSaver saver = new ImageSaver(2, ImageSaver.OverflowPolicy.COALESCE);
+        synchronized (saver) {
+            Assert.assertTrue(saver.saveToFile(data(0), file(0)));
+            Assert.assertTrue(saver.saveToFile(data(1), file(1)));
+            // replaces the queued save of the same file
+            Assert.assertTrue(saver.saveToFile(data(2), file(0)));
+            // replaces the oldest queued save
+            Assert.assertTrue(saver.saveToFile(data(3), file(3)));
+        }
+        shutdown(saver);
+
+        Assert.assertFalse(file(1).exists());
+        Assert.assertArrayEquals(data(2).array(), read(file(0)));
+        Assert.assertArrayEquals(data(3).array(), read(file(3)));
+        Assert.assertEquals(2, saver.getSavedCount());
+        Assert.assertEquals(2, saver.getDroppedCount());
+        Assert.assertEquals(2, saver.getMaxQueueDepth());
+    }
+
+    @Test
+    public void testBlock() throws Exception {
+        ImageSaver saver = new ImageSaver(1, ImageSaver.OverflowPolicy.BLOCK);
+        int count = 20;
+        for (int i = 0; i < count; i++) {
+            Assert.assertTrue(saver.saveToFile(data(i), file(i)));
+            Assert.assertTrue(saver.getQueueDepth() <= 1);
+        }
+        shutdown(saver);
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertArrayEquals(data(i).array(), read(file(i)));
+        }
+        Assert.assertEquals(count, saver.getSavedCount());
+        Assert.assertEquals(0, saver.getDroppedCount());
+        Assert.assertEquals(1, saver.getMaxQueueDepth());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        ImageSaver saver = new ImageSaver(1, ImageSaver.OverflowPolicy.BLOCK);
+        synchronized (saver) {
+            Assert.assertTrue(saver.saveToFile(data(0), file(0)));
+            saver.shutdown();
+            // would block on the full queue
+            Assert.assertFalse(saver.saveToFile(data(1), file(1)));
+        }
+        Assert.assertTrue(saver.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertArrayEquals(data(0).array(), read(file(0)));
+        Assert.assertFalse(saver.saveToFile(data(2), file(2)));
+        Assert.assertFalse(file(2).exists());
+        Assert.assertEquals(1, saver.getSavedCount());
+        Assert.assertEquals(2, saver.getDroppedCount());
+    }
+
+    @Test
+    public void testFailed() throws Exception {
+        ImageSaver saver = new ImageSaver();
+        Assert.assertTrue(dir.mkdirs());
+        // a directory can't be written as a file
+        File file = new File(dir, "dir");
+        Assert.assertTrue(file.mkdir());
+        Assert.assertTrue(saver.saveToFile(data(0), file));
+        Assert.assertTrue(saver.saveToFile(data(1), file(1)));
+        shutdown(saver);
+
+        Assert.assertEquals(1, saver.getSavedCount());
+        Assert.assertEquals(1, saver.getFailedCount());
+        Assert.assertArrayEquals(data(1).array(), read(file(1)));
+        Assert.assertTrue(file.delete());
+    }
+
+    private File file(int i) {
+        return new File(dir, i + ".jpg");
+    }
+
+    private static ByteBuffer data(int i) {
+        return ByteBuffer.wrap(new byte[]{(byte) i, (byte) i, (byte) i});
+    }
+
+    private static void shutdown(ImageSaver saver) throws InterruptedException {
+        saver.shutdown();
+        Assert.assertTrue(saver.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] data = new byte[(int) in.length()];
+            in.readFully(data);
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.andrasta.dashi.camera;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LumaExtractorTest {
+    private static final int WIDTH = 7;
+
+    @Test
+    public void testWeights() throws Exception {
+        Assert.assertEquals(255, luma(0xffffffff));
+        Assert.assertEquals(0, luma(0xff000000));
+        // BT.601 weights scaled by 2^8, alpha is ignored
+        Assert.assertEquals(76, luma(0x00ff0000));
+        Assert.assertEquals(149, luma(0xff00ff00));
+        Assert.assertEquals(28, luma(0xff0000ff));
+        Assert.assertEquals((77 * 200 + 150 * 100 + 29 * 50) >> 8, luma(0xffc86432));
+    }
+
+    @Test
+    public void testSingleTask() throws Exception {
+        assertConverted(LumaExtractor.ROWS_PER_TASK);
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        // split into tasks of uneven row counts
+        assertConverted(LumaExtractor.ROWS_PER_TASK * 3 + 5);
+    }
+
+    @Test
+    public void testOutputReused() throws Exception {
+        int height = LumaExtractor.ROWS_PER_TASK + 1;
+        int size = WIDTH * height;
+        byte[] dst = new byte[size + 3];
+        LumaExtractor.extract(createPixels(height, 0), WIDTH, height, dst);
+        int[] argb = createPixels(height, 1);
+        LumaExtractor.extract(argb, WIDTH, height, dst);
+
+        for (int i = 0; i < size; i++) {
+            Assert.assertEquals("Pixel " + i, expectedLuma(argb[i]), dst[i] & 0xff);
+        }
+        // bytes after the image are left alone
+        for (int i = size; i < dst.length; i++) {
+            Assert.assertEquals(0, dst[i]);
+        }
+    }
+
+    private static void assertConverted(int height) {
+        int[] argb = createPixels(height, 0);
+        byte[] dst = new byte[WIDTH * height];
+        LumaExtractor.extract(argb, WIDTH, height, dst);
+        for (int i = 0; i < dst.length; i++) {
+            Assert.assertEquals("Pixel " + i, expectedLuma(argb[i]), dst[i] & 0xff);
+        }
+    }
+
+    private static int luma(int pixel) {
+        byte[] dst = new byte[1];
+        LumaExtractor.extract(new int[]{pixel}, 1, 1, dst);
+        return dst[0] & 0xff;
+    }
+
+    private static int[] createPixels(int height, int seed) {
+        int[] argb = new int[WIDTH * height];
+        for (int i = 0; i < argb.length; i++) {
+            int value = i * 31 + seed * 97;
+            argb[i] = 0xff000000 | ((value & 0xff) << 16) | (((value >> 3) & 0xff) << 8) | ((value * 7) & 0xff);
+        }
+        return argb;
+    }
+
+    private static int expectedLuma(int pixel) {
+        int r = (pixel >> 16) & 0xff;
+        int g = (pixel >> 8) & 0xff;
+        int b = pixel & 0xff;
+        return (77 * r + 150 * g + 29 * b) >> 8;
+    }
+}
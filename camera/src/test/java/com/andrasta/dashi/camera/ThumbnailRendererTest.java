@@ -0,0 +1,99 @@
+package com.andrasta.dashi.camera;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class ThumbnailRendererTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+
+    @Test
+    public void testGray() throws Exception {
+        ByteBuffer nv21 = createImage(128, 128);
+        int[] argb = new int[WIDTH * HEIGHT];
+        new ThumbnailRenderer().render(nv21, WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT, argb, WIDTH, HEIGHT);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int luma = luma(x, y);
+                Assert.assertEquals(0xff000000 | (luma << 16) | (luma << 8) | luma, argb[y * WIDTH + x]);
+            }
+        }
+        Assert.assertEquals(0, nv21.position());
+    }
+
+    @Test
+    public void testColors() throws Exception {
+        int[] argb = new int[1];
+        // BT.601 with 10 bit fixed point weights, green clamped at 0
+        new ThumbnailRenderer().render(createImage(128, 255), WIDTH, HEIGHT, 0, 0, 2, 2, argb, 1, 1);
+        Assert.assertEquals(0xff000000 | (194 << 16) | 16, argb[0]);
+
+        new ThumbnailRenderer().render(createImage(255, 128), WIDTH, HEIGHT, 0, 0, 2, 2, argb, 1, 1);
+        Assert.assertEquals(0xff000000 | (16 << 16) | 241, argb[0]);
+    }
+
+    @Test
+    public void testArea() throws Exception {
+        ByteBuffer nv21 = createImage(128, 128);
+        ThumbnailRenderer renderer = new ThumbnailRenderer();
+        int[] argb = new int[2];
+        // every second pixel of the area's single row
+        renderer.render(nv21, WIDTH, HEIGHT, 4, 2, 4, 2, argb, 2, 1);
+        Assert.assertEquals(luma(4, 2), argb[0] & 0xff);
+        Assert.assertEquals(luma(6, 2), argb[1] & 0xff);
+
+        // column offsets are recomputed for another area of the same size
+        renderer.render(nv21, WIDTH, HEIGHT, 2, 0, 4, 2, argb, 2, 1);
+        Assert.assertEquals(luma(2, 0), argb[0] & 0xff);
+        Assert.assertEquals(luma(4, 0), argb[1] & 0xff);
+    }
+
+    @Test
+    public void testUpscaled() throws Exception {
+        int[] argb = new int[4];
+        new ThumbnailRenderer().render(createImage(128, 128), WIDTH, HEIGHT, 6, 3, 1, 1, argb, 2, 2);
+        for (int pixel : argb) {
+            Assert.assertEquals(luma(6, 3), pixel & 0xff);
+        }
+    }
+
+    @Test
+    public void testOutOfBounds() throws Exception {
+        ByteBuffer nv21 = createImage(128, 128);
+        ThumbnailRenderer renderer = new ThumbnailRenderer();
+        int[] argb = new int[WIDTH * HEIGHT];
+        try {
+            renderer.render(nv21, WIDTH, HEIGHT, 2, 0, WIDTH, HEIGHT, argb, 2, 2);
+            Assert.fail("Area outside of the image");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            renderer.render(nv21, WIDTH, HEIGHT, 0, 0, 4, 2, argb, 0, 2);
+            Assert.fail("Empty thumbnail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static ByteBuffer createImage(int u, int v) {
+        ByteBuffer nv21 = ByteBuffer.allocate(WIDTH * HEIGHT * 3 / 2);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21.put(y * WIDTH + x, (byte) luma(x, y));
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < nv21.capacity(); i += 2) {
+            nv21.put(i, (byte) v);
+            nv21.put(i + 1, (byte) u);
+        }
+        return nv21;
+    }
+
+    private static int luma(int x, int y) {
+        return 16 + y * 40 + x * 5;
+    }
+}
@@ -0,0 +1,177 @@
+package com.andrasta.dashi.camera;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class YuvConverterTest {
+    private static final int WIDTH = 6;
+    private static final int HEIGHT = 4;
+    private static final int Y_ROW_STRIDE = 8;
+    private static final int UV_ROW_STRIDE = 8;
+
+    @Test
+    public void testPlanar() throws Exception {
+        ByteBuffer y = createLuma();
+        ByteBuffer u = createChroma(1, 100);
+        ByteBuffer v = createChroma(1, 200);
+        YuvConverter converter = new YuvConverter();
+
+        Assert.assertArrayEquals(expected(YuvConverter.Format.NV21), convert(converter, y, u, v, 1, YuvConverter.Format.NV21));
+        Assert.assertArrayEquals(expected(YuvConverter.Format.I420), convert(converter, y, u, v, 1, YuvConverter.Format.I420));
+    }
+
+    @Test
+    public void testSeparatePlanesWithPixelStride() throws Exception {
+        ByteBuffer y = createLuma();
+        ByteBuffer u = createChroma(2, 100);
+        ByteBuffer v = createChroma(2, 200);
+        YuvConverter converter = new YuvConverter();
+
+        Assert.assertFalse(YuvConverter.isInterleavedVU(u, v));
+        Assert.assertArrayEquals(expected(YuvConverter.Format.NV21), convert(converter, y, u, v, 2, YuvConverter.Format.NV21));
+        Assert.assertArrayEquals(expected(YuvConverter.Format.I420), convert(converter, y, u, v, 2, YuvConverter.Format.I420));
+    }
+
+    @Test
+    public void testInterleaved() throws Exception {
+        // semi-planar V/U buffer, U plane starts one byte after V plane like on most cameras
+        ByteBuffer vu = ByteBuffer.allocate(UV_ROW_STRIDE * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                vu.put(row * UV_ROW_STRIDE + col * 2, chroma(200, row, col));
+                vu.put(row * UV_ROW_STRIDE + col * 2 + 1, chroma(100, row, col));
+            }
+        }
+        vu.position(0).limit(vu.capacity() - UV_ROW_STRIDE + WIDTH - 1);
+        ByteBuffer v = vu.slice();
+        vu.position(1).limit(vu.capacity() - UV_ROW_STRIDE + WIDTH);
+        ByteBuffer u = vu.slice();
+        ByteBuffer y = createLuma();
+        YuvConverter converter = new YuvConverter();
+
+        Assert.assertTrue(YuvConverter.isInterleavedVU(u, v));
+        Assert.assertFalse(YuvConverter.isInterleavedVU(u.asReadOnlyBuffer(), v.asReadOnlyBuffer()));
+        Assert.assertArrayEquals(expected(YuvConverter.Format.NV21), convert(converter, y, u, v, 2, YuvConverter.Format.NV21));
+        Assert.assertArrayEquals(expected(YuvConverter.Format.I420), convert(converter, y, u, v, 2, YuvConverter.Format.I420));
+        // probe must not change the image
+        Assert.assertArrayEquals(expected(YuvConverter.Format.NV21), convert(converter, y, u, v, 2, YuvConverter.Format.NV21));
+    }
+
+    @Test
+    public void testPackedStrides() throws Exception {
+        ByteBuffer y = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * WIDTH + col, luma(row, col));
+            }
+        }
+        ByteBuffer vu = ByteBuffer.allocate(WIDTH * HEIGHT / 2);
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                vu.put(row * WIDTH + col * 2, chroma(200, row, col));
+                vu.put(row * WIDTH + col * 2 + 1, chroma(100, row, col));
+            }
+        }
+        vu.position(0).limit(vu.capacity() - 1);
+        ByteBuffer v = vu.slice();
+        vu.position(1).limit(vu.capacity());
+        ByteBuffer u = vu.slice();
+
+        ByteBuffer dst = ByteBuffer.allocate(YuvConverter.getSize(WIDTH, HEIGHT));
+        new YuvConverter().convert(y, WIDTH, u, v, WIDTH, 2, WIDTH, HEIGHT, YuvConverter.Format.NV21, dst);
+        Assert.assertEquals(0, dst.remaining());
+        Assert.assertArrayEquals(expected(YuvConverter.Format.NV21), dst.array());
+    }
+
+    @Test
+    public void testDestinationReuse() throws Exception {
+        ByteBuffer y = createLuma();
+        ByteBuffer u = createChroma(1, 100);
+        ByteBuffer v = createChroma(1, 200);
+        YuvConverter converter = new YuvConverter();
+
+        ByteBuffer dst = ByteBuffer.allocate(YuvConverter.getSize(WIDTH, HEIGHT) + 2);
+        dst.put((byte) 1).put((byte) 2);
+        converter.convert(y, Y_ROW_STRIDE, u, v, UV_ROW_STRIDE, 1, WIDTH, HEIGHT, YuvConverter.Format.NV21, dst);
+        Assert.assertEquals(0, dst.remaining());
+        Assert.assertEquals(1, dst.get(0));
+        Assert.assertEquals(2, dst.get(1));
+
+        try {
+            dst.position(3);
+            converter.convert(y, Y_ROW_STRIDE, u, v, UV_ROW_STRIDE, 1, WIDTH, HEIGHT, YuvConverter.Format.NV21, dst);
+            Assert.fail("Destination too small");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static byte[] convert(YuvConverter converter, ByteBuffer y, ByteBuffer u, ByteBuffer v,
+                                  int pixelStride, YuvConverter.Format format) {
+        ByteBuffer dst = ByteBuffer.allocate(YuvConverter.getSize(WIDTH, HEIGHT));
+        converter.convert(y, Y_ROW_STRIDE, u, v, UV_ROW_STRIDE, pixelStride, WIDTH, HEIGHT, format, dst);
+        Assert.assertEquals(0, dst.remaining());
+        return dst.array();
+    }
+
+    private static ByteBuffer createLuma() {
+        // last row without padding like camera planes
+        ByteBuffer y = ByteBuffer.allocate(Y_ROW_STRIDE * (HEIGHT - 1) + WIDTH);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                y.put(row * Y_ROW_STRIDE + col, luma(row, col));
+            }
+        }
+        return y;
+    }
+
+    private static ByteBuffer createChroma(int pixelStride, int base) {
+        ByteBuffer plane = ByteBuffer.allocate(UV_ROW_STRIDE * (HEIGHT / 2 - 1) + (WIDTH / 2 - 1) * pixelStride + 1);
+        for (int i = 0; i < plane.capacity(); i++) {
+            plane.put(i, (byte) 0xff);
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                plane.put(row * UV_ROW_STRIDE + col * pixelStride, chroma(base, row, col));
+            }
+        }
+        return plane;
+    }
+
+    private static byte[] expected(YuvConverter.Format format) {
+        byte[] expected = new byte[YuvConverter.getSize(WIDTH, HEIGHT)];
+        int i = 0;
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                expected[i++] = luma(row, col);
+            }
+        }
+        if (format == YuvConverter.Format.NV21) {
+            for (int row = 0; row < HEIGHT / 2; row++) {
+                for (int col = 0; col < WIDTH / 2; col++) {
+                    expected[i++] = chroma(200, row, col);
+                    expected[i++] = chroma(100, row, col);
+                }
+            }
+        } else {
+            for (int base : new int[]{100, 200}) {
+                for (int row = 0; row < HEIGHT / 2; row++) {
+                    for (int col = 0; col < WIDTH / 2; col++) {
+                        expected[i++] = chroma(base, row, col);
+                    }
+                }
+            }
+        }
+        return expected;
+    }
+
+    private static byte luma(int row, int col) {
+        return (byte) (row * 10 + col);
+    }
+
+    private static byte chroma(int base, int row, int col) {
+        return (byte) (base + row * 10 + col);
+    }
+}
@@ -0,0 +1,122 @@
+package com.andrasta.dashi.alpr;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.andrasta.dashi.openalpr.Alpr;
+import com.andrasta.dashi.openalpr.AlprResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares per-frame recognition with batched recognition at batch sizes 1, 4 and 16.
+ * Needs alpr configuration copied by the app, so run the app once before.
+ * Results are logged with tag {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlprBatchBenchmark {
+    private static final String TAG = "AlprBatchBenchmark";
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 64;
+    private static final int[] BATCH_SIZES = {1, 4, 16};
+
+    private Alpr alpr;
+
+    @Before
+    public void setUp() {
+        File configDir = InstrumentationRegistry.getTargetContext().getFilesDir();
+        File configFile = new File(configDir, AlprPool.CONFIG_FILE_NAME);
+        File runtimeDir = new File(configDir, AlprPool.RUNTIME_DIR);
+        assumeTrue(configFile.isFile() && runtimeDir.isDirectory());
+        alpr = new Alpr(null, configFile.getAbsolutePath(), runtimeDir.getAbsolutePath());
+        // warm up
+        alpr.recognizeFromByteBuffer(createFrame(0), 1, WIDTH, HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        if (alpr != null) {
+            alpr.close();
+        }
+    }
+
+    @Test
+    public void perFrame() {
+        ByteBuffer[] frames = createFrames(FRAMES);
+        long time = System.nanoTime();
+        for (ByteBuffer frame : frames) {
+            alpr.recognizeFromByteBuffer(frame, 1, WIDTH, HEIGHT);
+        }
+        log("per frame", System.nanoTime() - time);
+    }
+
+    @Test
+    public void batched() {
+        ByteBuffer[] frames = createFrames(FRAMES);
+        for (int batchSize : BATCH_SIZES) {
+            ByteBuffer[] batch = new ByteBuffer[batchSize];
+            long time = System.nanoTime();
+            for (int i = 0; i < FRAMES; i += batchSize) {
+                System.arraycopy(frames, i, batch, 0, batchSize);
+                AlprResult[] results = alpr.recognizeFromByteBuffers(batch, 1, WIDTH, HEIGHT);
+                assertEquals(batchSize, results.length);
+            }
+            log("batch of " + batchSize, System.nanoTime() - time);
+        }
+    }
+
+    @Test
+    public void packed() {
+        int frameSize = WIDTH * HEIGHT;
+        for (int batchSize : BATCH_SIZES) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(frameSize * batchSize);
+            int[] offsets = new int[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                offsets[i] = i * frameSize;
+                buffer.put(createFrame(i));
+            }
+            buffer.clear();
+
+            long time = System.nanoTime();
+            for (int i = 0; i < FRAMES; i += batchSize) {
+                AlprResult[] results = alpr.recognizeFromPackedByteBuffer(buffer, offsets, 1, WIDTH, HEIGHT);
+                assertEquals(batchSize, results.length);
+            }
+            log("packed batch of " + batchSize, System.nanoTime() - time);
+        }
+    }
+
+    private static void log(String name, long nanos) {
+        Log.i(TAG, name + ": " + (nanos / 1000 / FRAMES) + " us per frame");
+    }
+
+    private static ByteBuffer[] createFrames(int count) {
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = createFrame(i);
+        }
+        return frames;
+    }
+
+    private static ByteBuffer createFrame(int seed) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame.put((byte) ((x + seed) / 16 % 2 == 0 ? 220 : y / 8 % 2 == 0 ? 30 : 120));
+            }
+        }
+        frame.clear();
+        return frame;
+    }
+}
@@ -0,0 +1,132 @@
+package com.andrasta.dashi.alpr;
+
+import android.graphics.Point;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.andrasta.dashi.openalpr.LaneDetector;
+import com.andrasta.dashi.openalpr.LaneDetector.Strategy;
+import com.andrasta.dashi.openalpr.LaneDetectorResult;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compares lane detection on full 1080p frames with the downscaled mode at scales 1, 2 and 4,
+ * and the lane fitting strategies with each other.
+ * Frames are synthetic with two lane lines and noise. Time per frame and mean coordinate
+ * difference to the full resolution result are logged with tag {@value #TAG}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LaneDetectorBenchmark {
+    private static final String TAG = "LaneDetectorBenchmark";
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FRAMES = 30;
+    private static final int[] SCALES = {1, 2, 4};
+    private static final int DRIFT = 2;
+
+    @Test
+    public void downscaled() {
+        ByteBuffer[] frames = createFrames();
+        LaneDetector detector = new LaneDetector();
+
+        LaneDetectorResult[] reference = new LaneDetectorResult[FRAMES];
+        long time = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            reference[i] = detector.recognizeLaneFromByteBuffer(frames[i], 1, WIDTH, HEIGHT);
+            assertFalse(reference[i].isEmpty());
+        }
+        log("full frame", System.nanoTime() - time, 0);
+
+        for (int scale : SCALES) {
+            detector.setDownscaled(true, scale);
+            float error = 0;
+            time = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                LaneDetectorResult result = detector.recognizeLaneFromByteBuffer(frames[i], 1, WIDTH, HEIGHT);
+                error += difference(reference[i], result);
+            }
+            log("scale 1/" + scale, System.nanoTime() - time, error / FRAMES);
+        }
+    }
+
+    /**
+     * Lanes drift by {@value #DRIFT} px per frame, frame to frame change above it is jitter.
+     */
+    @Test
+    public void strategies() {
+        ByteBuffer[] frames = createFrames();
+        for (Strategy strategy : Strategy.values()) {
+            LaneDetector detector = new LaneDetector();
+            detector.setStrategy(strategy);
+            float jitter = 0;
+            LaneDetectorResult previous = null;
+            long time = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                LaneDetectorResult result = detector.recognizeLaneFromByteBuffer(frames[i], 1, WIDTH, HEIGHT);
+                assertFalse(strategy + " frame " + i, result.isEmpty());
+                if (previous != null) {
+                    jitter += Math.abs(difference(previous, result) - DRIFT);
+                }
+                previous = result;
+            }
+            log(strategy.name(), System.nanoTime() - time, jitter / (FRAMES - 1));
+        }
+    }
+
+    static void log(String name, long nanos, float error) {
+        Log.i(TAG, name + ": " + (nanos / 1000 / FRAMES) + " us per frame, mean difference " + error + " px");
+    }
+
+    /**
+     * @return mean distance of lane coordinates in px
+     */
+    static float difference(LaneDetectorResult expected, LaneDetectorResult actual) {
+        List<Point> e = expected.getPlateCoordinates();
+        List<Point> a = actual.getPlateCoordinates();
+        float sum = 0;
+        for (int i = 0; i < e.size(); i++) {
+            sum += Math.hypot(e.get(i).x - a.get(i).x, e.get(i).y - a.get(i).y);
+        }
+        return sum / e.size();
+    }
+
+    /**
+     * @return frames with lanes slowly drifting sideways
+     */
+    static ByteBuffer[] createFrames() {
+        Random random = new Random(42);
+        ByteBuffer[] frames = new ByteBuffer[FRAMES];
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        for (int i = 0; i < FRAMES; i++) {
+            for (int p = 0; p < pixels.length; p++) {
+                pixels[p] = (byte) (80 + random.nextInt(20));
+            }
+            int shift = i * DRIFT;
+            drawLine(pixels, 250 + shift, HEIGHT, 880 + shift, 660);
+            drawLine(pixels, 1670 + shift, HEIGHT, 1040 + shift, 660);
+            frames[i] = ByteBuffer.allocateDirect(pixels.length);
+            frames[i].put(pixels);
+            frames[i].clear();
+        }
+        return frames;
+    }
+
+    private static void drawLine(byte[] pixels, int x0, int y0, int x1, int y1) {
+        for (int y = Math.min(y0, y1); y < Math.max(y0, y1); y++) {
+            int x = x0 + (x1 - x0) * (y - y0) / (y1 - y0);
+            for (int dx = -6; dx <= 6; dx++) {
+                if (x + dx >= 0 && x + dx < WIDTH) {
+                    pixels[y * WIDTH + x + dx] = (byte) 230;
+                }
+            }
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.content.DialogInterface;
 import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
@@ -39,17 +40,22 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.andrasta.dashi.alpr.ImageHandler;
+import com.andrasta.dashi.alpr.PlateEvidence;
 import com.andrasta.dashi.camera.Camera;
 import com.andrasta.dashi.camera.Camera.CameraListener;
 import com.andrasta.dashi.camera.CameraConfig;
 import com.andrasta.dashi.camera.CameraUtils;
 import com.andrasta.dashi.camera.ImageSaver;
-import com.andrasta.dashi.camera.ImageUtil;
+import com.andrasta.dashi.camera.LoopRecorder;
+import com.andrasta.dashi.camera.PreEventBuffer;
+import com.andrasta.dashi.camera.PreEventBuffer.PreEventFrame;
 import com.andrasta.dashi.location.LocationHelper;
 import com.andrasta.dashi.openalpr.AlprResult;
 import com.andrasta.dashi.openalpr.LaneDetectorResult;
 import com.andrasta.dashi.openalpr.Plate;
 import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.openalpr.PlateTrack;
+import com.andrasta.dashi.openalpr.PlateTracker;
 import com.andrasta.dashi.service.LicensePlateMatcher;
 import com.andrasta.dashi.utils.CyclicBuffer;
 import com.andrasta.dashi.utils.Preconditions;
@@ -65,6 +71,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.andrasta.dashi.utils.SharedPreferencesHelper.KEY_ALPR_CONFIG_DIR;
@@ -74,17 +81,32 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
     private static final String TAG = "MainActivity";
     private static final int RECOGNITION_HISTORY_SIZE = 10;
     private static final float PLATE_FRAME_SIZE_FRACTION = 0.3f;
+    private static final String EVIDENCE_DIR = "evidence";
+    private static final String LOOP_RECORDING_DIR = "loop";
+    private static final String HEATMAP_FILE = "roi_heatmap";
+    private static final long LOOP_RECORDING_BUDGET = 2L * 1024 * 1024 * 1024;
+    // recorded frames kept before and after the best plate observation of a match
+    private static final long PRE_EVENT_DURATION_MS = 10000;
+    private static final long PRE_EVENT_BEFORE_MS = 5000;
+    private static final long PRE_EVENT_AFTER_MS = 2000;
+    private static final int PRE_EVENT_FRAMES = (int) (PRE_EVENT_DURATION_MS * LoopRecorder.DEFAULT_FPS / 1000);
+    private static final int PRE_EVENT_MEMORY = 16 * 1024 * 1024;
 
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.getDefault());
     private final File imageDestination = new File(Environment.getExternalStorageDirectory(), "pic.jpg");
     private final CyclicBuffer<String> printResultsBuffer = new CyclicBuffer<>(RECOGNITION_HISTORY_SIZE);
     private final AtomicBoolean saveImageOnDisk = new AtomicBoolean();
     private final LocationHelper locationHelper = new LocationHelper();
+    private final PlateTracker<PlateEvidence> plateTracker = new PlateTracker<>();
     private LicensePlateMatcher licensePlateMatcher;
     private SharedPreferencesHelper prefs;
     private ImageHandler alprHandler;
+    private LoopRecorder loopRecorder;
 
     private final ImageSaver imageSaver = new ImageSaver();
+    // room for the evidence of two matches, evidence files are never replaced
+    private final ImageSaver evidenceSaver = new ImageSaver((PRE_EVENT_FRAMES + 1) * 2, ImageSaver.OverflowPolicy.DROP);
+    private final PreEventBuffer preEventBuffer = new PreEventBuffer(PRE_EVENT_FRAMES, PRE_EVENT_MEMORY);
     private CameraConfig.Builder configBuilder;
     private ImageReader imageReader;
     private Size cameraRecSize;
@@ -94,6 +116,8 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
     private AutoFitTextureView textureView;
     private TextView recognitionResult;
     private PolygonView polygonView;
+    private Bitmap overlayBitmap;
+    private File evidenceDir;
     private LaneView laneView;
     private Spinner spinner;
 
@@ -151,8 +175,18 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
 
         display = getWindowManager().getDefaultDisplay();
         licensePlateMatcher = LicensePlateMatcher.getInstance(prefs);
+        evidenceDir = new File(getFilesDir(), EVIDENCE_DIR);
         File configDir = new File(prefs.getString(KEY_ALPR_CONFIG_DIR, null));
         alprHandler = new ImageHandler(configDir, imageHandlerCallback, new Handler());
+        alprHandler.setHeatmapFile(new File(getFilesDir(), HEATMAP_FILE));
+        File loopRecordingDir = getExternalFilesDir(LOOP_RECORDING_DIR);
+        if (loopRecordingDir != null) {
+            loopRecorder = new LoopRecorder(loopRecordingDir, LOOP_RECORDING_BUDGET);
+            loopRecorder.setPreEventBuffer(preEventBuffer);
+            alprHandler.setLoopRecorder(loopRecorder);
+        } else {
+            Log.w(TAG, "No external storage, loop recording is off");
+        }
         camera = new Camera(this, this);
         createCameraSizesAdapter();
         try {
@@ -204,9 +238,22 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
     @Override
     public void onStop() {
         alprHandler.stop();
+        onTracksCompleted(plateTracker.flush());
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        // queued saves are still written, the activity may be recreated with new savers
+        imageSaver.shutdown();
+        evidenceSaver.shutdown();
+        if (loopRecorder != null) {
+            // stopped with the handler, the segment in work is still written
+            loopRecorder.shutdown();
+        }
+        super.onDestroy();
+    }
+
     @SuppressWarnings("MissingPermission")
     private void openCamera(int width, int height) {
         try {
@@ -268,8 +315,11 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
     public void onImageAvailable(@NonNull ImageReader reader) {
         Preconditions.assertParameterNotNull(reader, "reader");
         if (saveImageOnDisk.getAndSet(false)) {
-            imageSaver.saveToFile(reader.acquireNextImage(), imageDestination);
-            Toast.makeText(this, "Image saved to " + imageDestination.getAbsolutePath(), Toast.LENGTH_SHORT).show();
+            if (imageSaver.saveToFile(reader.acquireNextImage(), imageDestination)) {
+                Toast.makeText(this, "Image saved to " + imageDestination.getAbsolutePath(), Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "Image not saved, saving is busy", Toast.LENGTH_SHORT).show();
+            }
             return;
         }
 
@@ -299,20 +349,14 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
         private final Date date = new Date();
 
         @Override
-        public void onLicensePlateDetected(@Nullable Bitmap bitmap, @NonNull AlprResult alprResult) {
+        public void onLicensePlateDetected(@Nullable PlateEvidence evidence, @Nullable Bitmap thumbnail,
+                                           @NonNull AlprResult alprResult, long timestamp) {
             Log.d(TAG, "AlprResult: " + alprResult);
 
-            List<Pair<Plate, LicensePlate>> matches = licensePlateMatcher.findMatches(alprResult);
-            Log.d(TAG, "Matches found : " + matches.size());
-
             PlateResult bestResult = getFirstBestPlate(alprResult);
-            showResult(bitmap, alprResult.getSourceWidth(), alprResult.getSourceHeight(), bestResult);
+            showResult(evidence, thumbnail, bestResult);
 
-            Location lastKnownLocation = locationHelper.getLastKnownLocation();
-
-            for (Pair<Plate, LicensePlate> match : matches) {
-                licensePlateMatcher.sendMatch(match, ImageUtil.bitmapToJpeg(bitmap), lastKnownLocation);
-            }
+            onTracksCompleted(plateTracker.update(alprResult, timestamp, evidence));
         }
 
         @Override
@@ -336,20 +380,21 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
             return null;
         }
 
-        private void showResult(@Nullable Bitmap bitmap, final int sourceWidth, final int sourceHeight, @Nullable final PlateResult plate) {
+        private void showResult(@Nullable PlateEvidence evidence, @Nullable Bitmap thumbnail, @Nullable final PlateResult plate) {
+            boolean shown = false;
             if (plate != null && plate.getBestPlate() != null) {
                 Log.d(TAG, "Best result: " + plate.getBestPlate().getPlate());
                 printResultsBuffer.add(getResultLine(plate.getBestPlate()));
-                polygonView.setVisibility(View.VISIBLE);
-                polygonView.setImageBitmap(bitmap);
-                if (polygonView.getTag() != null) {
-                    ((Bitmap) polygonView.getTag()).recycle();
+                if (evidence != null && thumbnail != null) {
+                    showEvidence(evidence, thumbnail, plate);
+                    shown = true;
                 }
-                polygonView.setTag(bitmap);
-                polygonView.setPolygon(sourceWidth, sourceHeight, plate.getPlateCoordinates());
             } else {
                 printResultsBuffer.add("");
             }
+            if (thumbnail != null && !shown) {
+                alprHandler.releaseThumbnail(thumbnail);
+            }
 
             final StringBuilder sb = new StringBuilder();
             for (String pl : printResultsBuffer.asList()) {
@@ -360,6 +405,18 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
             recognitionResult.setText(Html.fromHtml(sb.toString()));
         }
 
+        private void showEvidence(@NonNull PlateEvidence evidence, @NonNull Bitmap thumbnail, @NonNull PlateResult plate) {
+            Rect crop = evidence.getCrop();
+            polygonView.setVisibility(View.VISIBLE);
+            polygonView.setImageBitmap(thumbnail);
+            polygonView.setPolygon(crop.width(), crop.height(), evidence.toCropCoordinates(plate.getPlateCoordinates()));
+            // plate tracks keep the JPEG, not the shown thumbnail
+            if (overlayBitmap != null) {
+                alprHandler.releaseThumbnail(overlayBitmap);
+            }
+            overlayBitmap = thumbnail;
+        }
+
         @NonNull
         private String getResultLine(@NonNull Plate plate) {
             final String template = "<font color='#FFFFFF'>%s conf: %s%%&nbsp;&nbsp;&nbsp;&nbsp;</font><big><font color='#BBBBFF'>%s</font></big>";
@@ -373,6 +430,45 @@ public class MainActivity extends AppCompatActivity implements CameraListener {
         }
     };
 
+    private void onTracksCompleted(@NonNull List<PlateTrack<PlateEvidence>> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        Location lastKnownLocation = locationHelper.getLastKnownLocation();
+        for (PlateTrack<PlateEvidence> track : tracks) {
+            Log.d(TAG, "Track completed: " + track);
+
+            List<Pair<Plate, LicensePlate>> matches = licensePlateMatcher.findMatches(track);
+            Log.d(TAG, "Matches found : " + matches.size());
+
+            PlateEvidence evidence = track.getEvidence();
+            for (Pair<Plate, LicensePlate> match : matches) {
+                if (evidence != null) {
+                    saveEvidence(match.second, evidence);
+                } else {
+                    Log.w(TAG, "No evidence of " + match.second.getNumber() + ", sent without image");
+                }
+                licensePlateMatcher.sendMatch(match, evidence, lastKnownLocation);
+            }
+        }
+    }
+
+    /**
+     * Saves the plate crop and recorded frames around it into a directory of the match.
+     */
+    private void saveEvidence(@NonNull LicensePlate licensePlate, @NonNull PlateEvidence evidence) {
+        long timestamp = evidence.getTimestamp();
+        File dir = new File(evidenceDir, licensePlate.getUuid() + '_' + timestamp);
+        evidenceSaver.saveToFile(evidence.getJpeg(), new File(dir, "plate.jpg"));
+
+        List<PreEventFrame> frames = preEventBuffer.freeze(timestamp - TimeUnit.MILLISECONDS.toNanos(PRE_EVENT_BEFORE_MS),
+                timestamp + TimeUnit.MILLISECONDS.toNanos(PRE_EVENT_AFTER_MS));
+        for (PreEventFrame frame : frames) {
+            evidenceSaver.saveToFile(frame.getJpeg(), new File(dir, frame.getTimestamp() + ".jpg"));
+        }
+        Log.d(TAG, "Evidence saved to " + dir + ", recorded frames: " + frames.size());
+    }
+
     public static class ExitDialog extends DialogFragment {
         private static final String ARG_MESSAGE = "message";
 
@@ -11,6 +11,7 @@ import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat.OnRequestPermissionsResultCallback;
 import android.util.Log;
 
+import com.andrasta.dashi.alpr.AlprPool;
 import com.andrasta.dashi.service.LicensePlateMatcher;
 import com.andrasta.dashi.utils.FileUtils;
 import com.andrasta.dashi.utils.PermissionsHelper;
@@ -27,6 +28,8 @@ import static com.andrasta.dashi.utils.SharedPreferencesHelper.KEY_APP_INITIALIZ
 
 public class SplashActivity extends Activity implements OnRequestPermissionsResultCallback {
     private static final String TAG = "SplashActivity";
+    private static final String HOTLIST_SNAPSHOT = "hotlist.snapshot";
+    private static final String SEEN_PLATES = "seen_plates.log";
 
     private SharedPreferencesHelper prefs;
     private int requestId;
@@ -37,6 +40,10 @@ public class SplashActivity extends Activity implements OnRequestPermissionsResu
         setContentView(R.layout.activity_splash);
 
         prefs = new SharedPreferencesHelper(getApplicationContext());
+        if (prefs.getBoolean(KEY_ALPR_CONFIG_COPIED, false)) {
+            // warm up during the splash and permission requests
+            prefillAlprPool();
+        }
         if (checkPermissions()) {
             onAllPermissionsGranted();
         } else {
@@ -46,6 +53,9 @@ public class SplashActivity extends Activity implements OnRequestPermissionsResu
 
     private void onAllPermissionsGranted() {
         Log.d(TAG, "All permissions granted");
+        // the local snapshot loads while the camera and recognition start
+        LicensePlateMatcher.getInstance(prefs).initialize(new File(getFilesDir(), HOTLIST_SNAPSHOT),
+                new File(getFilesDir(), SEEN_PLATES));
 
         if (prefs.getBoolean(KEY_APP_INITIALIZED, false)) {
             Log.d(TAG, "App initialized already");
@@ -54,7 +64,6 @@ public class SplashActivity extends Activity implements OnRequestPermissionsResu
         }
 
         Log.d(TAG, "App isn't initialized. Start initialization.");
-        LicensePlateMatcher.getInstance(prefs).initialize();
 
         File configDir = getFilesDir();
         prefs.setString(KEY_ALPR_CONFIG_DIR, configDir.getAbsolutePath());
@@ -68,6 +77,21 @@ public class SplashActivity extends Activity implements OnRequestPermissionsResu
         finish();
     }
 
+    /**
+     * Alpr instances take seconds to load, start it as soon as the config is unpacked.
+     */
+    private void prefillAlprPool() {
+        String configDir = prefs.getString(KEY_ALPR_CONFIG_DIR, null);
+        if (configDir == null) {
+            return;
+        }
+        try {
+            AlprPool.getInstance(new File(configDir)).prefill();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Alpr pool not prefilled", e);
+        }
+    }
+
     private boolean checkPermissions() {
         if (!PermissionsHelper.hasPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)) {
             requestId = PermissionsHelper.requestPermission(this, Manifest.permission.ACCESS_FINE_LOCATION, R.string.location_permission_rationale);
@@ -150,6 +174,7 @@ public class SplashActivity extends Activity implements OnRequestPermissionsResu
         protected void onPostExecute(Void aVoid) {
             if (activity != null) {
                 Log.d(TAG, "Alpr config copied");
+                activity.prefillAlprPool();
                 activity.startMainActivity();
             }
         }
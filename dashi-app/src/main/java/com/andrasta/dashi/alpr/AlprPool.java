@@ -0,0 +1,164 @@
+package com.andrasta.dashi.alpr;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.andrasta.dashi.openalpr.Alpr;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide pool of {@link Alpr} instances. Creating an {@link Alpr} loads the whole
+ * configuration and runtime data, which takes seconds, so instances are created once, warmed up
+ * with a recognition on a synthetic frame and then kept for the life of the process.
+ * <p>
+ * Recognition threads {@link #acquire()} an instance and {@link #release(Alpr)} it when they stop,
+ * so restarting {@link ImageHandler} doesn't cost any warm-up. {@link #prefill()} creates
+ * all instances in the background ahead of the first use.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class AlprPool {
+    private static final String TAG = "AlprPool";
+    static final String CONFIG_FILE_NAME = "openalpr.conf";
+    static final String RUNTIME_DIR = "runtime_data";
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final int WARM_UP_WIDTH = 640;
+    private static final int WARM_UP_HEIGHT = 480;
+
+    private static AlprPool INSTANCE;
+
+    private final ArrayDeque<Alpr> idle = new ArrayDeque<>(POOL_SIZE);
+    private final ExecutorService prefillExecutor = Executors.newSingleThreadExecutor();
+    private final File configDir;
+    private final File configFile;
+    private final File runtimeDir;
+    private int created;
+
+    private AlprPool(@NonNull File configDir) {
+        this.configDir = configDir;
+        this.configFile = new File(configDir, CONFIG_FILE_NAME);
+        this.runtimeDir = new File(configDir, RUNTIME_DIR);
+        checkAlprConfiguration(configFile, runtimeDir);
+    }
+
+    public static synchronized @NonNull AlprPool getInstance(@NonNull File configDir) {
+        Preconditions.assertParameterNotNull(configDir, "configDir");
+        if (INSTANCE == null) {
+            INSTANCE = new AlprPool(configDir);
+        } else if (!INSTANCE.configDir.equals(configDir)) {
+            throw new IllegalStateException("Pool is created for config dir " + INSTANCE.configDir.getAbsolutePath());
+        }
+        return INSTANCE;
+    }
+
+    private static void checkAlprConfiguration(@NonNull File configFile, @NonNull File runtimeDir) {
+        if (!configFile.exists() || !configFile.isFile()) {
+            throw new RuntimeException("No alpr config file " + configFile.getAbsolutePath());
+        }
+        if (!runtimeDir.exists() || !runtimeDir.isDirectory()) {
+            throw new RuntimeException("No alpr runtime dir " + runtimeDir.getAbsolutePath());
+        }
+    }
+
+    public int getSize() {
+        return POOL_SIZE;
+    }
+
+    /**
+     * Creates missing instances in the background. Instances are available to {@link #acquire()}
+     * as soon as they are warmed up.
+     */
+    public void prefill() {
+        prefillExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (reserve()) {
+                    Alpr alpr;
+                    try {
+                        alpr = create();
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Prefill failed", e);
+                        cancelReservation();
+                        return;
+                    }
+                    release(alpr);
+                }
+                Log.d(TAG, "Pool filled");
+            }
+        });
+    }
+
+    /**
+     * Returns an idle instance, creates a new one if the pool isn't full yet or waits
+     * until an instance is released or prefilled.
+     */
+    public @NonNull Alpr acquire() throws InterruptedException {
+        synchronized (this) {
+            while (idle.isEmpty()) {
+                if (created < POOL_SIZE) {
+                    created++;
+                    break;
+                }
+                wait();
+            }
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+
+        try {
+            return create();
+        } catch (RuntimeException e) {
+            cancelReservation();
+            throw e;
+        }
+    }
+
+    public synchronized void release(@NonNull Alpr alpr) {
+        Preconditions.assertParameterNotNull(alpr, "alpr");
+        idle.push(alpr);
+        notifyAll();
+    }
+
+    private synchronized boolean reserve() {
+        if (created < POOL_SIZE) {
+            created++;
+            return true;
+        }
+        return false;
+    }
+
+    private synchronized void cancelReservation() {
+        created--;
+        notifyAll();
+    }
+
+    private @NonNull Alpr create() {
+        long time = System.currentTimeMillis();
+        Alpr alpr = new Alpr(null, configFile.getAbsolutePath(), runtimeDir.getAbsolutePath());
+        // first recognition allocates detector buffers and caches, get it done before the camera starts
+        alpr.recognizeFromByteBuffer(createWarmUpFrame(), 1, WARM_UP_WIDTH, WARM_UP_HEIGHT);
+        Log.d(TAG, "Alpr created and warmed up in " + (System.currentTimeMillis() - time) + " ms");
+        return alpr;
+    }
+
+    /**
+     * @return gray image with dark blocks, so the detector has edges to work on
+     */
+    private static @NonNull ByteBuffer createWarmUpFrame() {
+        ByteBuffer frame = ByteBuffer.allocateDirect(WARM_UP_WIDTH * WARM_UP_HEIGHT);
+        for (int y = 0; y < WARM_UP_HEIGHT; y++) {
+            for (int x = 0; x < WARM_UP_WIDTH; x++) {
+                frame.put(((x / 40 + y / 20) & 1) == 0 ? (byte) 200 : (byte) 40);
+            }
+        }
+        frame.clear();
+        return frame;
+    }
+}
@@ -0,0 +1,119 @@
+package com.andrasta.dashi.alpr;
+
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.camera.Frame;
+import com.andrasta.dashi.camera.YuvConverter;
+import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Crops found plates with some surrounding context from the full resolution frame planes
+ * and encodes the crop to JPEG. The crop has the aspect ratio of the frame, so it can be
+ * shown in place of the frame. Crop and encoder buffers are kept between calls.
+ * <p>
+ * Class isn't threadsafe.
+ */
+final class EvidenceBuilder {
+    private static final int JPEG_QUALITY = 90;
+    // context around the plates, as a fraction of their bounding box width on each side
+    private static final float CONTEXT_MARGIN = 1f;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final Rect crop = new Rect();
+    private byte[] cropPixels;
+
+    /**
+     * @return evidence of all plates with coordinates or null if there is none
+     */
+    @Nullable
+    PlateEvidence build(@NonNull Frame frame, @NonNull List<PlateResult> plates) {
+        Preconditions.assertParameterNotNull(frame, "frame");
+        Preconditions.assertParameterNotNull(plates, "plates");
+        if (!computeCrop(plates, frame.getWidth(), frame.getHeight())) {
+            return null;
+        }
+
+        int width = crop.width();
+        int height = crop.height();
+        int size = YuvConverter.getSize(width, height);
+        if (cropPixels == null || cropPixels.length < size) {
+            cropPixels = new byte[size];
+        }
+        copyCrop(frame);
+
+        out.reset();
+        YuvImage image = new YuvImage(cropPixels, ImageFormat.NV21, width, height, null);
+        image.compressToJpeg(new Rect(0, 0, width, height), JPEG_QUALITY, out);
+        return new PlateEvidence(out.toByteArray(), crop, frame.getWidth(), frame.getHeight(), frame.getTimestamp());
+    }
+
+    private boolean computeCrop(@NonNull List<PlateResult> plates, int frameWidth, int frameHeight) {
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (PlateResult plate : plates) {
+            Point[] points = plate.getPlateCoordinates();
+            if (points == null) {
+                continue;
+            }
+            for (Point point : points) {
+                left = Math.min(left, point.x);
+                top = Math.min(top, point.y);
+                right = Math.max(right, point.x);
+                bottom = Math.max(bottom, point.y);
+            }
+        }
+        if (left >= right || top >= bottom) {
+            return false;
+        }
+
+        // grow the box by the margin and to the frame aspect ratio, but not beyond the frame
+        int margin = (int) ((right - left) * CONTEXT_MARGIN);
+        int width = Math.max(right - left + 2 * margin,
+                (int) ((long) (bottom - top + 2 * margin) * frameWidth / frameHeight));
+        width = Math.min(width, frameWidth) & ~1;
+        int height = Math.min((int) ((long) width * frameHeight / frameWidth), frameHeight) & ~1;
+        if (width == 0 || height == 0) {
+            return false;
+        }
+
+        // center on the plates and move inside the frame, chroma needs even offsets
+        int cropLeft = clamp((left + right - width) / 2, frameWidth - width) & ~1;
+        int cropTop = clamp((top + bottom - height) / 2, frameHeight - height) & ~1;
+        crop.set(cropLeft, cropTop, cropLeft + width, cropTop + height);
+        return true;
+    }
+
+    private void copyCrop(@NonNull Frame frame) {
+        // frame holders must not move the shared buffer
+        ByteBuffer source = frame.getBuffer().duplicate();
+        int frameWidth = frame.getWidth();
+        int width = crop.width();
+        int height = crop.height();
+        int offset = 0;
+        for (int row = crop.top; row < crop.bottom; row++) {
+            source.position(row * frameWidth + crop.left);
+            source.get(cropPixels, offset, width);
+            offset += width;
+        }
+        // interleaved V/U rows, one for every two luma rows
+        int chroma = frame.getLumaSize();
+        for (int row = crop.top / 2; row < (crop.top + height) / 2; row++) {
+            source.position(chroma + row * frameWidth + crop.left);
+            source.get(cropPixels, offset, width);
+            offset += width;
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
@@ -0,0 +1,227 @@
+package com.andrasta.dashi.alpr;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.camera.Frame;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands frames to a fixed number of workers. Every worker has a single slot and a newer
+ * frame replaces the one waiting in it (latest frame wins), so a worker always starts with
+ * the freshest frame available.
+ * <p>
+ * A frame goes to the worker expected to be free first, based on the measured service time of
+ * every worker. Frames no worker can start before the deadline are refused, frames which got
+ * older than the deadline while waiting are dropped. Frame age is measured against the newest
+ * submitted frame timestamp, so it doesn't depend on the camera time base.
+ * <p>
+ * Workers block until a frame arrives or the scheduler stops, there is no polling.
+ * Class is threadsafe.
+ */
+class FrameScheduler {
+    private static final long DEFAULT_DEADLINE = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final float SERVICE_TIME_WEIGHT = 0.2f;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Worker[] workers;
+    private final long deadline;
+    private long newestTimestamp;
+    private long replacedFrames;
+    private long expiredFrames;
+    private boolean stopped;
+
+    FrameScheduler(int workersNum) {
+        this(workersNum, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * @param deadline max frame age in ns
+     */
+    FrameScheduler(int workersNum, long deadline) {
+        this.deadline = deadline;
+        this.workers = new Worker[workersNum];
+        for (int i = 0; i < workersNum; i++) {
+            workers[i] = new Worker(lock.newCondition());
+        }
+    }
+
+    /**
+     * Cheap check to be done before a frame is copied from the camera image.
+     *
+     * @param timestamp image timestamp in ns
+     * @return true if some worker is expected to start a frame with given timestamp before its deadline
+     */
+    boolean accepts(long timestamp) {
+        lock.lock();
+        try {
+            if (stopped) {
+                return false;
+            }
+            newestTimestamp = Math.max(newestTimestamp, timestamp);
+            return nextWorker(System.nanoTime()) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes the frame to a worker. Scheduler takes over the frame reference.
+     *
+     * @return false if the frame was refused and released
+     */
+    boolean submit(@NonNull Frame frame) {
+        Preconditions.assertParameterNotNull(frame, "frame");
+        Frame replaced = null;
+        boolean submitted = false;
+        lock.lock();
+        try {
+            if (!stopped) {
+                newestTimestamp = Math.max(newestTimestamp, frame.getTimestamp());
+                Worker worker = nextWorker(System.nanoTime());
+                if (worker != null) {
+                    replaced = worker.pending;
+                    if (replaced != null) {
+                        replacedFrames++;
+                    }
+                    worker.pending = frame;
+                    worker.frameAvailable.signal();
+                    submitted = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (replaced != null) {
+            replaced.release();
+        }
+        if (!submitted) {
+            frame.release();
+        }
+        return submitted;
+    }
+
+    /**
+     * Blocks until a frame for the worker arrives. Caller owns the returned frame and has to call
+     * {@link #done(int)} once the frame is processed.
+     *
+     * @return frame or null if scheduler was stopped
+     */
+    @Nullable
+    Frame take(int workerIndex) throws InterruptedException {
+        Worker worker = workers[workerIndex];
+        for (; ; ) {
+            Frame frame;
+            lock.lock();
+            try {
+                while (worker.pending == null && !stopped) {
+                    worker.frameAvailable.await();
+                }
+                if (stopped) {
+                    return null;
+                }
+                frame = worker.pending;
+                worker.pending = null;
+                if (newestTimestamp - frame.getTimestamp() <= deadline) {
+                    worker.busySince = System.nanoTime();
+                    return frame;
+                }
+                expiredFrames++;
+            } finally {
+                lock.unlock();
+            }
+            frame.release();
+        }
+    }
+
+    void done(int workerIndex) {
+        lock.lock();
+        try {
+            Worker worker = workers[workerIndex];
+            long serviceTime = System.nanoTime() - worker.busySince;
+            worker.serviceTime = worker.serviceTime == 0 ? serviceTime
+                    : (long) (SERVICE_TIME_WEIGHT * serviceTime + (1 - SERVICE_TIME_WEIGHT) * worker.serviceTime);
+            worker.busySince = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes all workers and releases waiting frames. Stopped scheduler can't be started again.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            for (Worker worker : workers) {
+                if (worker.pending != null) {
+                    worker.pending.release();
+                    worker.pending = null;
+                }
+                worker.frameAvailable.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getReplacedFrames() {
+        lock.lock();
+        try {
+            return replacedFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getExpiredFrames() {
+        lock.lock();
+        try {
+            return expiredFrames;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return worker expected to be free first or null if it won't be free before the deadline
+     */
+    @Nullable
+    private Worker nextWorker(long now) {
+        Worker next = null;
+        long nextStart = Long.MAX_VALUE;
+        for (Worker worker : workers) {
+            long start = worker.expectedStart(now);
+            // prefer an empty slot so that no waiting frame is replaced needlessly
+            if (start < nextStart || (start == nextStart && next != null && next.pending != null && worker.pending == null)) {
+                next = worker;
+                nextStart = start;
+            }
+        }
+        return next != null && nextStart - now <= deadline ? next : null;
+    }
+
+    private static final class Worker {
+        private final Condition frameAvailable;
+        private Frame pending;
+        private long busySince;
+        private long serviceTime;
+
+        Worker(@NonNull Condition frameAvailable) {
+            this.frameAvailable = frameAvailable;
+        }
+
+        long expectedStart(long now) {
+            if (busySince == 0) {
+                return now;
+            }
+            return Math.max(now, busySince + serviceTime);
+        }
+    }
+}
@@ -1,36 +1,44 @@
 package com.andrasta.dashi.alpr;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.media.Image;
 import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
+import android.util.Size;
 
-import com.andrasta.dashi.camera.ImageUtil;
+import com.andrasta.dashi.camera.Frame;
+import com.andrasta.dashi.camera.FramePool;
+import com.andrasta.dashi.camera.LoopRecorder;
+import com.andrasta.dashi.camera.ThumbnailRenderer;
 import com.andrasta.dashi.openalpr.Alpr;
 import com.andrasta.dashi.openalpr.AlprResult;
-import com.andrasta.dashi.openalpr.LaneDetector;
+import com.andrasta.dashi.openalpr.CompactAlprResult;
 import com.andrasta.dashi.openalpr.LaneDetectorResult;
 import com.andrasta.dashi.openalpr.RegionOfInterest;
 import com.andrasta.dashi.utils.Preconditions;
 
 import java.io.File;
-import java.nio.ByteBuffer;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Creates number of threads specified in {@link ImageHandler#THREADS} to recognize
  * license plates on images posted through {@link ImageHandler#recognize(Image)} method.
  * <p>
- * Class takes care about closing {@link Image} after recognition.
+ * Image content is copied into a pooled {@link Frame} and the {@link Image} is closed right away,
+ * so the camera never waits for recognition to release its buffers.
+ * Frames are handed to the threads by {@link FrameScheduler}: an image is only copied when some
+ * thread is expected to start it in time, and a thread always gets the newest frame.
+ * Lanes are detected from the same frames by {@link LaneHandler} on its own thread and at its own rate.
+ * Threads take warm {@link Alpr} instances from {@link AlprPool} and return them on stop.
  * Class is threadsafe.
  */
 public class ImageHandler {
@@ -38,24 +46,30 @@ public class ImageHandler {
 
     private static final DecimalFormat decimalFormat = new DecimalFormat("0.##");
     private static final int THREADS = Runtime.getRuntime().availableProcessors();
-    private static final long DEFAULT_IMAGE_QUEUE_TIMEOUT = 1000;
-    private static final String CONFIG_FILE_NAME = "openalpr.conf";
-    private static final String RUNTIME_DIR = "runtime_data";
-    private static final int IMAGE_WAIT_TIMEOUT = 100;
 
-    private final ArrayBlockingQueue<Image> imageQueue = new ArrayBlockingQueue<Image>(THREADS * 2);
+    // every worker and the lane handler process one frame and have one waiting, the recorder encodes one
+    // and one more is being copied
+    private final FramePool framePool = new FramePool((THREADS + 1) * 2 + 2);
+    // released thumbnails, every worker renders one while one is shown
+    private final BlockingQueue<Bitmap> thumbnails = new ArrayBlockingQueue<>(THREADS + 1);
     private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
     private final ImageHandlerThread[] imageHandlers = new ImageHandlerThread[THREADS];
-    private final Semaphore recognitionSemaphore = new Semaphore(THREADS);
-    private final LaneDetector laneDetector = new LaneDetector();
+    private final LaneHandler laneHandler;
+    private final RegionOfInterestEngine regionOfInterestEngine = new RegionOfInterestEngine();
     private final ImageHandlerCallback callback;
     private final Handler callbackHandler;
-    private final File configFile;
-    private final File runtimeDir;
-
-    private final BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-    private long imageQueueTimeout;
-    private long lastImageQueueTime;
+    private final AlprPool alprPool;
+    private LoopRecorder loopRecorder;
+    private File heatmapFile;
+    private boolean heatmapLoaded;
+    private volatile Size bitmapSize;
+
+    private final AtomicLong receivedImageCounter = new AtomicLong();
+    private final AtomicLong skippedImageCounter = new AtomicLong();
+    private final AtomicLong missedImageCounter = new AtomicLong();
+    private long lastImageTimestamp;
+    private long imageInterval;
+    private FrameScheduler frameScheduler;
     private long handledImageCounter;
     private long handlingTime;
     private float worstPace;
@@ -69,71 +83,151 @@ public class ImageHandler {
     public ImageHandler(@NonNull File configDir, @NonNull ImageHandlerCallback callback, @Nullable Handler callbackHandler) {
         Preconditions.assertParameterNotNull(configDir, "configDir");
         Preconditions.assertParameterNotNull(callback, "callback");
-        configFile = new File(configDir, CONFIG_FILE_NAME);
-        runtimeDir = new File(configDir, RUNTIME_DIR);
-        checkAlprConfiguration(configFile, runtimeDir);
+        this.alprPool = AlprPool.getInstance(configDir);
         this.callbackHandler = callbackHandler;
         this.callback = callback;
+        this.laneHandler = new LaneHandler(callback, callbackHandler);
     }
 
-    private void checkAlprConfiguration(@NonNull File configFile, @NonNull File runtimeDir) {
-        if (!configFile.exists() || !configFile.isFile()) {
-            throw new RuntimeException("No alpr config file " + configFile.getAbsolutePath());
-        }
-        if (!runtimeDir.exists() || !runtimeDir.isDirectory()) {
-            throw new RuntimeException("No alpr runtime dir " + runtimeDir.getAbsolutePath());
+    public int getThreadsNum() {
+        return THREADS;
+    }
+
+    /**
+     * Sets how often lanes are detected, default is {@link LaneHandler#DEFAULT_TARGET_FPS}.
+     * Takes effect on next {@link #start()}.
+     */
+    public void setLaneDetectionFps(float fps) {
+        laneHandler.setTargetFps(fps);
+    }
+
+    /**
+     * Records frames with given recorder while started, it's started and stopped with this handler.
+     * Takes effect on next {@link #start()}.
+     */
+    public synchronized void setLoopRecorder(@Nullable LoopRecorder loopRecorder) {
+        if (this.loopRecorder != null) {
+            this.loopRecorder.stop();
         }
+        this.loopRecorder = loopRecorder;
     }
 
-    public int getThreadsNum() {
-        return THREADS;
+    /**
+     * Keeps the long-term heatmap of {@link RegionOfInterestEngine} in given file, it's loaded on first
+     * {@link #start()} and saved on every {@link #stop()}.
+     */
+    public synchronized void setHeatmapFile(@Nullable File heatmapFile) {
+        this.heatmapFile = heatmapFile;
+        this.heatmapLoaded = false;
     }
 
     public void recognize(@NonNull Image image) {
         Preconditions.assertParameterNotNull(image, "image");
+        FrameScheduler scheduler;
+        LoopRecorder recorder;
         synchronized (this) {
             if (imageHandlers[0] == null) {
                 Log.e(TAG, "Not started. Skip image.");
                 image.close();
                 return;
             }
+            countMissedImages(image.getTimestamp());
+            scheduler = frameScheduler;
+            recorder = loopRecorder;
+        }
+        receivedImageCounter.incrementAndGet();
+
+        boolean forPlates = scheduler.accepts(image.getTimestamp());
+        boolean forLanes = laneHandler.accepts(image.getTimestamp());
+        boolean forRecorder = recorder != null && recorder.accepts(image.getTimestamp());
+        if (!forPlates) {
+            Log.e(TAG, "No thread available before deadline. Skip image.");
+            skippedImageCounter.incrementAndGet();
+            if (!forLanes && !forRecorder) {
+                image.close();
+                return;
+            }
         }
 
-        if (recognitionSemaphore.availablePermits() == 0) {
-            Log.e(TAG, "No threads available. Skip image.");
-            image.close();
+        Frame frame = framePool.copyOf(image);
+        image.close();
+        if (frame == null) {
+            Log.e(TAG, "No free frame. Skip image.");
+            if (forPlates) {
+                skippedImageCounter.incrementAndGet();
+            }
             return;
         }
 
-        if (System.currentTimeMillis() - lastImageQueueTime < imageQueueTimeout) {
-            Log.e(TAG, "Processing timeout not passed. Skip image.");
-            image.close();
-            return;
+        if (forLanes) {
+            frame.retain();
+            laneHandler.submit(frame);
+        }
+        if (forRecorder) {
+            frame.retain();
+            recorder.submit(frame);
         }
+        if (!forPlates) {
+            frame.release();
+        } else if (!scheduler.submit(frame)) {
+            skippedImageCounter.incrementAndGet();
+        }
+    }
 
-        lastImageQueueTime = System.currentTimeMillis();
-        if (!imageQueue.offer(image)) {
-            image.close();
+    /**
+     * Camera drops images silently when the image reader has no free buffer.
+     * Gaps between image timestamps longer than the shortest seen interval reveal them.
+     */
+    private void countMissedImages(long timestamp) {
+        if (lastImageTimestamp > 0 && timestamp > lastImageTimestamp) {
+            long interval = timestamp - lastImageTimestamp;
+            if (imageInterval == 0 || interval < imageInterval) {
+                imageInterval = interval;
+            }
+            long missed = Math.round((double) interval / imageInterval) - 1;
+            if (missed > 0) {
+                missedImageCounter.addAndGet(missed);
+            }
         }
-        Log.d(TAG, "New image; Queue size " + imageQueue.size());
+        lastImageTimestamp = timestamp;
     }
 
     public synchronized void start() {
         if (imageHandlers[0] == null) {
             Log.d(TAG, "Handler started. Threads num:" + THREADS);
-            resetTimeoutsAndStatistics();
+            resetStatistics();
+            regionOfInterestEngine.reset();
+            if (heatmapFile != null && !heatmapLoaded) {
+                heatmapLoaded = true;
+                final File file = heatmapFile;
+                // queued before the workers, so it runs first
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        regionOfInterestEngine.loadHeatmap(file);
+                    }
+                });
+            }
+            frameScheduler = new FrameScheduler(THREADS);
             for (int i = 0; i < THREADS; i++) {
-                imageHandlers[i] = new ImageHandlerThread();
+                imageHandlers[i] = new ImageHandlerThread(frameScheduler, i);
                 executor.execute(imageHandlers[i]);
             }
+            laneHandler.start();
+            if (loopRecorder != null) {
+                loopRecorder.start();
+            }
         }
     }
 
-    private void resetTimeoutsAndStatistics() {
+    private void resetStatistics() {
+        receivedImageCounter.set(0);
+        skippedImageCounter.set(0);
+        missedImageCounter.set(0);
+        lastImageTimestamp = 0;
+        imageInterval = 0;
         handledImageCounter = 0;
         handlingTime = 0;
-        imageQueueTimeout = DEFAULT_IMAGE_QUEUE_TIMEOUT;
-        lastImageQueueTime = 0;
         bestPace = Float.MIN_VALUE;
         worstPace = Float.MAX_VALUE;
         avgPace = 0;
@@ -145,61 +239,89 @@ public class ImageHandler {
         }
 
         for (int i = THREADS - 1; i >= 0; i--) {
-            imageHandlers[i].stop();
             imageHandlers[i] = null;
         }
+        frameScheduler.stop();
+        laneHandler.stop();
+        if (loopRecorder != null) {
+            loopRecorder.stop();
+        }
+        if (heatmapFile != null) {
+            final File file = heatmapFile;
+            // workers end as the scheduler stops, so it doesn't wait for a thread long
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    regionOfInterestEngine.saveHeatmap(file);
+                }
+            });
+        }
 
-        Log.d(TAG, "Handler stopped. Queue size " + imageQueue.size());
-        Image img = imageQueue.poll();
-        while (img != null) {
-            img.close();
-            img = imageQueue.poll();
+        Log.d(TAG, "Handler stopped.");
+        logImageCounters(frameScheduler);
+    }
+
+    private void logImageCounters(@NonNull FrameScheduler scheduler) {
+        Log.d(TAG, "Images received\\skipped\\missed by camera: " + receivedImageCounter.get() + '\\'
+                + skippedImageCounter.get() + '\\' + missedImageCounter.get());
+        Log.d(TAG, "Frames replaced\\expired: " + scheduler.getReplacedFrames() + '\\' + scheduler.getExpiredFrames());
+    }
+
+    /**
+     * Sets size of the evidence thumbnail passed with found plates, no thumbnail is made until set.
+     */
+    public void setBitmapSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Bitmap size has to be positive");
         }
+        bitmapSize = new Size(width, height);
     }
 
-    public synchronized void setBitmapSize(int width, int height) {
-        bitmapOptions.outHeight = height;
-        bitmapOptions.outWidth = width;
+    /**
+     * Gives back a thumbnail passed to {@link ImageHandlerCallback#onLicensePlateDetected}
+     * once it's no longer shown, so it's rendered into again instead of a new one.
+     */
+    public void releaseThumbnail(@NonNull Bitmap thumbnail) {
+        Preconditions.assertParameterNotNull(thumbnail, "thumbnail");
+        if (!isThumbnailSize(thumbnail) || !thumbnails.offer(thumbnail)) {
+            thumbnail.recycle();
+        }
+    }
+
+    private boolean isThumbnailSize(@NonNull Bitmap thumbnail) {
+        Size size = bitmapSize;
+        return size != null && thumbnail.getWidth() == size.getWidth() && thumbnail.getHeight() == size.getHeight();
     }
 
     @SuppressWarnings("FieldCanBeLocal")
     private final class ImageHandlerThread implements Runnable {
-        private final AtomicBoolean stop = new AtomicBoolean(false);
+        private final FrameScheduler scheduler;
+        private final int index;
+        private final CompactAlprResult compactResult = new CompactAlprResult();
+        private final EvidenceBuilder evidenceBuilder = new EvidenceBuilder();
+        private final ThumbnailRenderer thumbnailRenderer = new ThumbnailRenderer();
         private String logTag;
 
+        ImageHandlerThread(@NonNull FrameScheduler scheduler, int index) {
+            this.scheduler = scheduler;
+            this.index = index;
+        }
+
         @Override
-        @SuppressWarnings("InfiniteLoopStatement")
         public void run() {
             logTag = TAG + "#" + Thread.currentThread().getId();
-            Alpr alpr = new Alpr(null, configFile.getAbsolutePath(), runtimeDir.getAbsolutePath());
-            Image image = null;
+            Alpr alpr = null;
+            Frame frame = null;
             try {
-                for (; ; ) {
-                    image = imageQueue.poll(IMAGE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
-                    if (stop.get()) {
-                        break;
-                    } else if (image == null) {
-                        continue;
-                    }
-
+                alpr = alprPool.acquire();
+                // returns null once the scheduler is stopped
+                while ((frame = scheduler.take(index)) != null) {
                     try {
-                        recognitionSemaphore.acquire();
-                        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer(); // Y channel
-                        if (yBuffer == null || yBuffer.remaining() == 0) {
-                            Log.e(logTag, "No yBuffer for image " + image);
-                            continue;
-                        }
-                        recognizeLicensePlate(alpr, image, yBuffer);
-                        recognizeLanes(alpr, image, yBuffer);
-                    } catch (IllegalStateException e) {
-                        Log.w(logTag, "Image closed. Stop recognition.");
+                        recognizeLicensePlate(alpr, frame);
                     } finally {
-                        recognitionSemaphore.release();
-                        image.close();
-                    }
-
-                    if (stop.get()) {
-                        break;
+                        scheduler.done(index);
+                        frame.release();
+                        frame = null;
                     }
                 }
             } catch (InterruptedException e) {
@@ -207,54 +329,67 @@ public class ImageHandler {
             } catch (Exception e) {
                 callback.onFailure(e);
             } finally {
-                if (image != null) {
-                    image.close();
+                if (frame != null) {
+                    frame.release();
+                }
+                if (alpr != null) {
+                    alprPool.release(alpr);
                 }
-                alpr.close();
             }
             Log.d(logTag, "ImageHandler terminated.");
         }
 
-        private void recognizeLicensePlate(@NonNull Alpr alpr, @NonNull Image image, @NonNull ByteBuffer yBuffer) throws InterruptedException {
-            final AlprResult result = alpr.recognizeFromByteBuffer(yBuffer, 1, image.getWidth(), image.getHeight(), getRegionOfInterest(image));
-            logStats(result.getTotalProcessingTime());
-
-            Bitmap bitmap = null;
-            if (!result.getPlates().isEmpty() && bitmapOptions.outWidth > 0) {
-                bitmap = ImageUtil.imageToBitmap(image, bitmapOptions);
+        private void recognizeLicensePlate(@NonNull Alpr alpr, @NonNull Frame frame) throws InterruptedException {
+            final long timestamp = TimeUnit.NANOSECONDS.toMillis(frame.getTimestamp());
+            alpr.recognizeFromByteBuffer(frame.getBuffer(), 1, frame.getWidth(), frame.getHeight(), getRegionsOfInterest(frame, timestamp), compactResult);
+            regionOfInterestEngine.onResult(compactResult, timestamp);
+            logStats(compactResult.getTotalProcessingTime());
+
+            // objects are created only for found plates, frames without plates share the empty result
+            final AlprResult result = compactResult.toAlprResult();
+            PlateEvidence evidence = null;
+            Bitmap thumbnail = null;
+            if (!result.getPlates().isEmpty()) {
+                evidence = evidenceBuilder.build(frame, result.getPlates());
+                if (evidence != null) {
+                    thumbnail = renderThumbnail(frame, evidence);
+                }
             }
 
             if (callbackHandler == null) {
-                callback.onLicensePlateDetected(bitmap, result);
+                callback.onLicensePlateDetected(evidence, thumbnail, result, timestamp);
             } else {
-                final Bitmap b = bitmap;
+                final PlateEvidence e = evidence;
+                final Bitmap t = thumbnail;
                 callbackHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        callback.onLicensePlateDetected(b, result);
+                        callback.onLicensePlateDetected(e, t, result, timestamp);
                     }
                 });
             }
         }
 
-        private void recognizeLanes(@NonNull Alpr alpr, @NonNull Image image, @NonNull ByteBuffer yBuffer) throws InterruptedException {
-            long time = System.currentTimeMillis();
-            final LaneDetectorResult lanes = laneDetector.recognizeLaneFromByteBuffer(yBuffer, 1, image.getWidth(), image.getHeight());
-            time = System.currentTimeMillis() - time;
-            Log.d(logTag, "Lane detection: " + time + '\t' + lanes);
-            final int imageWidth = image.getWidth();
-            final int imageHeight = image.getHeight();
-
-            if (callbackHandler == null) {
-                callback.onLaneDetected(imageWidth, imageHeight, lanes);
-            } else {
-                callbackHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onLaneDetected(imageWidth, imageHeight, lanes);
-                    }
-                });
+        /**
+         * @return thumbnail of the evidence crop rendered from the frame, so the callback doesn't decode the JPEG
+         */
+        @Nullable
+        private Bitmap renderThumbnail(@NonNull Frame frame, @NonNull PlateEvidence evidence) {
+            Size size = bitmapSize;
+            if (size == null) {
+                return null;
+            }
+            Bitmap thumbnail = thumbnails.poll();
+            if (thumbnail != null && !isThumbnailSize(thumbnail)) {
+                thumbnail.recycle();
+                thumbnail = null;
+            }
+            if (thumbnail == null) {
+                thumbnail = Bitmap.createBitmap(size.getWidth(), size.getHeight(), Bitmap.Config.ARGB_8888);
             }
+            // the crop has the frame's aspect ratio, like the thumbnail size
+            thumbnailRenderer.render(frame, evidence.getCrop(), thumbnail);
+            return thumbnail;
         }
 
         private void logStats(long imgHandlingTime) {
@@ -265,9 +400,6 @@ public class ImageHandler {
                 float pace = handledImageCounter / (handlingTime / 1000f);
                 Log.d(logTag, "Image handling pace (img/sec): " + decimalFormat.format(pace));
 
-                imageQueueTimeout = Math.round(THREADS / pace * 100);
-                Log.d(logTag, "Image queue timeout updated: " + imageQueueTimeout);
-
                 if (pace > bestPace) {
                     bestPace = pace;
                 }
@@ -278,18 +410,15 @@ public class ImageHandler {
                 avgPace = movingAvg(pace, avgPace, handledImageCounter);
                 String statMsg = String.format("Best\\Worst\\Avg pace: %s\\%s\\%s", decimalFormat.format(bestPace), decimalFormat.format(worstPace), decimalFormat.format(avgPace));
                 Log.d(logTag, statMsg);
+                logImageCounters(scheduler);
             }
         }
 
-        void stop() {
-            this.stop.set(true);
-        }
-
-        private RegionOfInterest getRegionOfInterest(@NonNull Image image) {
-            RegionOfInterest regionOfInterest = RegionOfInterest.calculateRecognitionRegion(image.getWidth(), image.getHeight());
-            Log.d(TAG, "Image size: " + image.getWidth() + 'x' + image.getHeight());
-            Log.d(TAG, "RegionOfInterest set: " + regionOfInterest);
-            return regionOfInterest;
+        private RegionOfInterest[] getRegionsOfInterest(@NonNull Frame frame, long timestamp) {
+            RegionOfInterest[] regionsOfInterest = regionOfInterestEngine.nextRegions(frame.getWidth(), frame.getHeight(), timestamp);
+            Log.d(TAG, "Image size: " + frame.getWidth() + 'x' + frame.getHeight());
+            Log.d(TAG, "RegionsOfInterest set: " + Arrays.toString(regionsOfInterest));
+            return regionsOfInterest;
         }
     }
 
@@ -300,7 +429,13 @@ public class ImageHandler {
     public static interface ImageHandlerCallback {
         void onFailure(@NonNull Exception failure);
 
-        void onLicensePlateDetected(@Nullable Bitmap bitmap, @NonNull AlprResult result);
+        /**
+         * @param thumbnail evidence crop at the size set by {@link ImageHandler#setBitmapSize(int, int)}, null without one,
+         *                  give it back with {@link ImageHandler#releaseThumbnail(Bitmap)} once it isn't shown
+         * @param timestamp time in ms the frame was captured at, results of several threads may come out of order
+         */
+        void onLicensePlateDetected(@Nullable PlateEvidence evidence, @Nullable Bitmap thumbnail,
+                                    @NonNull AlprResult result, long timestamp);
 
         void onLaneDetected(int width, int height, @NonNull LaneDetectorResult lanes);
     }
@@ -0,0 +1,161 @@
+package com.andrasta.dashi.alpr;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.andrasta.dashi.alpr.ImageHandler.ImageHandlerCallback;
+import com.andrasta.dashi.camera.Frame;
+import com.andrasta.dashi.openalpr.CompactLaneDetectorResult;
+import com.andrasta.dashi.openalpr.LaneDetector;
+import com.andrasta.dashi.openalpr.LaneDetectorResult;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects lanes on its own thread, independently of license plate recognition.
+ * Frames are taken at most at the target rate. Lane detection holds at most one frame in work
+ * and one waiting, a newer frame replaces the waiting one, so slow plate recognition doesn't
+ * delay lane updates and lane detection can't hold more frames than that.
+ * <p>
+ * Class is threadsafe.
+ */
+class LaneHandler {
+    private static final String TAG = "LaneHandler";
+    static final float DEFAULT_TARGET_FPS = 15;
+    private static final int FULL_PASS_INTERVAL = 3;
+    private static final int DETECTION_SCALE = 2;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final LaneDetector laneDetector = new LaneDetector();
+    private final ImageHandlerCallback callback;
+    private final Handler callbackHandler;
+    private FrameScheduler frameScheduler;
+    private long frameInterval;
+    private long nextFrameTimestamp;
+
+    LaneHandler(@NonNull ImageHandlerCallback callback, @Nullable Handler callbackHandler) {
+        Preconditions.assertParameterNotNull(callback, "callback");
+        this.callback = callback;
+        this.callbackHandler = callbackHandler;
+        laneDetector.setTracking(true, FULL_PASS_INTERVAL);
+        laneDetector.setDownscaled(true, DETECTION_SCALE);
+        setTargetFps(DEFAULT_TARGET_FPS);
+    }
+
+    /**
+     * Takes effect on next {@link #start()}.
+     */
+    synchronized void setTargetFps(float fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Target fps has to be positive");
+        }
+        frameInterval = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+    }
+
+    synchronized void start() {
+        if (frameScheduler == null) {
+            Log.d(TAG, "Handler started. Frame interval (ns): " + frameInterval);
+            nextFrameTimestamp = 0;
+            // lane overlay is useless when late, don't let frames wait longer than two intervals
+            frameScheduler = new FrameScheduler(1, frameInterval * 2);
+            executor.execute(new LaneHandlerThread(frameScheduler));
+        }
+    }
+
+    synchronized void stop() {
+        if (frameScheduler != null) {
+            frameScheduler.stop();
+            Log.d(TAG, "Handler stopped. Frames replaced\\expired: " + frameScheduler.getReplacedFrames()
+                    + '\\' + frameScheduler.getExpiredFrames());
+            frameScheduler = null;
+        }
+    }
+
+    /**
+     * @param timestamp image timestamp in ns
+     * @return true if a frame with given timestamp is due and the detector can take it in time
+     */
+    synchronized boolean accepts(long timestamp) {
+        return frameScheduler != null && timestamp >= nextFrameTimestamp && frameScheduler.accepts(timestamp);
+    }
+
+    /**
+     * Takes over the frame reference. Frames not due are released.
+     */
+    synchronized void submit(@NonNull Frame frame) {
+        Preconditions.assertParameterNotNull(frame, "frame");
+        long timestamp = frame.getTimestamp();
+        if (frameScheduler == null || timestamp < nextFrameTimestamp) {
+            frame.release();
+            return;
+        }
+        if (frameScheduler.submit(frame)) {
+            // keep the average rate when camera frames don't line up with the interval
+            nextFrameTimestamp = Math.max(nextFrameTimestamp, timestamp - frameInterval) + frameInterval;
+        }
+    }
+
+    private final class LaneHandlerThread implements Runnable {
+        private final FrameScheduler scheduler;
+        private final CompactLaneDetectorResult compactResult = new CompactLaneDetectorResult();
+
+        LaneHandlerThread(@NonNull FrameScheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void run() {
+            Frame frame = null;
+            // frames of the previous session may be from another resolution or scene
+            laneDetector.reset();
+            try {
+                // returns null once the scheduler is stopped
+                while ((frame = scheduler.take(0)) != null) {
+                    try {
+                        recognizeLanes(frame);
+                    } finally {
+                        scheduler.done(0);
+                        frame.release();
+                        frame = null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted", e);
+            } catch (Exception e) {
+                callback.onFailure(e);
+            } finally {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+            Log.d(TAG, "LaneHandler terminated.");
+        }
+
+        private void recognizeLanes(@NonNull Frame frame) {
+            long time = System.currentTimeMillis();
+            laneDetector.recognizeLaneFromByteBuffer(frame.getBuffer(), 1, frame.getWidth(), frame.getHeight(), compactResult);
+            time = System.currentTimeMillis() - time;
+            Log.d(TAG, "Lane detection: " + time + '\t' + compactResult);
+            // copied only when lanes are found, the result is handed to another thread
+            final LaneDetectorResult lanes = compactResult.toLaneDetectorResult();
+            final int imageWidth = frame.getWidth();
+            final int imageHeight = frame.getHeight();
+
+            if (callbackHandler == null) {
+                callback.onLaneDetected(imageWidth, imageHeight, lanes);
+            } else {
+                callbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLaneDetected(imageWidth, imageHeight, lanes);
+                    }
+                });
+            }
+        }
+    }
+}
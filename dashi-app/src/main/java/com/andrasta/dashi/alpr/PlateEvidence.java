@@ -0,0 +1,89 @@
+package com.andrasta.dashi.alpr;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Full resolution JPEG crop of the plates found in a frame, made by {@link EvidenceBuilder}.
+ * The JPEG is encoded once and the same bytes are shown, stored and uploaded,
+ * they can only be read through read only views.
+ * <p>
+ * Class is immutable.
+ */
+public final class PlateEvidence {
+    private final byte[] jpeg;
+    private final Rect crop;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final long timestamp;
+
+    PlateEvidence(@NonNull byte[] jpeg, @NonNull Rect crop, int sourceWidth, int sourceHeight, long timestamp) {
+        this.jpeg = jpeg;
+        this.crop = new Rect(crop);
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return read only view of the JPEG data, every call returns a new view
+     */
+    public @NonNull ByteBuffer getJpeg() {
+        return ByteBuffer.wrap(jpeg).asReadOnlyBuffer();
+    }
+
+    public int getJpegSize() {
+        return jpeg.length;
+    }
+
+    public void writeTo(@NonNull OutputStream out) throws IOException {
+        Preconditions.assertParameterNotNull(out, "out");
+        out.write(jpeg);
+    }
+
+    /**
+     * @return cropped area in source frame coordinates
+     */
+    public @NonNull Rect getCrop() {
+        return new Rect(crop);
+    }
+
+    /**
+     * @return given source frame points moved into crop coordinates
+     */
+    public @NonNull Point[] toCropCoordinates(@NonNull Point[] points) {
+        Preconditions.assertParameterNotNull(points, "points");
+        Point[] moved = new Point[points.length];
+        for (int i = 0; i < points.length; i++) {
+            moved[i] = new Point(points[i].x - crop.left, points[i].y - crop.top);
+        }
+        return moved;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return timestamp of the source frame in ns
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "PlateEvidence{crop=" + crop.toShortString() + ", size=" + jpeg.length + ", timestamp=" + timestamp + '}';
+    }
+}
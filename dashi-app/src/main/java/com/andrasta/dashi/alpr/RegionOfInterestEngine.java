@@ -0,0 +1,373 @@
+package com.andrasta.dashi.alpr;
+
+import android.graphics.Point;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.andrasta.dashi.openalpr.AlprResult;
+import com.andrasta.dashi.openalpr.CompactAlprResult;
+import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.openalpr.RegionOfInterest;
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Works out regions of interest for every frame from plates found in recent frames.
+ * <ul>
+ * <li>Plates seen recently are projected forward with their last velocity and scanned in small windows.</li>
+ * <li>When no plate is followed, the area where plates usually show up for this camera mount
+ * (long-term heatmap) is scanned. The heatmap can be saved and loaded, so it's kept between starts.</li>
+ * <li>Every {@link #fullScanInterval} frames the full recognition region is scanned
+ * so new vehicles are picked up.</li>
+ * </ul>
+ * Class is threadsafe.
+ */
+public class RegionOfInterestEngine {
+    private static final String TAG = "RegionOfInterestEngine";
+    private static final int DEFAULT_FULL_SCAN_INTERVAL = 5;
+    private static final long DETECTION_TIMEOUT = 1000;
+    private static final int GRID_COLUMNS = 16;
+    private static final int GRID_ROWS = 12;
+    private static final float HEATMAP_DECAY = 0.995f;
+    private static final float HOT_CELL_FRACTION = 0.2f;
+    private static final int MIN_HEATMAP_SAMPLES = 50;
+
+    private final List<Detection> detections = new ArrayList<>();
+    private final float[] heatmap = new float[GRID_COLUMNS * GRID_ROWS];
+    private final int fullScanInterval;
+    private int heatmapSamples;
+    private long frameCounter;
+
+    public RegionOfInterestEngine() {
+        this(DEFAULT_FULL_SCAN_INTERVAL);
+    }
+
+    public RegionOfInterestEngine(int fullScanInterval) {
+        if (fullScanInterval <= 0) {
+            throw new IllegalArgumentException("Full scan interval has to be positive");
+        }
+        this.fullScanInterval = fullScanInterval;
+    }
+
+    /**
+     * @param timestamp frame time in ms
+     * @return regions to scan in the frame
+     */
+    public synchronized @NonNull RegionOfInterest[] nextRegions(int width, int height, long timestamp) {
+        RegionOfInterest fullRegion = RegionOfInterest.calculateRecognitionRegion(width, height);
+        expireDetections(timestamp);
+        if (frameCounter++ % fullScanInterval == 0) {
+            return new RegionOfInterest[]{fullRegion};
+        }
+
+        if (!detections.isEmpty()) {
+            List<RegionOfInterest> windows = new ArrayList<>(detections.size());
+            for (Detection detection : detections) {
+                addMerged(windows, detection.predictWindow(timestamp, width, height));
+            }
+            return windows.toArray(new RegionOfInterest[windows.size()]);
+        }
+
+        RegionOfInterest hotRegion = getHotRegion(width, height);
+        return new RegionOfInterest[]{hotRegion != null ? hotRegion : fullRegion};
+    }
+
+    /**
+     * @param timestamp time in ms of the frame the result comes from
+     */
+    public synchronized void onResult(@NonNull AlprResult result, long timestamp) {
+        Preconditions.assertParameterNotNull(result, "result");
+        int width = result.getSourceWidth();
+        int height = result.getSourceHeight();
+        for (PlateResult plate : result.getPlates()) {
+            Point[] coordinates = plate.getPlateCoordinates();
+            if (coordinates == null || coordinates.length == 0) {
+                continue;
+            }
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (Point point : coordinates) {
+                left = Math.min(left, point.x);
+                top = Math.min(top, point.y);
+                right = Math.max(right, point.x);
+                bottom = Math.max(bottom, point.y);
+            }
+            onPlate(left, top, right, bottom, width, height, timestamp);
+        }
+    }
+
+    /**
+     * Reads plate positions straight from the compact result, nothing is allocated for frames without plates.
+     *
+     * @param timestamp time in ms of the frame the result comes from
+     */
+    public synchronized void onResult(@NonNull CompactAlprResult result, long timestamp) {
+        Preconditions.assertParameterNotNull(result, "result");
+        int width = result.getSourceWidth();
+        int height = result.getSourceHeight();
+        for (int plate = 0; plate < result.getPlateCount(); plate++) {
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int point = 0; point < 4; point++) {
+                left = Math.min(left, result.getCoordinateX(plate, point));
+                top = Math.min(top, result.getCoordinateY(plate, point));
+                right = Math.max(right, result.getCoordinateX(plate, point));
+                bottom = Math.max(bottom, result.getCoordinateY(plate, point));
+            }
+            onPlate(left, top, right, bottom, width, height, timestamp);
+        }
+    }
+
+    /**
+     * Clears recent detections, the heatmap is kept.
+     */
+    public synchronized void reset() {
+        detections.clear();
+        frameCounter = 0;
+    }
+
+    /**
+     * Replaces the heatmap with the one saved to the file, a missing or damaged file leaves it as it is.
+     */
+    public void loadHeatmap(@NonNull File file) {
+        Preconditions.assertParameterNotNull(file, "file");
+        float[] loaded = new float[heatmap.length];
+        int samples;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != GRID_COLUMNS || in.readInt() != GRID_ROWS) {
+                    Log.w(TAG, "Heatmap grid changed, " + file + " ignored");
+                    return;
+                }
+                samples = in.readInt();
+                for (int i = 0; i < loaded.length; i++) {
+                    loaded[i] = in.readFloat();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No heatmap " + file);
+            return;
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + file, e);
+            return;
+        }
+        synchronized (this) {
+            System.arraycopy(loaded, 0, heatmap, 0, heatmap.length);
+            heatmapSamples = samples;
+        }
+        Log.d(TAG, "Heatmap loaded, samples: " + samples);
+    }
+
+    /**
+     * Writes the heatmap to a temporary file first, so a crash leaves the previous file.
+     */
+    public void saveHeatmap(@NonNull File file) {
+        Preconditions.assertParameterNotNull(file, "file");
+        float[] saved;
+        int samples;
+        synchronized (this) {
+            saved = heatmap.clone();
+            samples = heatmapSamples;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(GRID_COLUMNS);
+                out.writeInt(GRID_ROWS);
+                out.writeInt(samples);
+                for (float value : saved) {
+                    out.writeFloat(value);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot save " + file, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    private void onPlate(int left, int top, int right, int bottom, int width, int height, long timestamp) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        Detection observed = new Detection(left, top, right, bottom, timestamp);
+        Detection known = findDetection(observed);
+        if (known != null) {
+            known.update(observed);
+        } else {
+            detections.add(observed);
+        }
+        addToHeatmap(observed, width, height);
+    }
+
+    private void expireDetections(long timestamp) {
+        for (Iterator<Detection> it = detections.iterator(); it.hasNext(); ) {
+            if (timestamp - it.next().timestamp > DETECTION_TIMEOUT) {
+                it.remove();
+            }
+        }
+    }
+
+    @Nullable
+    private Detection findDetection(@NonNull Detection observed) {
+        Detection nearest = null;
+        float nearestDistance = Float.MAX_VALUE;
+        for (Detection detection : detections) {
+            float dx = detection.centerX() - observed.centerX();
+            float dy = detection.centerY() - observed.centerY();
+            float distance = dx * dx + dy * dy;
+            float maxDistance = 2 * Math.max(detection.width(), observed.width());
+            if (distance < maxDistance * maxDistance && distance < nearestDistance) {
+                nearest = detection;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private void addToHeatmap(@NonNull Detection detection, int width, int height) {
+        for (int i = 0; i < heatmap.length; i++) {
+            heatmap[i] *= HEATMAP_DECAY;
+        }
+        int column = Math.min(GRID_COLUMNS - 1, Math.max(0, (int) (detection.centerX() * GRID_COLUMNS / width)));
+        int row = Math.min(GRID_ROWS - 1, Math.max(0, (int) (detection.centerY() * GRID_ROWS / height)));
+        heatmap[row * GRID_COLUMNS + column] += 1;
+        heatmapSamples++;
+    }
+
+    @Nullable
+    private RegionOfInterest getHotRegion(int width, int height) {
+        if (heatmapSamples < MIN_HEATMAP_SAMPLES) {
+            return null;
+        }
+        float max = 0;
+        for (float value : heatmap) {
+            max = Math.max(max, value);
+        }
+        int left = GRID_COLUMNS, top = GRID_ROWS, right = -1, bottom = -1;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            for (int column = 0; column < GRID_COLUMNS; column++) {
+                if (heatmap[row * GRID_COLUMNS + column] >= max * HOT_CELL_FRACTION) {
+                    left = Math.min(left, column);
+                    top = Math.min(top, row);
+                    right = Math.max(right, column);
+                    bottom = Math.max(bottom, row);
+                }
+            }
+        }
+        if (right < 0) {
+            return null;
+        }
+        // hot cells hold plate centers, one more cell around them covers the plates themselves
+        left = Math.max(0, left - 1);
+        top = Math.max(0, top - 1);
+        right = Math.min(GRID_COLUMNS, right + 2);
+        bottom = Math.min(GRID_ROWS, bottom + 2);
+        int x = left * width / GRID_COLUMNS;
+        int y = top * height / GRID_ROWS;
+        return new RegionOfInterest(x, y, right * width / GRID_COLUMNS - x, bottom * height / GRID_ROWS - y);
+    }
+
+    private static void addMerged(@NonNull List<RegionOfInterest> regions, @NonNull RegionOfInterest region) {
+        for (int i = 0; i < regions.size(); i++) {
+            RegionOfInterest other = regions.get(i);
+            if (region.getX() < other.getX() + other.getWidth() && other.getX() < region.getX() + region.getWidth()
+                    && region.getY() < other.getY() + other.getHeight() && other.getY() < region.getY() + region.getHeight()) {
+                int x = Math.min(region.getX(), other.getX());
+                int y = Math.min(region.getY(), other.getY());
+                int right = Math.max(region.getX() + region.getWidth(), other.getX() + other.getWidth());
+                int bottom = Math.max(region.getY() + region.getHeight(), other.getY() + other.getHeight());
+                regions.remove(i);
+                addMerged(regions, new RegionOfInterest(x, y, right - x, bottom - y));
+                return;
+            }
+        }
+        regions.add(region);
+    }
+
+    private static final class Detection {
+        private int left, top, right, bottom;
+        private float velocityX, velocityY; // px per ms
+        private long timestamp;
+
+        Detection(int left, int top, int right, int bottom, long timestamp) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.timestamp = timestamp;
+        }
+
+        void update(@NonNull Detection observed) {
+            long elapsed = observed.timestamp - timestamp;
+            if (elapsed > 0) {
+                velocityX = (observed.centerX() - centerX()) / elapsed;
+                velocityY = (observed.centerY() - centerY()) / elapsed;
+            }
+            if (elapsed >= 0) {
+                left = observed.left;
+                top = observed.top;
+                right = observed.right;
+                bottom = observed.bottom;
+                timestamp = observed.timestamp;
+            }
+        }
+
+        /**
+         * @return window around the projected plate, big enough for the detector to find it
+         * even when the prediction is off
+         */
+        @NonNull
+        RegionOfInterest predictWindow(long now, int width, int height) {
+            long elapsed = Math.max(0, now - timestamp);
+            float shiftX = velocityX * elapsed;
+            float shiftY = velocityY * elapsed;
+            int marginX = width() + (int) Math.abs(shiftX) / 2;
+            int marginY = Math.max(height(), width() / 2) + (int) Math.abs(shiftY) / 2;
+            int x = Math.max(0, (int) (left + Math.min(0, shiftX)) - marginX);
+            int y = Math.max(0, (int) (top + Math.min(0, shiftY)) - marginY);
+            int windowRight = Math.min(width, (int) (right + Math.max(0, shiftX)) + marginX);
+            int windowBottom = Math.min(height, (int) (bottom + Math.max(0, shiftY)) + marginY);
+            return new RegionOfInterest(x, y, Math.max(0, windowRight - x), Math.max(0, windowBottom - y));
+        }
+
+        float centerX() {
+            return (left + right) / 2f;
+        }
+
+        float centerY() {
+            return (top + bottom) / 2f;
+        }
+
+        int width() {
+            return right - left;
+        }
+
+        int height() {
+            return bottom - top;
+        }
+    }
+}
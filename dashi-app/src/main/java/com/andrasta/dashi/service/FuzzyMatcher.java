@@ -0,0 +1,235 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+
+import com.andrasta.dashi.utils.Preconditions;
+import com.andrasta.dashiclient.LicensePlate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds {@link Hotlist} plates within a weighted edit distance of a read plate.
+ * Substituting characters OCR commonly confuses (0/O, 8/B, 1/I, ...) costs {@value #CONFUSION_COST},
+ * any other substitution, insertion or deletion costs {@value #EDIT_COST}.
+ * <p>
+ * Works like a Levenshtein automaton run backwards: every string the automaton of the read plate
+ * accepts within the budget is generated and looked up in the hotlist's hash table. The number of
+ * lookups depends on the plate length and the budget only, not on the hotlist size, and nothing
+ * beyond the hotlist itself is indexed. Budgets above {@link #DEFAULT_BUDGET} grow the number
+ * of lookups quickly. Up to a budget of {@value #EDIT_COST} read plates are checked with
+ * the {@link HotlistFilter} first.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class FuzzyMatcher {
+    public static final int CONFUSION_COST = 1;
+    public static final int EDIT_COST = 2;
+    /** One unrelated edit or two confused characters */
+    public static final int DEFAULT_BUDGET = 2;
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+    static final String[] CONFUSIONS = {"0ODQ", "1IL", "2Z", "4A", "5S", "6G", "7T", "8B"};
+    private static final char[] NO_CONFUSIONS = new char[0];
+    // zero for pairs that aren't confused
+    private static final byte[][] SUBSTITUTION_COSTS = new byte[128][128];
+    private static final char[][] CONFUSED_WITH = new char[128][];
+
+    static {
+        for (String group : CONFUSIONS) {
+            for (int i = 0; i < group.length(); i++) {
+                CONFUSED_WITH[group.charAt(i)] = group.toCharArray();
+                for (int j = 0; j < group.length(); j++) {
+                    if (i != j) {
+                        SUBSTITUTION_COSTS[group.charAt(i)][group.charAt(j)] = CONFUSION_COST;
+                    }
+                }
+            }
+        }
+    }
+
+    private final int budget;
+
+    public FuzzyMatcher() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget highest total cost of a match
+     */
+    public FuzzyMatcher(int budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Budget cannot be negative");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @return hotlist plates within the budget of the read plate, closest first
+     */
+    public @NonNull List<Match> match(@NonNull Hotlist hotlist, @NonNull CharSequence plate) {
+        Preconditions.assertParameterNotNull(hotlist, "hotlist");
+        Preconditions.assertParameterNotNull(plate, "plate");
+        // read plates are mostly not wanted, the filter rejects them without allocating
+        if (budget <= EDIT_COST && !hotlist.getFilter().mightMatch(plate)) {
+            return Collections.emptyList();
+        }
+        Search search = new Search(hotlist, Hotlist.canonicalize(plate).toCharArray(), budget);
+        search.expand(0, 0, 0);
+        Collections.sort(search.matches, COST_COMPARATOR);
+        return search.matches;
+    }
+
+    /**
+     * @return cost of substituting given characters, characters out of the alphabet can only be edited
+     */
+    static int substitutionCost(char from, char to) {
+        if (from == to) {
+            return 0;
+        }
+        return from < 128 && to < 128 && SUBSTITUTION_COSTS[from][to] != 0 ? SUBSTITUTION_COSTS[from][to] : EDIT_COST;
+    }
+
+    /**
+     * @return characters confused with given one, may include the character itself
+     */
+    private static @NonNull char[] confusions(char c) {
+        return c < 128 && CONFUSED_WITH[c] != null ? CONFUSED_WITH[c] : NO_CONFUSIONS;
+    }
+
+    /**
+     * Hotlist plate with its distance from the read plate, class is immutable.
+     */
+    public static final class Match {
+        private final LicensePlate licensePlate;
+        private final int cost;
+
+        Match(@NonNull LicensePlate licensePlate, int cost) {
+            this.licensePlate = licensePlate;
+            this.cost = cost;
+        }
+
+        public @NonNull LicensePlate getLicensePlate() {
+            return licensePlate;
+        }
+
+        public int getCost() {
+            return cost;
+        }
+
+        @Override
+        public String toString() {
+            return "Match{" + "licensePlate=" + licensePlate.getNumber() + ", cost=" + cost + '}';
+        }
+    }
+
+    private static final Comparator<Match> COST_COMPARATOR = new Comparator<Match>() {
+        @Override
+        public int compare(Match lhs, Match rhs) {
+            return lhs.cost < rhs.cost ? -1 : (lhs.cost == rhs.cost ? 0 : 1);
+        }
+    };
+
+    /**
+     * Generated strings are written into one buffer, lookups don't allocate.
+     */
+    private static final class Search implements CharSequence {
+        private final Hotlist hotlist;
+        private final char[] read;
+        private final char[] candidate;
+        private final int budget;
+        private final List<Match> matches = new ArrayList<>(1);
+        private int length;
+
+        Search(@NonNull Hotlist hotlist, @NonNull char[] read, int budget) {
+            this.hotlist = hotlist;
+            this.read = read;
+            this.candidate = new char[read.length + budget / EDIT_COST];
+            this.budget = budget;
+        }
+
+        /**
+         * @param i      next character of the read plate
+         * @param length characters of the candidate generated so far
+         * @param cost   cost spent so far
+         */
+        void expand(int i, int length, int cost) {
+            int remaining = budget - cost;
+            if (remaining == 0) {
+                // nothing left to spend, the rest of the read plate is taken as it is
+                int rest = read.length - i;
+                System.arraycopy(read, i, candidate, length, rest);
+                lookup(length + rest, cost);
+                return;
+            }
+            if (i == read.length) {
+                lookup(length, cost);
+            } else {
+                char c = read[i];
+                candidate[length] = c;
+                expand(i + 1, length + 1, cost);
+                char[] substitutes = remaining >= EDIT_COST ? ALPHABET : confusions(c);
+                for (char s : substitutes) {
+                    int substituted = cost + substitutionCost(c, s);
+                    if (s != c && substituted <= budget) {
+                        candidate[length] = s;
+                        expand(i + 1, length + 1, substituted);
+                    }
+                }
+                if (remaining >= EDIT_COST) {
+                    expand(i + 1, length, cost + EDIT_COST);
+                }
+            }
+            if (remaining >= EDIT_COST) {
+                for (char s : ALPHABET) {
+                    candidate[length] = s;
+                    expand(i, length + 1, cost + EDIT_COST);
+                }
+            }
+        }
+
+        private void lookup(int length, int cost) {
+            if (length == 0) {
+                return;
+            }
+            this.length = length;
+            LicensePlate licensePlate = hotlist.get(this);
+            if (licensePlate == null) {
+                return;
+            }
+            // different edit paths can reach the same plate, keep the cheapest
+            for (int i = 0; i < matches.size(); i++) {
+                Match match = matches.get(i);
+                if (match.licensePlate == licensePlate) {
+                    if (cost < match.cost) {
+                        matches.set(i, new Match(licensePlate, cost));
+                    }
+                    return;
+                }
+            }
+            matches.add(new Match(licensePlate, cost));
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return candidate[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(candidate, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(candidate, 0, length);
+        }
+    }
+}
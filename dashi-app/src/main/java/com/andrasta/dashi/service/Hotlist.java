@@ -0,0 +1,236 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+import com.andrasta.dashiclient.LicensePlate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Wanted plates indexed by their canonical form: uppercase letters and digits without separators.
+ * Open addressing hash table, lookups canonicalize the read plate on the fly,
+ * so they take constant time and don't allocate.
+ * <p>
+ * Class is immutable, build a new one or {@link #apply(Collection, Collection)} changes to change the content.
+ */
+public final class Hotlist {
+    public static final Hotlist EMPTY = new Hotlist(new String[1], new int[1], new LicensePlate[1], 0, HotlistFilter.EMPTY);
+
+    private final String[] keys;
+    private final int[] hashes;
+    private final LicensePlate[] plates;
+    private final int size;
+    private final HotlistFilter filter;
+
+    private Hotlist(@NonNull String[] keys, @NonNull int[] hashes, @NonNull LicensePlate[] plates, int size,
+                    @NonNull HotlistFilter filter) {
+        this.keys = keys;
+        this.hashes = hashes;
+        this.plates = plates;
+        this.size = size;
+        this.filter = filter;
+    }
+
+    public static @NonNull Hotlist build(@NonNull Collection<LicensePlate> licensePlates) {
+        return build(licensePlates, HotlistFilter.DEFAULT_BITS_PER_ENTRY);
+    }
+
+    /**
+     * Plates with the same canonical form as an earlier one and plates without letters or digits are left out.
+     *
+     * @param filterBitsPerEntry size of the {@link HotlistFilter}, see {@link HotlistFilter#build(Collection, int)}
+     */
+    public static @NonNull Hotlist build(@NonNull Collection<LicensePlate> licensePlates, int filterBitsPerEntry) {
+        Preconditions.assertParameterNotNull(licensePlates, "licensePlates");
+        int capacity = capacityFor(licensePlates.size());
+        String[] keys = new String[capacity];
+        int[] hashes = new int[capacity];
+        LicensePlate[] plates = new LicensePlate[capacity];
+        List<String> added = new ArrayList<>(licensePlates.size());
+        for (LicensePlate plate : licensePlates) {
+            String key = canonicalize(plate.getNumber());
+            if (key.isEmpty()) {
+                continue;
+            }
+            int hash = hash(key);
+            int i = slot(keys, hashes, key, hash);
+            if (keys[i] == null) {
+                keys[i] = key;
+                hashes[i] = hash;
+                plates[i] = plate;
+                added.add(key);
+            }
+        }
+        return new Hotlist(keys, hashes, plates, added.size(), HotlistFilter.build(added, filterBitsPerEntry));
+    }
+
+    /**
+     * Creates a hotlist with the changes applied. It's cheaper than building the changed hotlist,
+     * unchanged plates are moved with their keys and hashes, and the filter is extended, not rebuilt. Removed plates are taken out of
+     * the {@link HotlistFilter} only when it's rebuilt.
+     *
+     * @param added   plates to add, they replace plates with the same uuid or the same canonical form
+     * @param removed uuids of plates to remove
+     */
+    public @NonNull Hotlist apply(@NonNull Collection<LicensePlate> added, @NonNull Collection<UUID> removed) {
+        Preconditions.assertParameterNotNull(added, "added");
+        Preconditions.assertParameterNotNull(removed, "removed");
+        int capacity = capacityFor(size + added.size());
+        String[] newKeys = new String[capacity];
+        int[] newHashes = new int[capacity];
+        LicensePlate[] newPlates = new LicensePlate[capacity];
+        Set<UUID> replaced = new HashSet<>(removed);
+        for (LicensePlate plate : added) {
+            replaced.add(plate.getUuid());
+        }
+
+        // unchanged plates keep their keys and hashes
+        int newSize = 0;
+        int filterEntries = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && !replaced.contains(plates[i].getUuid())) {
+                int j = slot(newKeys, newHashes, keys[i], hashes[i]);
+                newKeys[j] = keys[i];
+                newHashes[j] = hashes[i];
+                newPlates[j] = plates[i];
+                newSize++;
+                filterEntries += HotlistFilter.entryCount(keys[i]);
+            }
+        }
+
+        List<String> addedKeys = new ArrayList<>(added.size());
+        for (LicensePlate plate : added) {
+            String key = canonicalize(plate.getNumber());
+            if (key.isEmpty()) {
+                continue;
+            }
+            int hash = hash(key);
+            int j = slot(newKeys, newHashes, key, hash);
+            if (newKeys[j] == null) {
+                newKeys[j] = key;
+                newHashes[j] = hash;
+                newSize++;
+                filterEntries += HotlistFilter.entryCount(key);
+                addedKeys.add(key);
+            }
+            newPlates[j] = plate;
+        }
+
+        HotlistFilter newFilter = filter.plus(addedKeys);
+        // rebuilt when adding raised the false positive rate or removals left too many stale entries
+        if (newFilter == null || newFilter.isOverfilled() || newFilter.getEntryCount() - filterEntries > newFilter.getEntryCount() / 4) {
+            List<String> liveKeys = new ArrayList<>(newSize);
+            for (String key : newKeys) {
+                if (key != null) {
+                    liveKeys.add(key);
+                }
+            }
+            newFilter = HotlistFilter.build(liveKeys, filter.getBitsPerEntry());
+        }
+        return new Hotlist(newKeys, newHashes, newPlates, newSize, newFilter);
+    }
+
+    /**
+     * @return plate with the same canonical form or null
+     */
+    public @Nullable LicensePlate get(@NonNull CharSequence plate) {
+        int hash = hash(plate);
+        int mask = keys.length - 1;
+        for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (hashes[i] == hash && canonicalEquals(keys[i], plate)) {
+                return plates[i];
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return all plates, in no particular order
+     */
+    public @NonNull List<LicensePlate> getPlates() {
+        List<LicensePlate> list = new ArrayList<>(size);
+        for (LicensePlate plate : plates) {
+            if (plate != null) {
+                list.add(plate);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return filter of plates that may be near a hotlist plate
+     */
+    public @NonNull HotlistFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return uppercase letters and digits of the plate
+     */
+    public static @NonNull String canonicalize(@NonNull CharSequence plate) {
+        Preconditions.assertParameterNotNull(plate, "plate");
+        StringBuilder sb = new StringBuilder(plate.length());
+        for (int i = 0; i < plate.length(); i++) {
+            char c = plate.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return power of two table size keeping the table at most half full
+     */
+    private static int capacityFor(int size) {
+        return Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+    }
+
+    /**
+     * @return slot of given key or the empty slot it belongs to
+     */
+    private static int slot(@NonNull String[] keys, @NonNull int[] hashes, @NonNull String key, int hash) {
+        int mask = keys.length - 1;
+        int i = hash & mask;
+        while (keys[i] != null && !(hashes[i] == hash && keys[i].equals(key))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int hash(@NonNull CharSequence plate) {
+        int hash = 0;
+        for (int i = 0; i < plate.length(); i++) {
+            char c = plate.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                hash = 31 * hash + Character.toUpperCase(c);
+            }
+        }
+        // spread high bits, the table index takes the low ones
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean canonicalEquals(@NonNull String key, @NonNull CharSequence plate) {
+        int k = 0;
+        for (int i = 0; i < plate.length(); i++) {
+            char c = plate.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (k == key.length() || key.charAt(k++) != Character.toUpperCase(c)) {
+                    return false;
+                }
+            }
+        }
+        return k == key.length();
+    }
+}
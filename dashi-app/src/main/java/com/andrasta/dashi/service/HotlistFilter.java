@@ -0,0 +1,246 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.Collection;
+
+/**
+ * Bloom filter answering if a read plate may have a {@link Hotlist} plate within one edit or any
+ * number of OCR confusions, i.e. within a {@link FuzzyMatcher} budget up to {@link FuzzyMatcher#EDIT_COST}.
+ * <p>
+ * Plates are canonicalized and every character is folded to the first one of its confusion group,
+ * so confused plates become equal. The folded plate and its variants with one character deleted are
+ * added, a read plate is then probed as it is, as a plate with a character deleted and with each of its
+ * characters deleted. Variants of a substitution are tagged with the deleted position, so plates
+ * differing in two positions don't pass. A negative answer takes a few hashes of the read plate
+ * and doesn't allocate.
+ * <p>
+ * Class is immutable.
+ */
+public final class HotlistFilter {
+    public static final int DEFAULT_BITS_PER_ENTRY = 12;
+    public static final HotlistFilter EMPTY = new HotlistFilter(new long[0], 0, DEFAULT_BITS_PER_ENTRY, 0);
+
+    // folded uppercase ASCII letters and digits, zero for other ASCII characters
+    private static final char[] FOLDED = new char[128];
+    // variants of the same characters are told apart by their hash seed
+    private static final long WHOLE = 0xcbf29ce484222325L;
+    private static final long DELETED = 0x84222325cbf29ce4L;
+    private static final long SUBSTITUTED = 0x2325cbf29ce48422L;
+
+    static {
+        for (char c = 0; c < FOLDED.length; c++) {
+            FOLDED[c] = Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : 0;
+        }
+        for (String group : FuzzyMatcher.CONFUSIONS) {
+            for (int i = 0; i < group.length(); i++) {
+                FOLDED[group.charAt(i)] = group.charAt(0);
+                FOLDED[Character.toLowerCase(group.charAt(i))] = group.charAt(0);
+            }
+        }
+    }
+
+    private final long[] bits;
+    private final long size;
+    private final int bitsPerEntry;
+    private final int hashCount;
+    private final int entries;
+
+    private HotlistFilter(@NonNull long[] bits, long size, int bitsPerEntry, int entries) {
+        this.bits = bits;
+        this.size = size;
+        this.bitsPerEntry = bitsPerEntry;
+        this.hashCount = Math.max(1, Math.round(bitsPerEntry * (float) Math.log(2)));
+        this.entries = entries;
+    }
+
+    /**
+     * @param keys          canonical plates
+     * @param bitsPerEntry  filter bits for every plate and its variants, the false positive
+     *                      rate of one probe is about 0.62^bitsPerEntry
+     */
+    static @NonNull HotlistFilter build(@NonNull Collection<String> keys, int bitsPerEntry) {
+        Preconditions.assertParameterNotNull(keys, "keys");
+        if (bitsPerEntry <= 0) {
+            throw new IllegalArgumentException("Bits per entry have to be positive");
+        }
+        int entries = 0;
+        for (String key : keys) {
+            entries += entryCount(key);
+        }
+        if (entries == 0) {
+            return EMPTY;
+        }
+        long size = (long) entries * bitsPerEntry;
+        HotlistFilter filter = new HotlistFilter(new long[(int) ((size + 63) >>> 6)], size, bitsPerEntry, entries);
+        filter.addAll(keys);
+        return filter;
+    }
+
+    /**
+     * Keys are added to a copy of the filter, its size stays the same, so the false positive rate grows.
+     *
+     * @param keys canonical plates
+     * @return the copy or null if this filter is empty
+     */
+    @Nullable
+    HotlistFilter plus(@NonNull Collection<String> keys) {
+        Preconditions.assertParameterNotNull(keys, "keys");
+        if (size == 0) {
+            return null;
+        }
+        int added = 0;
+        for (String key : keys) {
+            added += entryCount(key);
+        }
+        HotlistFilter filter = new HotlistFilter(bits.clone(), size, bitsPerEntry, entries + added);
+        filter.addAll(keys);
+        return filter;
+    }
+
+    /**
+     * @return true if entries were added beyond the size by a quarter
+     */
+    boolean isOverfilled() {
+        return entries > size / bitsPerEntry * 5 / 4;
+    }
+
+    /**
+     * @return entries the canonical plate takes in a filter
+     */
+    static int entryCount(@NonNull String key) {
+        return 2 * key.length() + 1;
+    }
+
+    /**
+     * @return false if no hotlist plate is within one edit or any number of confusions
+     */
+    public boolean mightMatch(@NonNull CharSequence plate) {
+        if (entries == 0) {
+            return false;
+        }
+        if (contains(hash(plate, -1, WHOLE)) || contains(hash(plate, -1, DELETED))) {
+            return true;
+        }
+        int length = 0;
+        for (int i = 0; i < plate.length(); i++) {
+            if (fold(plate.charAt(i)) != 0) {
+                length++;
+            }
+        }
+        for (int skip = 0; skip < length; skip++) {
+            // the read plate has an extra character or a misread one
+            if (contains(hash(plate, skip, WHOLE)) || contains(hash(plate, skip, substituted(skip)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return bytes taken by the filter bits
+     */
+    public long getMemoryUsage() {
+        return bits.length * 8L;
+    }
+
+    public int getBitsPerEntry() {
+        return bitsPerEntry;
+    }
+
+    /**
+     * @return plates and their variants in the filter, including the ones of removed plates
+     */
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * @return expected false positive rate of one probe, a read plate of length n takes 2n + 2 probes
+     */
+    public double getFalsePositiveRate() {
+        if (entries == 0) {
+            return 0;
+        }
+        return Math.pow(1 - Math.exp(-(double) hashCount * entries / size), hashCount);
+    }
+
+    private void addAll(@NonNull Collection<String> keys) {
+        for (String key : keys) {
+            add(hash(key, -1, WHOLE));
+            for (int skip = 0; skip < key.length(); skip++) {
+                // the read plate misses a character or has it misread
+                add(hash(key, skip, DELETED));
+                add(hash(key, skip, substituted(skip)));
+            }
+        }
+    }
+
+    private void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean contains(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return character folded to its confusion group in uppercase, zero if not a letter or digit
+     */
+    private static char fold(char c) {
+        if (c < FOLDED.length) {
+            return FOLDED[c];
+        }
+        return Character.isLetterOrDigit(c) ? Character.toUpperCase(c) : 0;
+    }
+
+    private static long substituted(int position) {
+        // seeds differing in low bits only would collide with the first character
+        return SUBSTITUTED + (position + 1) * 0x9e3779b97f4a7c15L;
+    }
+
+    private long index(int hash) {
+        // maps the hash onto the filter size without a division
+        return ((hash & 0xffffffffL) * size) >>> 32;
+    }
+
+    /**
+     * @param skip index of the letter or digit left out, -1 to keep all
+     * @param seed  kind of the variant
+     * @return 64 bit hash of the folded canonical plate
+     */
+    private static long hash(@NonNull CharSequence plate, int skip, long seed) {
+        long hash = seed;
+        int k = 0;
+        for (int i = 0; i < plate.length(); i++) {
+            char c = fold(plate.charAt(i));
+            if (c == 0 || k++ == skip) {
+                continue;
+            }
+            hash = (hash ^ c) * 0x100000001b3L;
+        }
+        // FNV-1a mixes the low bits poorly, the probes take both halves
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
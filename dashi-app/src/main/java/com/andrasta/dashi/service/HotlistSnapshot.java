@@ -0,0 +1,139 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+import com.andrasta.dashiclient.LicensePlate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Hotlist stored in a local file with the version it was synced to, so that matching can start
+ * before the server is reached. The file starts with a magic number, format version, hotlist
+ * version and plate count, plates follow as uuid, number, description and priority.
+ * Files are replaced atomically, a crash while saving keeps the previous snapshot.
+ * <p>
+ * Class is immutable.
+ */
+public final class HotlistSnapshot {
+    private static final int MAGIC = 0x44484c53;
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String version;
+    private final Hotlist hotlist;
+
+    public HotlistSnapshot(@Nullable String version, @NonNull Hotlist hotlist) {
+        Preconditions.assertParameterNotNull(hotlist, "hotlist");
+        this.version = version;
+        this.hotlist = hotlist;
+    }
+
+    /**
+     * @return server version of the hotlist, null if the server has no versions
+     */
+    public @Nullable String getVersion() {
+        return version;
+    }
+
+    public @NonNull Hotlist getHotlist() {
+        return hotlist;
+    }
+
+    /**
+     * @return the snapshot or null if there is no file
+     * @throws IOException if the file cannot be read or isn't a snapshot of this format
+     */
+    public static @Nullable HotlistSnapshot load(@NonNull File file) throws IOException {
+        Preconditions.assertParameterNotNull(file, "file");
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a hotlist snapshot: " + file);
+            }
+            String version = in.readBoolean() ? in.readUTF() : null;
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Invalid plate count: " + count);
+            }
+            List<LicensePlate> plates = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID uuid = new UUID(in.readLong(), in.readLong());
+                String number = in.readUTF();
+                String description = in.readBoolean() ? in.readUTF() : null;
+                Integer priority = in.readBoolean() ? in.readInt() : null;
+                plates.add(new LicensePlate(uuid, number, description, priority));
+            }
+            return new HotlistSnapshot(version, Hotlist.build(plates));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot next to the file and renames it over the file when it's synced to the disk.
+     */
+    public void save(@NonNull File file) throws IOException {
+        Preconditions.assertParameterNotNull(file, "file");
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeBoolean(version != null);
+            if (version != null) {
+                out.writeUTF(version);
+            }
+            List<LicensePlate> plates = hotlist.getPlates();
+            out.writeInt(plates.size());
+            for (LicensePlate plate : plates) {
+                out.writeLong(plate.getUuid().getMostSignificantBits());
+                out.writeLong(plate.getUuid().getLeastSignificantBits());
+                out.writeUTF(plate.getNumber());
+                out.writeBoolean(plate.getDescription() != null);
+                if (plate.getDescription() != null) {
+                    out.writeUTF(plate.getDescription());
+                }
+                out.writeBoolean(plate.getPriority() != null);
+                if (plate.getPriority() != null) {
+                    out.writeInt(plate.getPriority());
+                }
+            }
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            stream.close();
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        stream.close();
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp + " to " + file);
+        }
+    }
+}
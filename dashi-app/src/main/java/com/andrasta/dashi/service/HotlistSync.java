@@ -0,0 +1,126 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.andrasta.dashi.utils.Preconditions;
+import com.andrasta.dashiclient.DashiApi.LicenseService;
+import com.andrasta.dashiclient.LicenseDelta;
+import com.andrasta.dashiclient.LicensePlate;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.List;
+
+import retrofit2.Response;
+
+/**
+ * Keeps a {@link Hotlist} in sync with the server. The last synced hotlist is kept in a
+ * {@link HotlistSnapshot} loaded on start, then only changes since its version are downloaded
+ * and applied. Servers without the changes endpoint send the whole list, but only when its ETag
+ * changed.
+ * <p>
+ * Class isn't threadsafe, load and sync are meant to run on one background thread.
+ */
+public final class HotlistSync {
+    private static final String TAG = "HotlistSync";
+    private static final String ETAG = "ETag";
+
+    private final LicenseService service;
+    private final File snapshotFile;
+    private HotlistSnapshot snapshot = new HotlistSnapshot(null, Hotlist.EMPTY);
+    private boolean changesSupported = true;
+
+    public HotlistSync(@NonNull LicenseService service, @NonNull File snapshotFile) {
+        Preconditions.assertParameterNotNull(service, "service");
+        Preconditions.assertParameterNotNull(snapshotFile, "snapshotFile");
+        this.service = service;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * @return hotlist of the local snapshot, empty if there is none or it cannot be read
+     */
+    public @NonNull Hotlist load() {
+        long start = System.currentTimeMillis();
+        try {
+            HotlistSnapshot loaded = HotlistSnapshot.load(snapshotFile);
+            if (loaded != null) {
+                snapshot = loaded;
+                Log.d(TAG, "Snapshot loaded, version: " + loaded.getVersion() + ", plates: "
+                        + loaded.getHotlist().size() + ", time: " + (System.currentTimeMillis() - start) + " ms");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot load snapshot " + snapshotFile, e);
+        }
+        return snapshot.getHotlist();
+    }
+
+    /**
+     * Downloads the changes since the last sync, applies them and saves the snapshot.
+     *
+     * @return changed hotlist or null if nothing changed
+     */
+    public @Nullable Hotlist sync() throws IOException {
+        if (changesSupported) {
+            Response<LicenseDelta> response = service.listLicenseChanges(snapshot.getVersion()).execute();
+            if (response.code() != HttpURLConnection.HTTP_NOT_FOUND) {
+                return applyChanges(response);
+            }
+            Log.w(TAG, "Server has no changes endpoint, syncing whole lists");
+            changesSupported = false;
+        }
+        return applyList(service.listLicenses(snapshot.getVersion()).execute());
+    }
+
+    /**
+     * @return version of the current hotlist
+     */
+    public @Nullable String getVersion() {
+        return snapshot.getVersion();
+    }
+
+    private @Nullable Hotlist applyChanges(@NonNull Response<LicenseDelta> response) throws IOException {
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return null;
+        }
+        LicenseDelta delta = response.body();
+        if (!response.isSuccessful() || delta == null) {
+            throw new IOException("Changes not synced: " + response.code());
+        }
+        if (!delta.isFull() && delta.getAdded().isEmpty() && delta.getRemoved().isEmpty()) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Hotlist hotlist = delta.isFull() ? Hotlist.build(delta.getAdded())
+                : snapshot.getHotlist().apply(delta.getAdded(), delta.getRemoved());
+        Log.d(TAG, "Changes applied, version: " + delta.getVersion() + ", full: " + delta.isFull()
+                + ", added: " + delta.getAdded().size() + ", removed: " + delta.getRemoved().size()
+                + ", time: " + (System.currentTimeMillis() - start) + " ms");
+        return update(new HotlistSnapshot(delta.getVersion(), hotlist));
+    }
+
+    private @Nullable Hotlist applyList(@NonNull Response<List<LicensePlate>> response) throws IOException {
+        if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return null;
+        }
+        List<LicensePlate> plates = response.body();
+        if (!response.isSuccessful() || plates == null) {
+            throw new IOException("List not synced: " + response.code());
+        }
+        return update(new HotlistSnapshot(response.headers().get(ETAG), Hotlist.build(plates)));
+    }
+
+    private @NonNull Hotlist update(@NonNull HotlistSnapshot synced) {
+        snapshot = synced;
+        try {
+            synced.save(snapshotFile);
+        } catch (IOException e) {
+            // matching goes on with the synced hotlist, the next start syncs more
+            Log.e(TAG, "Cannot save snapshot " + snapshotFile, e);
+        }
+        return synced.getHotlist();
+    }
+}
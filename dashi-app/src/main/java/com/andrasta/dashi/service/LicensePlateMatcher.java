@@ -2,35 +2,54 @@ package com.andrasta.dashi.service;
 
 import android.location.Location;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.Pair;
 
-import com.andrasta.dashi.openalpr.AlprResult;
+import com.andrasta.dashi.alpr.PlateEvidence;
 import com.andrasta.dashi.openalpr.Plate;
-import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.openalpr.PlateTrack;
 import com.andrasta.dashi.utils.Preconditions;
 import com.andrasta.dashi.utils.SharedPreferencesHelper;
 import com.andrasta.dashiclient.LicensePlate;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
 import okhttp3.ResponseBody;
+import okio.BufferedSink;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
 
+import static com.andrasta.dashi.utils.SharedPreferencesHelper.KEY_REALERT_WINDOW_MS;
 import static com.andrasta.dashiclient.DashiApi.licenseService;
 
 public class LicensePlateMatcher {
 
     private static final String TAG = "LicensePlateMatcher";
-    private List<LicensePlate> licensePlates = new ArrayList<>();
+    // replaced as a whole, readers always see a complete index
+    private final AtomicReference<Hotlist> hotlist = new AtomicReference<>(Hotlist.EMPTY);
+    // loads and syncs the hotlist, large ones take a while to index
+    private final ScheduledExecutorService syncExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final long SYNC_INTERVAL_MINUTES = 15;
     private static final float CONFIDENCE_THRESHOLD = 80.0f;
+    private static final int MAX_CANDIDATES = 10;
+    // a wanted vehicle seen again later is news, e.g. it moved
+    private static final long DEFAULT_REALERT_WINDOW_MS = TimeUnit.HOURS.toMillis(1);
+    private final FuzzyMatcher fuzzyMatcher = new FuzzyMatcher();
     private final SharedPreferencesHelper sharedPreferencesHelper;
+    private HotlistSync sync;
+    private volatile SeenPlates seenPlates;
 
     private LicensePlateMatcher(@NonNull SharedPreferencesHelper sharedPreferencesHelper) {
         Preconditions.assertParameterNotNull(sharedPreferencesHelper, "sharedPreferencesHelper");
@@ -48,72 +67,125 @@ public class LicensePlateMatcher {
         return INSTANCE;
     }
 
-    public void initialize(){
-
-        Call<List<LicensePlate>> listCall = licenseService.listLicenses();
-
-        listCall.enqueue(new Callback<List<LicensePlate>>() {
+    /**
+     * Loads the hotlist snapshot and the reported plates, then keeps syncing the hotlist in the background.
+     * Reported plates aren't reported again within {@link SharedPreferencesHelper#KEY_REALERT_WINDOW_MS}.
+     * Calls after the first are ignored.
+     *
+     * @param snapshotFile   where the synced hotlist is kept between starts
+     * @param seenPlatesFile where the reported plates are kept between starts
+     */
+    public synchronized void initialize(@NonNull File snapshotFile, @NonNull File seenPlatesFile) {
+        Preconditions.assertParameterNotNull(snapshotFile, "snapshotFile");
+        Preconditions.assertParameterNotNull(seenPlatesFile, "seenPlatesFile");
+        if (sync != null) {
+            return;
+        }
+        sync = new HotlistSync(licenseService, snapshotFile);
+        final SeenPlates seen = new SeenPlates(seenPlatesFile,
+                sharedPreferencesHelper.getLong(KEY_REALERT_WINDOW_MS, DEFAULT_REALERT_WINDOW_MS));
+        syncExecutor.execute(new Runnable() {
             @Override
-            public void onResponse(Call<List<LicensePlate>> call, Response<List<LicensePlate>> response) {
-                List<LicensePlate> body = response.body();
-
-                if(body != null) {
-                    licensePlates = body;
-                }
+            public void run() {
+                seen.open(System.currentTimeMillis());
+                seenPlates = seen;
+                publish(sync.load());
             }
-
+        });
+        syncExecutor.scheduleWithFixedDelay(new Runnable() {
             @Override
-            public void onFailure(Call<List<LicensePlate>> call, Throwable t) {
-                Log.e(TAG, "Exception in initialization", t);
+            public void run() {
+                try {
+                    Hotlist synced = sync.sync();
+                    if (synced != null) {
+                        publish(synced);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // a failed sync must not cancel the next ones
+                    Log.e(TAG, "Hotlist sync failed", e);
+                }
             }
-        });
+        }, 0, SYNC_INTERVAL_MINUTES, TimeUnit.MINUTES);
     }
 
-    private Pair<Plate, LicensePlate> findMatches(@NonNull Plate plate) {
-
-        long plateFoundAlready = sharedPreferencesHelper.getLong(plate.getPlate(), -1);
+    private void publish(@NonNull Hotlist index) {
+        hotlist.set(index);
+        HotlistFilter filter = index.getFilter();
+        Log.d(TAG, "Hotlist: " + index.size() + ", version: " + sync.getVersion() + ", filter: "
+                + filter.getMemoryUsage() + " B, false positive rate: " + filter.getFalsePositiveRate());
+    }
 
-        if(plateFoundAlready != -1) {
-            return null;
+    /**
+     * Every likely reading of the track, i.e. its top-N candidates above the confidence threshold,
+     * is matched with the hotlist allowing common OCR confusions and small misreads.
+     * A wanted plate is reported with its closest and then most confident reading, and isn't reported
+     * again within the re-alert window.
+     */
+    public List<Pair<Plate, LicensePlate>> findMatches(@NonNull PlateTrack<?> track) {
+        Preconditions.assertParameterNotNull(track, "track");
+        List<Plate> readings = new ArrayList<>();
+        List<FuzzyMatcher.Match> matches = new ArrayList<>();
+        matchReadings(fuzzyMatcher, hotlist.get(), track, readings, matches);
+
+        List<Pair<Plate, LicensePlate>> plateMatches = new ArrayList<>(matches.size());
+        SeenPlates seen = seenPlates;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < matches.size(); i++) {
+            LicensePlate licensePlate = matches.get(i).getLicensePlate();
+            if (seen == null || !seen.isSeen(licensePlate.getNumber(), now)) {
+                plateMatches.add(new Pair<>(readings.get(i), licensePlate));
+            }
         }
+        return plateMatches;
+    }
 
-        for (LicensePlate licensePlate : licensePlates) {
-            if (licensePlate.matches(plate.getPlate()) && plate.getConfidence() > CONFIDENCE_THRESHOLD) {
-                return new Pair<>(plate, licensePlate);
+    /**
+     * Adds the closest match of every wanted plate to matches and the reading it was found with to readings.
+     */
+    static void matchReadings(@NonNull FuzzyMatcher fuzzyMatcher, @NonNull Hotlist index, @NonNull PlateTrack<?> track,
+                              @NonNull List<Plate> readings, @NonNull List<FuzzyMatcher.Match> matches) {
+        List<Plate> candidates = track.getCandidates();
+        // ordered by confidence, unlikely readings would only add false matches
+        for (int i = 0; i < Math.min(MAX_CANDIDATES, candidates.size()); i++) {
+            Plate plate = candidates.get(i);
+            if (plate.getConfidence() <= CONFIDENCE_THRESHOLD) {
+                break;
+            }
+            for (FuzzyMatcher.Match match : fuzzyMatcher.match(index, plate.getPlate())) {
+                addMatch(readings, matches, plate, match);
             }
         }
-
-        return null;
     }
 
-    public List<Pair<Plate, LicensePlate>> findMatches(@NonNull AlprResult alprResult) {
-        Preconditions.assertParameterNotNull(alprResult, "alprResult");
-        List<PlateResult> results = alprResult.getPlates();
-        List<Pair<Plate, LicensePlate>> plateMatches = new ArrayList<>();
-
-        if (results.size() > 0) {
-            PlateResult plate = results.get(0);
-            if (plate != null && plate.getBestPlate() != null) {
-                Pair<Plate, LicensePlate> match = findMatches(plate.getBestPlate());
-
-                if(match != null) {
-                    plateMatches.add(match);
+    private static void addMatch(@NonNull List<Plate> readings, @NonNull List<FuzzyMatcher.Match> matches,
+                                 @NonNull Plate plate, @NonNull FuzzyMatcher.Match match) {
+        for (int i = 0; i < matches.size(); i++) {
+            if (matches.get(i).getLicensePlate() == match.getLicensePlate()) {
+                // earlier readings are more confident, replace only with a closer one
+                if (match.getCost() < matches.get(i).getCost()) {
+                    readings.set(i, plate);
+                    matches.set(i, match);
                 }
+                return;
             }
         }
-
-        return plateMatches;
+        readings.add(plate);
+        matches.add(match);
     }
 
-    public void sendMatch(@NonNull final Pair<Plate, LicensePlate> matchingPlatePair, @NonNull byte[] imageAsJpeg, Location lastKnownLocation) {
+    /**
+     * @param evidence image of the match, the match is sent without an image when null
+     */
+    public void sendMatch(@NonNull final Pair<Plate, LicensePlate> matchingPlatePair, @Nullable PlateEvidence evidence, Location lastKnownLocation) {
 
         Preconditions.assertParameterNotNull(matchingPlatePair, "matchingPlatePair");
-        Preconditions.assertParameterNotNull(imageAsJpeg, "imageAsJpeg");
-
-        RequestBody requestFile = RequestBody.create(MediaType.parse("image/jpeg"), imageAsJpeg);
 
-        MultipartBody.Part body =
-                MultipartBody.Part.createFormData("file", matchingPlatePair.second.getUuid() + ".jpg", requestFile);
+        // Retrofit leaves out a null part
+        MultipartBody.Part body = null;
+        if (evidence != null) {
+            RequestBody requestFile = new EvidenceRequestBody(evidence);
+            body = MultipartBody.Part.createFormData("file", matchingPlatePair.second.getUuid() + ".jpg", requestFile);
+        }
 
         String descriptionString = "Android device";
         RequestBody description =
@@ -152,7 +224,19 @@ public class LicensePlateMatcher {
             public void onResponse(Call<ResponseBody> call,
                                    Response<ResponseBody> response) {
                 Log.v("Upload", "success");
-                sharedPreferencesHelper.setLong(matchingPlatePair.first.getPlate(), System.currentTimeMillis());
+                final SeenPlates seen = seenPlates;
+                if (seen != null) {
+                    final String number = matchingPlatePair.second.getNumber();
+                    final long now = System.currentTimeMillis();
+                    // seen at once, logged off the main thread
+                    seen.remember(number, now);
+                    syncExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            seen.markSeen(number, now);
+                        }
+                    });
+                }
             }
 
             @Override
@@ -161,4 +245,31 @@ public class LicensePlateMatcher {
             }
         });
     }
+
+    /**
+     * Streams the shared evidence JPEG without copying it.
+     */
+    private static final class EvidenceRequestBody extends RequestBody {
+        private static final MediaType JPEG = MediaType.parse("image/jpeg");
+        private final PlateEvidence evidence;
+
+        EvidenceRequestBody(@NonNull PlateEvidence evidence) {
+            this.evidence = evidence;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JPEG;
+        }
+
+        @Override
+        public long contentLength() {
+            return evidence.getJpegSize();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            evidence.writeTo(sink.outputStream());
+        }
+    }
 }
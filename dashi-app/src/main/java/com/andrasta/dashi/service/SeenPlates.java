@@ -0,0 +1,258 @@
+package com.andrasta.dashi.service;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Remembers when plates were reported so that a plate isn't reported again within the re-alert window.
+ * Plates are kept as 64 bit hashes of their canonical form in an open addressing table of hash and time,
+ * reports are appended to a log file of {@value #RECORD_SIZE} byte records (hash, time in ms, big endian).
+ * Reports older than the window are dropped when the table grows, the log is rewritten with the kept
+ * reports when most of its records are dropped or overwritten. Lookups and reports take constant
+ * (amortized) time, and memory and the log grow only with plates reported within the window.
+ * <p>
+ * Class is threadsafe.
+ */
+public final class SeenPlates {
+    private static final String TAG = "SeenPlates";
+    private static final int RECORD_SIZE = 8 + 8;
+    private static final int MIN_CAPACITY = 64;
+    private static final int MIN_COMPACTED_RECORDS = 1024;
+
+    private final File log;
+    private final long window;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private long[] hashes = new long[MIN_CAPACITY];
+    private long[] times = new long[MIN_CAPACITY];
+    private int size;
+    private FileChannel channel;
+    private long records;
+
+    /**
+     * @param window re-alert window in ms
+     */
+    public SeenPlates(@NonNull File log, long window) {
+        Preconditions.assertParameterNotNull(log, "log");
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window has to be positive");
+        }
+        this.log = log;
+        this.window = window;
+    }
+
+    /**
+     * Loads the reports still within the window from the log, a damaged log is read up to the damage.
+     */
+    public synchronized void open(long now) {
+        size = 0;
+        hashes = new long[MIN_CAPACITY];
+        times = new long[MIN_CAPACITY];
+        records = 0;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)));
+            try {
+                while (true) {
+                    long hash = in.readLong();
+                    long time = in.readLong();
+                    records++;
+                    if (now - time < window) {
+                        put(hash, time, now);
+                    }
+                }
+            } catch (EOFException e) {
+                // a record cut short by a crash ends the log
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No log " + log);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot read " + log, e);
+        }
+        Log.d(TAG, "Seen plates: " + size + ", log records: " + records);
+        compactIfNeeded();
+    }
+
+    /**
+     * @param now time in ms
+     * @return true if the plate was reported within the window
+     */
+    public synchronized boolean isSeen(@NonNull CharSequence plate, long now) {
+        Preconditions.assertParameterNotNull(plate, "plate");
+        int i = slot(hash(plate));
+        return hashes[i] != 0 && now - times[i] < window;
+    }
+
+    /**
+     * Records a report of the plate in memory only, it's seen at once but lost on restart unless
+     * {@link #markSeen(CharSequence, long)} logs it later, e.g. off the main thread.
+     *
+     * @param now time in ms
+     */
+    public synchronized void remember(@NonNull CharSequence plate, long now) {
+        Preconditions.assertParameterNotNull(plate, "plate");
+        put(hash(plate), now, now);
+    }
+
+    /**
+     * Records a report of the plate and appends it to the log, a failed log write is logged and
+     * the report is kept in memory only. The log may be compacted, so this isn't for the main thread.
+     *
+     * @param now time in ms
+     */
+    public synchronized void markSeen(@NonNull CharSequence plate, long now) {
+        Preconditions.assertParameterNotNull(plate, "plate");
+        long hash = hash(plate);
+        put(hash, now, now);
+        try {
+            append(hash, now);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot append to " + log, e);
+            close();
+        }
+        compactIfNeeded();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close " + log, e);
+            }
+            channel = null;
+        }
+    }
+
+    private void put(long hash, long time, long now) {
+        int i = slot(hash);
+        if (hashes[i] == 0) {
+            if ((size + 1) * 2 > hashes.length) {
+                rehash(now);
+                i = slot(hash);
+            }
+            hashes[i] = hash;
+            size++;
+        }
+        times[i] = time;
+    }
+
+    /**
+     * Drops reports out of the window and resizes the table to keep it at most half full.
+     */
+    private void rehash(long now) {
+        long[] oldHashes = hashes;
+        long[] oldTimes = times;
+        int live = 0;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0 && now - oldTimes[i] < window) {
+                live++;
+            }
+        }
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(live * 4 + 1) << 1);
+        hashes = new long[capacity];
+        times = new long[capacity];
+        size = 0;
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldHashes[i] != 0 && now - oldTimes[i] < window) {
+                int j = slot(oldHashes[i]);
+                hashes[j] = oldHashes[i];
+                times[j] = oldTimes[i];
+                size++;
+            }
+        }
+    }
+
+    private int slot(long hash) {
+        int mask = hashes.length - 1;
+        int i = (int) (hash ^ (hash >>> 32)) & mask;
+        while (hashes[i] != 0 && hashes[i] != hash) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void append(long hash, long time) throws IOException {
+        if (channel == null) {
+            channel = new FileOutputStream(log, true).getChannel();
+        }
+        record.clear();
+        record.putLong(hash).putLong(time).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        records++;
+    }
+
+    /**
+     * Rewrites the log with the table content when most of its records are stale.
+     */
+    private void compactIfNeeded() {
+        if (records <= Math.max(MIN_COMPACTED_RECORDS, size * 2L)) {
+            return;
+        }
+        close();
+        File tmp = new File(log.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(tmp);
+            try {
+                FileChannel tmpChannel = stream.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(size * RECORD_SIZE);
+                for (int i = 0; i < hashes.length; i++) {
+                    if (hashes[i] != 0) {
+                        buffer.putLong(hashes[i]).putLong(times[i]);
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    tmpChannel.write(buffer);
+                }
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!tmp.renameTo(log)) {
+                throw new IOException("Cannot rename " + tmp + " to " + log);
+            }
+            Log.d(TAG, "Log compacted from " + records + " to " + size + " records");
+            records = size;
+        } catch (IOException e) {
+            // the log stays as it is, appending goes on
+            Log.e(TAG, "Cannot compact " + log, e);
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return 64 bit hash of the plate's canonical form, never zero
+     */
+    private static long hash(@NonNull CharSequence plate) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < plate.length(); i++) {
+            char c = plate.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                hash = (hash ^ Character.toUpperCase(c)) * 0x100000001b3L;
+            }
+        }
+        // zero marks an empty slot
+        return hash != 0 ? hash : 1;
+    }
+}
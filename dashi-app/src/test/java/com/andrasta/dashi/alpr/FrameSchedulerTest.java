@@ -0,0 +1,142 @@
+package com.andrasta.dashi.alpr;
+
+import com.andrasta.dashi.camera.Frame;
+import com.andrasta.dashi.camera.FramePool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FrameSchedulerTest {
+    private static final long DEADLINE = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final FramePool pool = new FramePool(4);
+
+    @Test
+    public void latestFrameWins() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(1, DEADLINE);
+        Assert.assertTrue(scheduler.submit(frame(0)));
+        Frame newest = frame(TimeUnit.MILLISECONDS.toNanos(10));
+        Assert.assertTrue(scheduler.submit(newest));
+        Assert.assertEquals(1, scheduler.getReplacedFrames());
+        // the replaced frame is back in the pool
+        Assert.assertEquals(3, pool.getFreeCount());
+
+        Assert.assertSame(newest, scheduler.take(0));
+        scheduler.done(0);
+        newest.release();
+        Assert.assertEquals(4, pool.getFreeCount());
+    }
+
+    @Test
+    public void framesRefusedWhenNoWorkerStartsInTime() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(1, DEADLINE);
+        Assert.assertTrue(scheduler.accepts(0));
+        Assert.assertTrue(scheduler.submit(frame(0)));
+        Frame frame = scheduler.take(0);
+        // service time of the worker is measured to be twice the deadline
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(2 * DEADLINE));
+        scheduler.done(0);
+        frame.release();
+
+        Assert.assertTrue(scheduler.submit(frame(1)));
+        frame = scheduler.take(0);
+        Assert.assertFalse(scheduler.accepts(2));
+        Assert.assertFalse(scheduler.submit(frame(2)));
+        Assert.assertEquals(3, pool.getFreeCount());
+        scheduler.done(0);
+        frame.release();
+        Assert.assertEquals(4, pool.getFreeCount());
+
+        // an idle worker takes frames again
+        Assert.assertTrue(scheduler.accepts(3));
+    }
+
+    @Test
+    public void expiredFramesDropped() throws Exception {
+        final FrameScheduler scheduler = new FrameScheduler(2, DEADLINE);
+        Assert.assertTrue(scheduler.submit(frame(0)));
+        // goes to the other, empty slot and makes the first frame too old
+        Assert.assertTrue(scheduler.submit(frame(2 * DEADLINE)));
+
+        Frame frame = scheduler.take(1);
+        Assert.assertEquals(2 * DEADLINE, frame.getTimestamp());
+        scheduler.done(1);
+        frame.release();
+
+        Thread worker = takeInBackground(scheduler, 0, new AtomicReference<Frame>());
+        worker.join(100);
+        Assert.assertTrue(worker.isAlive());
+        Assert.assertEquals(1, scheduler.getExpiredFrames());
+        scheduler.stop();
+        worker.join(1000);
+        Assert.assertFalse(worker.isAlive());
+        Assert.assertEquals(4, pool.getFreeCount());
+    }
+
+    @Test
+    public void stopUnblocksTake() throws Exception {
+        FrameScheduler scheduler = new FrameScheduler(2, DEADLINE);
+        AtomicReference<Frame> taken = new AtomicReference<>();
+        Thread worker = takeInBackground(scheduler, 0, taken);
+        worker.join(100);
+        Assert.assertTrue(worker.isAlive());
+
+        scheduler.stop();
+        worker.join(1000);
+        Assert.assertFalse(worker.isAlive());
+        Assert.assertNull(taken.get());
+
+        // stopped scheduler refuses frames
+        Assert.assertFalse(scheduler.accepts(0));
+        Assert.assertFalse(scheduler.submit(frame(0)));
+        Assert.assertNull(scheduler.take(1));
+        Assert.assertEquals(4, pool.getFreeCount());
+    }
+
+    @Test
+    public void stopReleasesWaitingFrames() {
+        FrameScheduler scheduler = new FrameScheduler(2, DEADLINE);
+        Assert.assertTrue(scheduler.submit(frame(0)));
+        Assert.assertTrue(scheduler.submit(frame(1)));
+        Assert.assertEquals(2, pool.getFreeCount());
+        scheduler.stop();
+        Assert.assertEquals(4, pool.getFreeCount());
+    }
+
+    /**
+     * Takes frames of the worker until the scheduler stops, the last taken frame is kept in taken.
+     */
+    private static Thread takeInBackground(final FrameScheduler scheduler, final int worker,
+                                           final AtomicReference<Frame> taken) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Frame frame;
+                    while ((frame = scheduler.take(worker)) != null) {
+                        scheduler.done(worker);
+                        Frame previous = taken.getAndSet(frame);
+                        if (previous != null) {
+                            previous.release();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private Frame frame(long timestamp) {
+        // no camera image, only the timestamp matters
+        Frame frame = pool.obtain(2, 2);
+        Assert.assertNotNull(frame);
+        frame.setTimestamp(timestamp);
+        return frame;
+    }
+}
@@ -0,0 +1,172 @@
+package com.andrasta.dashi.alpr;
+
+import android.graphics.Point;
+
+import com.andrasta.dashi.openalpr.AlprResult;
+import com.andrasta.dashi.openalpr.Plate;
+import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.openalpr.RegionOfInterest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class RegionOfInterestEngineTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private final RegionOfInterestEngine engine = new RegionOfInterestEngine();
+
+    @Test
+    public void fullRegionWithoutHistory() {
+        for (int frame = 0; frame < 10; frame++) {
+            assertRegions(engine.nextRegions(WIDTH, HEIGHT, frame * 100), fullRegion());
+        }
+    }
+
+    @Test
+    public void fullRegionEveryFifthFrame() {
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 0), fullRegion());
+        engine.onResult(located(WIDTH, HEIGHT, box(600, 400, 100, 50)), 0);
+        for (int frame = 1; frame < 11; frame++) {
+            engine.onResult(located(WIDTH, HEIGHT, box(600, 400, 100, 50)), frame * 10);
+            RegionOfInterest[] regions = engine.nextRegions(WIDTH, HEIGHT, frame * 10);
+            if (frame % 5 == 0) {
+                assertRegions(regions, fullRegion());
+            } else {
+                assertRegions(regions, new RegionOfInterest(500, 350, 300, 150));
+            }
+        }
+    }
+
+    @Test
+    public void windowFollowsPlate() {
+        engine.nextRegions(WIDTH, HEIGHT, 0);
+        engine.onResult(located(WIDTH, HEIGHT, box(100, 400, 100, 50)), 0);
+        engine.nextRegions(WIDTH, HEIGHT, 100);
+        // moves 1 px per ms to the right
+        engine.onResult(located(WIDTH, HEIGHT, box(200, 400, 100, 50)), 100);
+
+        // projected to 300..400, the window grows with the shift
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 200), new RegionOfInterest(50, 350, 500, 150));
+    }
+
+    @Test
+    public void overlappingWindowsMerge() {
+        engine.nextRegions(WIDTH, HEIGHT, 0);
+        engine.onResult(located(WIDTH, HEIGHT, box(100, 400, 100, 50), box(350, 400, 100, 50)), 0);
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 0), new RegionOfInterest(0, 350, 550, 150));
+
+        engine.reset();
+        engine.nextRegions(WIDTH, HEIGHT, 0);
+        engine.onResult(located(WIDTH, HEIGHT, box(100, 400, 100, 50), box(1000, 400, 100, 50)), 0);
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 0),
+                new RegionOfInterest(0, 350, 300, 150), new RegionOfInterest(900, 350, 300, 150));
+    }
+
+    @Test
+    public void heatmapAfterEnoughSamples() {
+        engine.nextRegions(WIDTH, HEIGHT, 0);
+        for (int i = 0; i < 49; i++) {
+            engine.onResult(located(WIDTH, HEIGHT, box(600, 400, 100, 50)), 0);
+        }
+        // detections are gone, too few samples for the heatmap
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 5000), fullRegion());
+
+        engine.onResult(located(WIDTH, HEIGHT, box(600, 400, 100, 50)), 5000);
+        // cells around the plate center
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 7000), new RegionOfInterest(560, 360, 240, 180));
+    }
+
+    @Test
+    public void heatmapRestored() throws IOException {
+        File file = File.createTempFile("heatmap", null);
+        try {
+            engine.nextRegions(WIDTH, HEIGHT, 0);
+            for (int i = 0; i < 50; i++) {
+                engine.onResult(located(WIDTH, HEIGHT, box(600, 400, 100, 50)), 0);
+            }
+            engine.saveHeatmap(file);
+
+            RegionOfInterestEngine restarted = new RegionOfInterestEngine();
+            restarted.loadHeatmap(file);
+            restarted.nextRegions(WIDTH, HEIGHT, 0);
+            assertRegions(restarted.nextRegions(WIDTH, HEIGHT, 100), new RegionOfInterest(560, 360, 240, 180));
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void damagedHeatmapIgnored() throws IOException {
+        File file = File.createTempFile("heatmap", null);
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(new byte[]{0, 0, 0, 16, 0, 0, 0, 12, 0, 0, 0, 50, 1, 2});
+            out.close();
+            engine.loadHeatmap(file);
+            engine.loadHeatmap(new File(file.getPath() + ".missing"));
+
+            engine.nextRegions(WIDTH, HEIGHT, 0);
+            assertRegions(engine.nextRegions(WIDTH, HEIGHT, 100), fullRegion());
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    @Test
+    public void resultsWithoutSizeIgnored() {
+        engine.nextRegions(WIDTH, HEIGHT, 0);
+        engine.onResult(located(0, 0, box(600, 400, 100, 50)), 0);
+        assertRegions(engine.nextRegions(WIDTH, HEIGHT, 0), fullRegion());
+    }
+
+    @Test
+    public void fullScanIntervalPositive() {
+        try {
+            new RegionOfInterestEngine(0);
+            Assert.fail("Interval should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static RegionOfInterest fullRegion() {
+        return RegionOfInterest.calculateRecognitionRegion(WIDTH, HEIGHT);
+    }
+
+    private static void assertRegions(RegionOfInterest[] actual, RegionOfInterest... expected) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i].toString(), actual[i].toString());
+        }
+    }
+
+    /**
+     * @return result of a frame with plates at the given corners
+     */
+    private static AlprResult located(int width, int height, Point[]... coordinates) {
+        PlateResult[] plateResults = new PlateResult[coordinates.length];
+        for (int i = 0; i < coordinates.length; i++) {
+            plateResults[i] = new PlateResult(new Plate("7ABC123", 90), null, 0, coordinates[i], i);
+        }
+        return new AlprResult(plateResults, 0, width, height);
+    }
+
+    private static Point[] box(int x, int y, int width, int height) {
+        return new Point[]{point(x, y), point(x + width, y), point(x + width, y + height), point(x, y + height)};
+    }
+
+    private static Point point(int x, int y) {
+        // constructors of the android.jar used by unit tests don't set the fields
+        Point point = new Point();
+        point.x = x;
+        point.y = y;
+        return point;
+    }
+}
@@ -0,0 +1,84 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class FuzzyMatcherTest {
+    private final LicensePlate wanted = plate("7ABC123");
+    private final LicensePlate other = plate("8XYZ999");
+    private final Hotlist hotlist = Hotlist.build(Arrays.asList(wanted, other));
+    private final FuzzyMatcher matcher = new FuzzyMatcher();
+
+    @Test
+    public void exact() {
+        assertMatch(matcher.match(hotlist, "7abc-123"), wanted, 0);
+    }
+
+    @Test
+    public void confusions() {
+        assertMatch(matcher.match(hotlist, "7A8C123"), wanted, FuzzyMatcher.CONFUSION_COST);
+        assertMatch(matcher.match(hotlist, "TA8C123"), wanted, 2 * FuzzyMatcher.CONFUSION_COST);
+        assertMatch(matcher.match(hotlist, "TA8C1Z3"), wanted, -1);
+    }
+
+    @Test
+    public void edits() {
+        assertMatch(matcher.match(hotlist, "7ABX123"), wanted, FuzzyMatcher.EDIT_COST);
+        assertMatch(matcher.match(hotlist, "7ABC1234"), wanted, FuzzyMatcher.EDIT_COST);
+        assertMatch(matcher.match(hotlist, "ABC123"), wanted, FuzzyMatcher.EDIT_COST);
+        assertMatch(matcher.match(hotlist, "7AXC12"), wanted, -1);
+    }
+
+    @Test
+    public void budget() {
+        FuzzyMatcher exact = new FuzzyMatcher(0);
+        assertMatch(exact.match(hotlist, "7ABC123"), wanted, 0);
+        assertMatch(exact.match(hotlist, "7A8C123"), wanted, -1);
+
+        FuzzyMatcher wide = new FuzzyMatcher(2 * FuzzyMatcher.EDIT_COST);
+        assertMatch(wide.match(hotlist, "7AXC12"), wanted, 2 * FuzzyMatcher.EDIT_COST);
+    }
+
+    @Test
+    public void closestFirst() {
+        LicensePlate near = plate("7ABC128");
+        List<FuzzyMatcher.Match> matches = matcher.match(Hotlist.build(Arrays.asList(wanted, near)), "7ABC12B");
+        Assert.assertEquals(2, matches.size());
+        Assert.assertSame(near, matches.get(0).getLicensePlate());
+        Assert.assertEquals(FuzzyMatcher.CONFUSION_COST, matches.get(0).getCost());
+        Assert.assertSame(wanted, matches.get(1).getLicensePlate());
+        Assert.assertEquals(FuzzyMatcher.EDIT_COST, matches.get(1).getCost());
+    }
+
+    @Test
+    public void substitutionCost() {
+        Assert.assertEquals(0, FuzzyMatcher.substitutionCost('O', 'O'));
+        Assert.assertEquals(FuzzyMatcher.CONFUSION_COST, FuzzyMatcher.substitutionCost('O', '0'));
+        Assert.assertEquals(FuzzyMatcher.CONFUSION_COST, FuzzyMatcher.substitutionCost('B', '8'));
+        Assert.assertEquals(FuzzyMatcher.EDIT_COST, FuzzyMatcher.substitutionCost('B', 'X'));
+        Assert.assertEquals(FuzzyMatcher.EDIT_COST, FuzzyMatcher.substitutionCost('\u00c4', 'A'));
+    }
+
+    /**
+     * @param cost expected cost, -1 if the plate must not match
+     */
+    private static void assertMatch(List<FuzzyMatcher.Match> matches, LicensePlate plate, int cost) {
+        if (cost < 0) {
+            Assert.assertTrue(matches.isEmpty());
+        } else {
+            Assert.assertEquals(1, matches.size());
+            Assert.assertSame(plate, matches.get(0).getLicensePlate());
+            Assert.assertEquals(cost, matches.get(0).getCost());
+        }
+    }
+
+    private static LicensePlate plate(String number) {
+        return new LicensePlate(UUID.randomUUID(), number, null, 1);
+    }
+}
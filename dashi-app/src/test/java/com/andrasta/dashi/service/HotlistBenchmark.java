@@ -0,0 +1,175 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.DashiApi;
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Lookup latency of {@link Hotlist} and {@link FuzzyMatcher} at 10k, 100k and 1M entries,
+ * printed to standard output. Half of the lookups hit, read plates have separators and lowercase
+ * letters like OCR output may have, fuzzy hits have a misread character.
+ * Fuzzy matches of the missing plates are printed as false matches, {@link HotlistFilter}
+ * memory use and its false positives for the missing plates are printed as well.
+ * {@link HotlistSync} startup from a snapshot of 100k plates and the cost of syncing a delta
+ * from a {@link StandInServer} are printed compared to building the whole list.
+ * <p>
+ * Not run by the unit test task unless asked for, e.g.
+ * {@code ./gradlew :dashi-app:testDebugUnitTest -Pbenchmark --tests '*HotlistBenchmark'}.
+ */
+public class HotlistBenchmark {
+    private static final int[] SIZES = {10000, 100000, 1000000};
+    private static final int LOOKUPS = 1000000;
+    private static final int WARM_UP_LOOKUPS = 200000;
+    private static final int FUZZY_LOOKUPS = 20000;
+    private static final int FUZZY_WARM_UP_LOOKUPS = 5000;
+    private static final String CHARS = "ABCDEFGHJKLMNPRSTUVWXYZ0123456789";
+    private static final int SYNC_SIZE = 100000;
+    private static final int SYNC_DELTA = 100;
+
+    @Test
+    public void lookup() throws Exception {
+        for (int size : SIZES) {
+            Random random = new Random(size);
+            List<LicensePlate> plates = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                plates.add(new LicensePlate(new UUID(random.nextLong(), random.nextLong()), randomPlate(random), null, 1));
+            }
+            long time = System.nanoTime();
+            Hotlist hotlist = Hotlist.build(plates);
+            long buildTime = System.nanoTime() - time;
+
+            String[] reads = new String[1024];
+            for (int i = 0; i < reads.length; i++) {
+                String plate = i % 2 == 0 ? plates.get(random.nextInt(size)).getNumber() : randomPlate(random);
+                reads[i] = (plate.substring(0, 3) + '-' + plate.substring(3)).toLowerCase();
+            }
+
+            int hits = lookups(hotlist, reads, WARM_UP_LOOKUPS);
+            time = System.nanoTime();
+            hits += lookups(hotlist, reads, LOOKUPS);
+            long lookupTime = System.nanoTime() - time;
+
+            Assert.assertTrue(hits >= (WARM_UP_LOOKUPS + LOOKUPS) / 2);
+            System.out.println("Hotlist " + size + ": build " + buildTime / 1000000 + " ms, lookup "
+                    + lookupTime / LOOKUPS + " ns");
+
+            HotlistFilter filter = hotlist.getFilter();
+            String[] misses = new String[reads.length / 2];
+            for (int i = 0; i < misses.length; i++) {
+                misses[i] = reads[i * 2 + 1];
+            }
+            filterChecks(filter, misses, WARM_UP_LOOKUPS);
+            time = System.nanoTime();
+            int positives = filterChecks(filter, misses, LOOKUPS);
+            long filterTime = System.nanoTime() - time;
+            System.out.println("Hotlist " + size + ": filter " + filter.getMemoryUsage() / 1024 + " kB, check "
+                    + filterTime / LOOKUPS + " ns, false positives " + positives * 100f / LOOKUPS
+                    + " % (" + filter.getFalsePositiveRate() * 100 + " % per probe)");
+
+            for (int i = 0; i < reads.length; i += 2) {
+                // one character misread, behind the separator
+                reads[i] = reads[i].substring(0, 4) + '8' + reads[i].substring(5);
+            }
+            FuzzyMatcher matcher = new FuzzyMatcher();
+            fuzzyLookups(matcher, hotlist, reads, FUZZY_WARM_UP_LOOKUPS);
+            time = System.nanoTime();
+            int[] fuzzyHits = fuzzyLookups(matcher, hotlist, reads, FUZZY_LOOKUPS);
+            long fuzzyTime = System.nanoTime() - time;
+
+            Assert.assertEquals(FUZZY_LOOKUPS / 2, fuzzyHits[0]);
+            System.out.println("Hotlist " + size + ": fuzzy lookup " + fuzzyTime / FUZZY_LOOKUPS / 1000 + " us, false matches "
+                    + fuzzyHits[1] * 100f / (FUZZY_LOOKUPS / 2) + " %");
+        }
+    }
+
+    @Test
+    public void sync() throws Exception {
+        StandInServer server = new StandInServer();
+        File snapshot = File.createTempFile("hotlist", ".snapshot");
+        try {
+            DashiApi.LicenseService service = DashiApi.createLicenseService(server.getUrl());
+            List<LicensePlate> plates = server.addPlates(SYNC_SIZE);
+            HotlistSync sync = new HotlistSync(service, snapshot);
+            Assert.assertNotNull(sync.sync());
+
+            // restart
+            sync = new HotlistSync(service, snapshot);
+            long time = System.nanoTime();
+            Hotlist loaded = sync.load();
+            long loadTime = System.nanoTime() - time;
+            Assert.assertEquals(SYNC_SIZE, loaded.size());
+            System.out.println("Sync: " + SYNC_SIZE + " plates loaded from a " + snapshot.length() / 1024
+                    + " kB snapshot in " + loadTime / 1000000 + " ms");
+
+            server.addPlates(SYNC_DELTA);
+            for (LicensePlate plate : plates.subList(0, SYNC_DELTA)) {
+                server.remove(plate.getUuid());
+            }
+            time = System.nanoTime();
+            Hotlist synced = sync.sync();
+            long deltaTime = System.nanoTime() - time;
+            Assert.assertNotNull(synced);
+            Assert.assertEquals(SYNC_SIZE, synced.size());
+
+            List<LicensePlate> all = synced.getPlates();
+            time = System.nanoTime();
+            Hotlist.build(all);
+            long buildTime = System.nanoTime() - time;
+            System.out.println("Sync: " + 2 * SYNC_DELTA + " changes of " + SYNC_SIZE + " plates synced and saved in "
+                    + deltaTime / 1000000 + " ms, building the list takes " + buildTime / 1000000 + " ms");
+        } finally {
+            server.stop();
+            //noinspection ResultOfMethodCallIgnored
+            snapshot.delete();
+        }
+    }
+
+    private static int filterChecks(HotlistFilter filter, String[] reads, int count) {
+        int positives = 0;
+        for (int i = 0; i < count; i++) {
+            if (filter.mightMatch(reads[i & (reads.length - 1)])) {
+                positives++;
+            }
+        }
+        return positives;
+    }
+
+    /**
+     * @return reads matched at even indices (hits) and at odd ones (misses)
+     */
+    private static int[] fuzzyLookups(FuzzyMatcher matcher, Hotlist hotlist, String[] reads, int count) {
+        int[] hits = new int[2];
+        for (int i = 0; i < count; i++) {
+            if (!matcher.match(hotlist, reads[i & (reads.length - 1)]).isEmpty()) {
+                hits[i & 1]++;
+            }
+        }
+        return hits;
+    }
+
+    private static int lookups(Hotlist hotlist, String[] reads, int count) {
+        int hits = 0;
+        for (int i = 0; i < count; i++) {
+            if (hotlist.get(reads[i & (reads.length - 1)]) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static String randomPlate(Random random) {
+        char[] plate = new char[7];
+        for (int i = 0; i < plate.length; i++) {
+            plate[i] = CHARS.charAt(random.nextInt(CHARS.length()));
+        }
+        return new String(plate);
+    }
+}
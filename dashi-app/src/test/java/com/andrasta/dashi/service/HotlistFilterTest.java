@@ -0,0 +1,90 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+public class HotlistFilterTest {
+    private static final String CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    @Test
+    public void empty() {
+        Assert.assertFalse(HotlistFilter.EMPTY.mightMatch("7ABC123"));
+        Assert.assertFalse(Hotlist.build(Collections.<LicensePlate>emptyList()).getFilter().mightMatch("7ABC123"));
+        Assert.assertEquals(0, HotlistFilter.EMPTY.getMemoryUsage());
+    }
+
+    @Test
+    public void noFalseNegatives() {
+        Random random = new Random(1);
+        List<LicensePlate> plates = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            plates.add(new LicensePlate(UUID.randomUUID(), randomPlate(random, 7), null, 1));
+        }
+        Hotlist hotlist = Hotlist.build(plates);
+        FuzzyMatcher matcher = new FuzzyMatcher();
+        for (LicensePlate plate : plates) {
+            String number = plate.getNumber();
+            int p = random.nextInt(number.length());
+            char c = CHARS.charAt(random.nextInt(CHARS.length()));
+            String[] reads = {
+                    number.toLowerCase(),
+                    number.substring(0, 3) + " " + number.substring(3),
+                    number.substring(0, p) + c + number.substring(p + 1),
+                    number.substring(0, p) + c + number.substring(p),
+                    number.substring(0, p) + number.substring(p + 1),
+                    confuse(confuse(number, p), (p + 1) % number.length())
+            };
+            for (String read : reads) {
+                Assert.assertFalse(matcher.match(hotlist, read).isEmpty());
+                Assert.assertTrue(hotlist.getFilter().mightMatch(read));
+            }
+        }
+    }
+
+    @Test
+    public void falsePositiveRate() {
+        Random random = new Random(2);
+        List<LicensePlate> plates = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            plates.add(new LicensePlate(UUID.randomUUID(), randomPlate(random, 7), null, 1));
+        }
+        HotlistFilter filter = Hotlist.build(plates).getFilter();
+        Assert.assertEquals(10000 * 15, filter.getEntryCount());
+
+        int positives = 0;
+        int reads = 10000;
+        for (int i = 0; i < reads; i++) {
+            if (filter.mightMatch(randomPlate(random, 7))) {
+                positives++;
+            }
+        }
+        // 16 probes per read plate
+        Assert.assertTrue(positives < reads * 16 * filter.getFalsePositiveRate() * 2);
+    }
+
+    private static String confuse(String plate, int position) {
+        String confusions = "0OO08BB81II15SS5";
+        int i = confusions.indexOf(plate.charAt(position));
+        if (i < 0) {
+            return plate;
+        }
+        char c = confusions.charAt(i % 2 == 0 ? i + 1 : i - 1);
+        return plate.substring(0, position) + c + plate.substring(position + 1);
+    }
+
+    private static String randomPlate(Random random, int length) {
+        char[] plate = new char[length];
+        for (int i = 0; i < plate.length; i++) {
+            plate[i] = CHARS.charAt(random.nextInt(CHARS.length()));
+        }
+        return new String(plate);
+    }
+}
@@ -0,0 +1,150 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.DashiApi;
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Syncs against a {@link StandInServer} on localhost.
+ */
+public class HotlistSyncTest {
+    private static final int PLATES = 1000;
+    private static final int DELTA = 100;
+
+    private StandInServer server;
+    private DashiApi.LicenseService service;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StandInServer();
+        service = DashiApi.createLicenseService(server.getUrl());
+        snapshot = File.createTempFile("hotlist", ".snapshot");
+        Assert.assertTrue(snapshot.delete());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        //noinspection ResultOfMethodCallIgnored
+        snapshot.delete();
+    }
+
+    @Test
+    public void startsFromSnapshot() throws Exception {
+        List<LicensePlate> plates = server.addPlates(PLATES);
+        HotlistSync sync = new HotlistSync(service, snapshot);
+        Assert.assertEquals(0, sync.load().size());
+        Hotlist synced = sync.sync();
+        Assert.assertNotNull(synced);
+        Assert.assertEquals(PLATES, synced.size());
+        Assert.assertTrue(snapshot.isFile());
+
+        // restart
+        sync = new HotlistSync(service, snapshot);
+        Hotlist loaded = sync.load();
+        Assert.assertEquals(PLATES, loaded.size());
+        Assert.assertEquals(server.getVersion(), sync.getVersion());
+        for (LicensePlate plate : plates) {
+            LicensePlate found = loaded.get(plate.getNumber());
+            Assert.assertNotNull(found);
+            Assert.assertEquals(plate.getUuid(), found.getUuid());
+            Assert.assertEquals(plate.getDescription(), found.getDescription());
+            Assert.assertEquals(plate.getPriority(), found.getPriority());
+        }
+
+        int requests = server.getRequests();
+        Assert.assertNull(sync.sync());
+        Assert.assertEquals(requests + 1, server.getRequests());
+    }
+
+    @Test
+    public void appliesDeltas() throws Exception {
+        List<LicensePlate> plates = server.addPlates(PLATES);
+        HotlistSync sync = new HotlistSync(service, snapshot);
+        sync.load();
+        Assert.assertNotNull(sync.sync());
+
+        List<LicensePlate> added = server.addPlates(DELTA);
+        List<LicensePlate> removed = plates.subList(0, DELTA);
+        for (LicensePlate plate : removed) {
+            server.remove(plate.getUuid());
+        }
+        LicensePlate changed = new LicensePlate(plates.get(DELTA).getUuid(), "CHANGED1", null, 1);
+        server.add(changed);
+
+        Hotlist synced = sync.sync();
+        Assert.assertNotNull(synced);
+        assertContent(synced, PLATES, added, removed, changed, plates.get(DELTA));
+
+        Assert.assertNull(sync.sync());
+        sync = new HotlistSync(service, snapshot);
+        assertContent(sync.load(), PLATES, added, removed, changed, plates.get(DELTA));
+    }
+
+    @Test
+    public void syncsWholeListsWithoutChangesEndpoint() throws Exception {
+        server.setChangesEndpoint(false);
+        server.addPlates(DELTA);
+        HotlistSync sync = new HotlistSync(service, snapshot);
+        sync.load();
+        Hotlist synced = sync.sync();
+        Assert.assertNotNull(synced);
+        Assert.assertEquals(DELTA, synced.size());
+        Assert.assertEquals(server.getETag(), sync.getVersion());
+
+        // unchanged lists aren't sent again
+        Assert.assertNull(sync.sync());
+
+        server.addPlates(1);
+        synced = sync.sync();
+        Assert.assertNotNull(synced);
+        Assert.assertEquals(DELTA + 1, synced.size());
+    }
+
+    @Test
+    public void failedSyncKeepsSnapshot() throws Exception {
+        server.addPlates(DELTA);
+        HotlistSync sync = new HotlistSync(service, snapshot);
+        sync.load();
+        Assert.assertNotNull(sync.sync());
+        String version = sync.getVersion();
+
+        server.addPlates(1);
+        server.setFailing(true);
+        try {
+            sync.sync();
+            Assert.fail("Sync should fail");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(version, sync.getVersion());
+        Assert.assertEquals(DELTA, new HotlistSync(service, snapshot).load().size());
+
+        server.setFailing(false);
+        Hotlist synced = sync.sync();
+        Assert.assertNotNull(synced);
+        Assert.assertEquals(DELTA + 1, synced.size());
+    }
+
+    private static void assertContent(Hotlist hotlist, int size, List<LicensePlate> added, List<LicensePlate> removed,
+                                      LicensePlate changed, LicensePlate original) {
+        Assert.assertEquals(size, hotlist.size());
+        for (LicensePlate plate : added) {
+            Assert.assertEquals(plate.getUuid(), hotlist.get(plate.getNumber()).getUuid());
+        }
+        for (LicensePlate plate : removed) {
+            Assert.assertNull(hotlist.get(plate.getNumber()));
+        }
+        Assert.assertEquals(changed.getUuid(), hotlist.get(changed.getNumber()).getUuid());
+        Assert.assertNull(hotlist.get(original.getNumber()));
+    }
+}
@@ -0,0 +1,108 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class HotlistTest {
+    private final LicensePlate first = plate("7ABC123");
+    private final LicensePlate second = plate("8XYZ999");
+    private final LicensePlate third = plate("5KLM456");
+    private final Hotlist hotlist = Hotlist.build(Arrays.asList(first, second, third));
+
+    @Test
+    public void build() {
+        Assert.assertEquals(3, hotlist.size());
+        Assert.assertSame(first, hotlist.get("7abc 123"));
+        Assert.assertNull(hotlist.get("7ABC124"));
+        Assert.assertEquals(3, hotlist.getPlates().size());
+
+        Hotlist duplicates = Hotlist.build(Arrays.asList(first, plate("7ABC-123"), plate("--")));
+        Assert.assertEquals(1, duplicates.size());
+        Assert.assertSame(first, duplicates.get("7ABC123"));
+    }
+
+    @Test
+    public void apply() {
+        LicensePlate added = plate("1NEW000");
+        LicensePlate changed = new LicensePlate(second.getUuid(), "8XYZ998", null, 2);
+        Hotlist applied = hotlist.apply(Arrays.asList(added, changed), Collections.singletonList(third.getUuid()));
+
+        Assert.assertEquals(3, applied.size());
+        Assert.assertSame(first, applied.get("7ABC123"));
+        Assert.assertSame(added, applied.get("1NEW000"));
+        Assert.assertSame(changed, applied.get("8XYZ998"));
+        Assert.assertNull(applied.get("8XYZ999"));
+        Assert.assertNull(applied.get("5KLM456"));
+        Assert.assertTrue(applied.getFilter().mightMatch("1NEW000"));
+
+        // the original hotlist doesn't change
+        Assert.assertEquals(3, hotlist.size());
+        Assert.assertSame(second, hotlist.get("8XYZ999"));
+        Assert.assertSame(third, hotlist.get("5KLM456"));
+        Assert.assertNull(hotlist.get("1NEW000"));
+    }
+
+    @Test
+    public void applyReplacesSameCanonicalForm() {
+        LicensePlate same = plate("7ABC-123");
+        Hotlist applied = hotlist.apply(Collections.singletonList(same), Collections.<UUID>emptyList());
+        Assert.assertEquals(3, applied.size());
+        Assert.assertSame(same, applied.get("7ABC123"));
+    }
+
+    @Test
+    public void applyToEmpty() {
+        Hotlist applied = Hotlist.EMPTY.apply(Collections.singletonList(first), Collections.singletonList(UUID.randomUUID()));
+        Assert.assertEquals(1, applied.size());
+        Assert.assertSame(first, applied.get("7ABC123"));
+        Assert.assertTrue(applied.getFilter().mightMatch("7ABC123"));
+        Assert.assertEquals(0, Hotlist.EMPTY.size());
+    }
+
+    @Test
+    public void filterRebuiltWhenStale() {
+        List<LicensePlate> plates = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            plates.add(plate(String.format("%07d", i)));
+        }
+        Hotlist current = Hotlist.build(plates);
+        int entries = current.getFilter().getEntryCount();
+        for (int i = 0; i < 400; i += 10) {
+            List<UUID> removed = new ArrayList<>();
+            for (LicensePlate plate : plates.subList(i, i + 10)) {
+                removed.add(plate.getUuid());
+            }
+            current = current.apply(Collections.<LicensePlate>emptyList(), removed);
+        }
+        Assert.assertEquals(600, current.size());
+        // a rebuilt filter doesn't have the entries of removed plates
+        Assert.assertTrue(current.getFilter().getEntryCount() < entries);
+        for (LicensePlate plate : plates.subList(400, 1000)) {
+            Assert.assertSame(plate, current.get(plate.getNumber()));
+            Assert.assertTrue(current.getFilter().mightMatch(plate.getNumber()));
+        }
+
+        List<LicensePlate> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            added.add(plate(String.format("A%06d", i)));
+        }
+        current = current.apply(added, Collections.<UUID>emptyList());
+        Assert.assertEquals(1600, current.size());
+        Assert.assertFalse(current.getFilter().isOverfilled());
+        for (LicensePlate plate : added) {
+            Assert.assertTrue(current.getFilter().mightMatch(plate.getNumber()));
+        }
+    }
+
+    private static LicensePlate plate(String number) {
+        return new LicensePlate(UUID.randomUUID(), number, null, 1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashi.openalpr.AlprResult;
+import com.andrasta.dashi.openalpr.Plate;
+import com.andrasta.dashi.openalpr.PlateResult;
+import com.andrasta.dashi.openalpr.PlateTrack;
+import com.andrasta.dashi.openalpr.PlateTracker;
+import com.andrasta.dashiclient.LicensePlate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class LicensePlateMatcherTest {
+    private final LicensePlate wanted = new LicensePlate(UUID.randomUUID(), "7ABC123", null, 1);
+    private final Hotlist hotlist = Hotlist.build(Collections.singletonList(wanted));
+    private final FuzzyMatcher fuzzyMatcher = new FuzzyMatcher();
+    private final List<Plate> readings = new ArrayList<>();
+    private final List<FuzzyMatcher.Match> matches = new ArrayList<>();
+
+    @Test
+    public void confidentReadingMatches() {
+        Plate best = plate("7A8C123", 92);
+        match(track(best, plate("1XYZ000", 85)));
+        Assert.assertEquals(1, matches.size());
+        Assert.assertSame(wanted, matches.get(0).getLicensePlate());
+        Assert.assertEquals(best.getPlate(), readings.get(0).getPlate());
+    }
+
+    @Test
+    public void unlikelyAlternativeDoesNotMatch() {
+        // a confident reading of another plate, one confusion away from the wanted plate in its alternative
+        match(track(plate("1XYZ000", 92), plate("7A8C123", 30)));
+        Assert.assertTrue(matches.isEmpty());
+
+        // not even exactly
+        match(track(plate("1XYZ000", 92), plate("7ABC123", 30)));
+        Assert.assertTrue(matches.isEmpty());
+    }
+
+    @Test
+    public void unlikelyTrackDoesNotMatch() {
+        match(track(plate("7ABC123", 60)));
+        Assert.assertTrue(matches.isEmpty());
+    }
+
+    @Test
+    public void closestReadingWins() {
+        Plate exact = plate("7ABC123", 85);
+        match(track(plate("7A8C123", 92), exact));
+        Assert.assertEquals(1, matches.size());
+        Assert.assertEquals(0, matches.get(0).getCost());
+        Assert.assertEquals(exact.getPlate(), readings.get(0).getPlate());
+    }
+
+    private void match(PlateTrack<?> track) {
+        readings.clear();
+        matches.clear();
+        LicensePlateMatcher.matchReadings(fuzzyMatcher, hotlist, track, readings, matches);
+        Assert.assertEquals(matches.size(), readings.size());
+    }
+
+    private static PlateTrack<Void> track(Plate best, Plate... others) {
+        PlateTracker<Void> tracker = new PlateTracker<>();
+        PlateResult plateResult = new PlateResult(best, others, 0, null, 0);
+        tracker.update(new AlprResult(new PlateResult[]{plateResult}, 0, 1280, 720), 0, null);
+        return tracker.flush().get(0);
+    }
+
+    private static Plate plate(String plate, float confidence) {
+        return new Plate(plate, confidence);
+    }
+}
@@ -0,0 +1,142 @@
+package com.andrasta.dashi.service;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class SeenPlatesTest {
+    private static final long WINDOW = 60000;
+    private static final long NOW = 1000000000000L;
+
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("seen", ".log");
+        Assert.assertTrue(log.delete());
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        log.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(log.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void seenWithinWindow() {
+        SeenPlates seen = open(NOW);
+        Assert.assertFalse(seen.isSeen("7ABC123", NOW));
+        seen.markSeen("7ABC123", NOW);
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW + WINDOW - 1));
+        Assert.assertTrue(seen.isSeen("7abc-123", NOW));
+        Assert.assertFalse(seen.isSeen("7ABC124", NOW));
+        Assert.assertFalse(seen.isSeen("7ABC123", NOW + WINDOW));
+
+        seen.markSeen("7ABC123", NOW + WINDOW);
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW + WINDOW));
+        Assert.assertEquals(1, seen.size());
+        seen.close();
+    }
+
+    @Test
+    public void reopened() {
+        SeenPlates seen = open(NOW);
+        seen.markSeen("7ABC123", NOW);
+        seen.markSeen("8XYZ999", NOW + WINDOW / 2);
+        seen.close();
+
+        seen = open(NOW + WINDOW / 2);
+        Assert.assertEquals(2, seen.size());
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW + WINDOW / 2));
+        Assert.assertTrue(seen.isSeen("8XYZ999", NOW + WINDOW / 2));
+        seen.close();
+
+        // expired plates aren't loaded
+        seen = open(NOW + WINDOW);
+        Assert.assertEquals(1, seen.size());
+        Assert.assertFalse(seen.isSeen("7ABC123", NOW + WINDOW));
+        Assert.assertTrue(seen.isSeen("8XYZ999", NOW + WINDOW));
+        seen.close();
+    }
+
+    @Test
+    public void rememberedNotLogged() {
+        SeenPlates seen = open(NOW);
+        seen.remember("7ABC123", NOW);
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW));
+        Assert.assertFalse(seen.isSeen("7ABC123", NOW + WINDOW));
+        seen.close();
+
+        seen = open(NOW);
+        Assert.assertEquals(0, seen.size());
+        seen.markSeen("7ABC123", NOW);
+        seen.close();
+
+        seen = open(NOW);
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW));
+        seen.close();
+    }
+
+    @Test
+    public void damagedRecordIgnored() throws IOException {
+        SeenPlates seen = open(NOW);
+        seen.markSeen("7ABC123", NOW);
+        seen.close();
+        FileOutputStream out = new FileOutputStream(log, true);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        seen = open(NOW);
+        Assert.assertEquals(1, seen.size());
+        Assert.assertTrue(seen.isSeen("7ABC123", NOW));
+        seen.close();
+    }
+
+    @Test
+    public void logCompacted() {
+        SeenPlates seen = open(NOW);
+        long time = NOW;
+        for (int i = 0; i < 100000; i++) {
+            time += 10;
+            seen.markSeen(String.format("%07d", i % 50), time);
+        }
+        Assert.assertEquals(50, seen.size());
+        // compacted to the plates seen and the records appended since
+        Assert.assertTrue(log.length() <= 16 * 1025);
+        seen.close();
+
+        seen = open(time);
+        Assert.assertEquals(50, seen.size());
+        Assert.assertTrue(seen.isSeen("0000049", time));
+        seen.close();
+    }
+
+    @Test
+    public void expiredPlatesDropped() {
+        SeenPlates seen = open(NOW);
+        long time = NOW;
+        for (int i = 0; i < 100000; i++) {
+            // a new plate every second, a minute is seen at a time
+            time += 1000;
+            seen.markSeen(String.format("%07d", i), time);
+            Assert.assertTrue(seen.isSeen(String.format("%07d", i), time));
+        }
+        Assert.assertTrue(seen.size() <= 2 * WINDOW / 1000 + 64);
+        Assert.assertFalse(seen.isSeen("0000000", time));
+        Assert.assertTrue(seen.isSeen("0099950", time));
+        seen.close();
+    }
+
+    private SeenPlates open(long now) {
+        SeenPlates seen = new SeenPlates(log, WINDOW);
+        seen.open(now);
+        return seen;
+    }
+}
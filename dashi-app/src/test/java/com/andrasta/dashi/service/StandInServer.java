@@ -0,0 +1,170 @@
+package com.andrasta.dashi.service;
+
+import com.andrasta.dashiclient.LicenseDelta;
+import com.andrasta.dashiclient.LicensePlate;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Serves the license list and its changes like the dashi server, versions are numbers of changes.
+ */
+final class StandInServer implements HttpHandler {
+    private final Gson gson = new Gson();
+    private final HttpServer server;
+    private final Map<UUID, LicensePlate> plates = new LinkedHashMap<>();
+    // change i moves version i to i + 1, a change either adds or removes a plate
+    private final List<LicensePlate> addedChanges = new ArrayList<>();
+    private final List<UUID> removedChanges = new ArrayList<>();
+    private boolean changesEndpoint = true;
+    private boolean failing;
+    private int requests;
+    private int nextNumber;
+
+    StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/licenses", this);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ':' + server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    synchronized List<LicensePlate> addPlates(int count) {
+        List<LicensePlate> added = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int number = nextNumber++;
+            LicensePlate plate = new LicensePlate(UUID.randomUUID(), String.format("%07d", number),
+                    number % 2 == 0 ? "Plate " + number : null, number % 3 == 0 ? null : number % 5);
+            add(plate);
+            added.add(plate);
+        }
+        return added;
+    }
+
+    synchronized void add(LicensePlate plate) {
+        plates.put(plate.getUuid(), plate);
+        addedChanges.add(plate);
+        removedChanges.add(null);
+    }
+
+    synchronized void remove(UUID uuid) {
+        plates.remove(uuid);
+        addedChanges.add(null);
+        removedChanges.add(uuid);
+    }
+
+    synchronized String getVersion() {
+        return String.valueOf(addedChanges.size());
+    }
+
+    synchronized String getETag() {
+        return '"' + getVersion() + '"';
+    }
+
+    synchronized int getRequests() {
+        return requests;
+    }
+
+    synchronized void setChangesEndpoint(boolean changesEndpoint) {
+        this.changesEndpoint = changesEndpoint;
+    }
+
+    synchronized void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String response;
+        synchronized (this) {
+            requests++;
+            response = respond(exchange);
+        }
+        if (response == null) {
+            exchange.close();
+            return;
+        }
+        byte[] body = response.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * @return JSON to send or null if a response without body was sent
+     */
+    private String respond(HttpExchange exchange) throws IOException {
+        if (failing) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_INTERNAL_ERROR, -1);
+            return null;
+        }
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/api/licenses")) {
+            if (getETag().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                return null;
+            }
+            exchange.getResponseHeaders().set("ETag", getETag());
+            return gson.toJson(new ArrayList<>(plates.values()));
+        }
+        if (!path.equals("/api/licenses/changes") || !changesEndpoint) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+            return null;
+        }
+
+        int since = parseVersion(exchange.getRequestURI().getQuery());
+        if (since == addedChanges.size()) {
+            exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+            return null;
+        }
+        if (since < 0 || since > addedChanges.size()) {
+            return gson.toJson(new LicenseDelta(getVersion(), true, new ArrayList<>(plates.values()), null));
+        }
+        Map<UUID, LicensePlate> added = new LinkedHashMap<>();
+        Set<UUID> removed = new LinkedHashSet<>();
+        for (int i = since; i < addedChanges.size(); i++) {
+            LicensePlate plate = addedChanges.get(i);
+            if (plate != null) {
+                added.put(plate.getUuid(), plate);
+                removed.remove(plate.getUuid());
+            } else {
+                added.remove(removedChanges.get(i));
+                removed.add(removedChanges.get(i));
+            }
+        }
+        return gson.toJson(new LicenseDelta(getVersion(), false, new ArrayList<>(added.values()), new ArrayList<>(removed)));
+    }
+
+    private static int parseVersion(String query) {
+        if (query == null || !query.startsWith("since=")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(query.substring("since=".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -11,22 +11,35 @@ import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.Multipart;
 import retrofit2.http.POST;
 import retrofit2.http.Part;
 import retrofit2.http.Path;
+import retrofit2.http.Query;
 
 public class DashiApi {
 
-    static final Retrofit retrofit = new Retrofit.Builder()
-            .baseUrl("http://35.166.26.91:9000")
-            .addConverterFactory(GsonConverterFactory.create())
-            .build();
+    static final String BASE_URL = "http://35.166.26.91:9000";
+
+    static final Retrofit retrofit = createRetrofit(BASE_URL);
 
     public interface LicenseService {
         @GET("/api/licenses")
         Call<List<LicensePlate>> listLicenses();
 
+        /**
+         * @param etag ETag of the list the client has, the server answers 304 if it's unchanged
+         */
+        @GET("/api/licenses")
+        Call<List<LicensePlate>> listLicenses(@Header("If-None-Match") String etag);
+
+        /**
+         * @param since version of the list the client has, null for the whole list
+         */
+        @GET("/api/licenses/changes")
+        Call<LicenseDelta> listLicenseChanges(@Query("since") String since);
+
         @Multipart
         @POST("/api/licenses/match/{id}")
         Call<ResponseBody> upload(
@@ -44,4 +57,18 @@ public class DashiApi {
 
     public static final LicenseService licenseService = retrofit.create(LicenseService.class);
 
+    /**
+     * @return service talking to given server instead of the default one
+     */
+    public static LicenseService createLicenseService(String baseUrl) {
+        return createRetrofit(baseUrl).create(LicenseService.class);
+    }
+
+    private static Retrofit createRetrofit(String baseUrl) {
+        return new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+    }
+
 }
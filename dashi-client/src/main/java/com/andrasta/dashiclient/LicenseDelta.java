@@ -0,0 +1,50 @@
+package com.andrasta.dashiclient;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Changes of the license list since a version the client has.
+ * If the server cannot tell the changes, e.g. the version is too old, it sends the whole list
+ * as added plates and marks the delta as full.
+ */
+public class LicenseDelta {
+
+    private String version;
+    private boolean full;
+    private List<LicensePlate> added;
+    private List<UUID> removed;
+
+    public LicenseDelta(@Nullable String version, boolean full, @Nullable List<LicensePlate> added, @Nullable List<UUID> removed) {
+        this.version = version;
+        this.full = full;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * @return version of the list after the changes
+     */
+    public @Nullable String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if added plates are the whole list
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    public @NonNull List<LicensePlate> getAdded() {
+        return added != null ? added : Collections.<LicensePlate>emptyList();
+    }
+
+    public @NonNull List<UUID> getRemoved() {
+        return removed != null ? removed : Collections.<UUID>emptyList();
+    }
+}
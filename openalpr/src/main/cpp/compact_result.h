@@ -0,0 +1,92 @@
+//
+// Compact result layouts shared with CompactAlprResult and CompactLaneDetectorResult.
+// Values are written in native byte order, offsets are in bytes.
+//
+
+#ifndef DASH_I_COMPACT_RESULT_H
+#define DASH_I_COMPACT_RESULT_H
+
+#include <cstring>
+#include <algorithm>
+#include "alpr.h"
+#include "lanedetector.h"
+
+namespace dashi {
+    namespace jni {
+
+        class CompactResult {
+        public:
+            static const int MAX_PLATES = 16;
+            static const int MAX_CANDIDATES = 10;
+            static const int MAX_PLATE_CHARS = 16;
+
+            static const int HEADER_SIZE = 4 * 4;
+            static const int CANDIDATE_SIZE = 4 + 4 + MAX_PLATE_CHARS;
+            static const int PLATE_HEADER_SIZE = 11 * 4;
+            static const int PLATE_SIZE = PLATE_HEADER_SIZE + MAX_CANDIDATES * CANDIDATE_SIZE;
+            static const int ALPR_RESULT_SIZE = HEADER_SIZE + MAX_PLATES * PLATE_SIZE;
+            static const int LANE_RESULT_SIZE = 4 + 4 * 2 * 4;
+
+            /**
+             * Writes alpr results, plates and candidates above the limits are cut off
+             * @param dst buffer of at least ALPR_RESULT_SIZE bytes
+             */
+            static void write(unsigned char *dst, const alpr::AlprResults &results) {
+                int plateCount = std::min((int) results.plates.size(), MAX_PLATES);
+                putInt(dst, 0, plateCount);
+                putInt(dst, 4, (int) results.total_processing_time_ms);
+                putInt(dst, 8, results.img_width);
+                putInt(dst, 12, results.img_height);
+                for (int i = 0; i < plateCount; i++) {
+                    writePlate(dst + HEADER_SIZE + i * PLATE_SIZE, results.plates[i]);
+                }
+            }
+
+            /**
+             * @param dst buffer of at least LANE_RESULT_SIZE bytes
+             */
+            static void write(unsigned char *dst, const vision::LaneDetectorResult &result) {
+                putFloat(dst, 0, result.thickness);
+                for (int i = 0; i < 4; i++) {
+                    putInt(dst, 4 + i * 8, result.coordinates[i].x);
+                    putInt(dst, 8 + i * 8, result.coordinates[i].y);
+                }
+            }
+
+        private:
+            CompactResult() {}
+
+            static void writePlate(unsigned char *dst, const alpr::AlprPlateResult &plate) {
+                putInt(dst, 0, (int) plate.processing_time_ms);
+                putInt(dst, 4, plate.plate_index);
+                for (int i = 0; i < 4; i++) {
+                    putInt(dst, 8 + i * 8, plate.plate_points[i].x);
+                    putInt(dst, 12 + i * 8, plate.plate_points[i].y);
+                }
+                int candidateCount = std::min((int) plate.topNPlates.size() + 1, MAX_CANDIDATES);
+                putInt(dst, 40, candidateCount);
+                writeCandidate(dst + PLATE_HEADER_SIZE, plate.bestPlate);
+                for (int i = 1; i < candidateCount; i++) {
+                    writeCandidate(dst + PLATE_HEADER_SIZE + i * CANDIDATE_SIZE, plate.topNPlates[i - 1]);
+                }
+            }
+
+            static void writeCandidate(unsigned char *dst, const alpr::AlprPlate &candidate) {
+                int length = std::min((int) candidate.characters.size(), MAX_PLATE_CHARS);
+                putFloat(dst, 0, candidate.overall_confidence);
+                putInt(dst, 4, length);
+                memcpy(dst + 8, candidate.characters.data(), length);
+            }
+
+            static void putInt(unsigned char *dst, int offset, int value) {
+                memcpy(dst + offset, &value, sizeof(value));
+            }
+
+            static void putFloat(unsigned char *dst, int offset, float value) {
+                memcpy(dst + offset, &value, sizeof(value));
+            }
+        };
+    }
+}
+
+#endif //DASH_I_COMPACT_RESULT_H
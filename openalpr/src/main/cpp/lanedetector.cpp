@@ -11,6 +11,7 @@ using namespace std;
 const char *const TAG = "LaneDetector";
 
 static const int GAUSSIAN_KERNEL_SIZE = 5;
+static const int SCALED_GAUSSIAN_KERNEL_SIZE = 3;
 static const int GAUSSIAN_KERNEL_DEVIATION_X = 0;
 static const int CANNY_THRESHOLD_1 = 50;
 static const int CANNY_THRESHOLD_2 = 150;
@@ -27,6 +28,29 @@ static const int LINE_GAP = 100;
 
 static const int LANE_THICKNESS = 5;
 
+static const int WINDOWS = 9;
+// window half width and minimal edge pixels to move it, as fractions of the image width
+static const float WINDOW_MARGIN = 0.05f;
+static const float WINDOW_MIN_PIXELS = 0.005f;
+static const int MIN_LANE_POINTS = 10;
+
+static const int RANSAC_ITERATIONS = 100;
+static const int RANSAC_MAX_POINTS = 2000;
+static const float RANSAC_INLIER_DISTANCE = 2.0f;
+// same lane slopes (dy / dx) as accepted from Hough lines
+static const float MIN_SLOPE = 0.01f;
+static const float MAX_SLOPE = 1.0f;
+
+static const int DEFAULT_FULL_PASS_INTERVAL = 3;
+static const float ALPHA = 0.5f;
+static const float BETA = 0.1f;
+// measurement further than this fraction of the image width is a new lane, not a correction
+static const float MAX_RESIDUAL = 0.2f;
+static const float PREDICTION_CONFIDENCE_DECAY = 0.8f;
+static const float MISS_CONFIDENCE_DECAY = 0.5f;
+static const float MIN_CONFIDENCE = 0.1f;
+static const float FULL_PASS_CONFIDENCE = 0.5f;
+
 float LaneDetector::average(const vector<float>& items) {
 
     return accumulate(items.begin(), items.end(), 0.0f) / items.size();
@@ -45,63 +69,254 @@ Point LaneDetector::center(const vector<Point>& points) {
     return Point(lSum/points.size(), rSum/points.size());
 }
 
-LaneDetectorResult LaneDetector::recognize(unsigned char *pixelData, int bytesPerPixel,
-                                           int imgWidth, int imgHeight) {
+LaneTrack::LaneTrack() {
+    reset();
+}
+
+void LaneTrack::reset() {
+    lane = Lane();
+    velocityBottom = 0;
+    velocityTop = 0;
+    confidence = 0;
+}
 
-    auto arraySize = imgWidth * imgHeight * bytesPerPixel;
+void LaneTrack::predict() {
+    if (!isValid()) {
+        return;
+    }
+    lane.xBottom += velocityBottom;
+    lane.xTop += velocityTop;
+    confidence *= PREDICTION_CONFIDENCE_DECAY;
+}
+
+void LaneTrack::update(const Lane& measurement, int imgWidth) {
+    float residualBottom = measurement.xBottom - lane.xBottom;
+    float residualTop = measurement.xTop - lane.xTop;
+    float maxResidual = MAX_RESIDUAL * imgWidth;
+    float residual = max(fabs(residualBottom), fabs(residualTop));
+    if (!isValid() || residual > maxResidual) {
+        lane = measurement;
+        velocityBottom = 0;
+        velocityTop = 0;
+        confidence = FULL_PASS_CONFIDENCE;
+        return;
+    }
 
-    Mat imageData = Mat(arraySize, 1, CV_8U, pixelData);
-    Mat image = imageData.reshape(bytesPerPixel, imgHeight);
+    lane.xBottom += ALPHA * residualBottom;
+    lane.xTop += ALPHA * residualTop;
+    velocityBottom += BETA * residualBottom;
+    velocityTop += BETA * residualTop;
+    float agreement = 1 - residual / maxResidual;
+    confidence = min(1.0f, confidence * 0.5f + agreement * 0.5f + 0.25f);
+}
 
-    if (!image.data) {
+void LaneTrack::miss() {
+    confidence *= MISS_CONFIDENCE_DECAY;
+    if (confidence < MIN_CONFIDENCE) {
+        reset();
+    }
+}
+
+LaneDetector::LaneDetector() : maskCropped(false), tracking(false), fullPassInterval(DEFAULT_FULL_PASS_INTERVAL),
+                               downscaled(false), scale(1), fitting(HOUGH), frameCounter(0) {
+}
+
+void LaneDetector::setFitting(LaneFitting fitting) {
+    this->fitting = fitting;
+}
+
+void LaneDetector::setDownscaled(bool enabled, int scale) {
+    this->downscaled = enabled;
+    this->scale = max(1, scale);
+}
+
+void LaneDetector::setTracking(bool enabled, int fullPassInterval) {
+    this->tracking = enabled;
+    this->fullPassInterval = max(1, fullPassInterval);
+    reset();
+}
+
+void LaneDetector::reset() {
+    frameCounter = 0;
+    leftTrack.reset();
+    rightTrack.reset();
+}
+
+LaneDetectorResult LaneDetector::recognize(unsigned char *pixelData, int bytesPerPixel,
+                                           int imgWidth, int imgHeight) {
+
+    if (!pixelData) {
         __android_log_print(ANDROID_LOG_INFO, TAG, "No Image data");
         return LaneDetectorResult();
     }
 
-    Mat blurImg, cannyImg;
+    // caller pixels are wrapped, not copied
+    Mat image = Mat(imgHeight, imgWidth, CV_8UC(bytesPerPixel), pixelData);
 
-    // we already get grayscale image. need not convert again.
-    // cvtColor(image, retImg, COLOR_RGB2GRAY, 0);
+    Lane left, right;
+    if (tracking) {
+        if (!track(image, left, right)) {
+            return LaneDetectorResult();
+        }
+    } else {
+        detect(image, left, right);
+        if (!left.found || !right.found) {
+            return LaneDetectorResult();
+        }
+    }
 
-    GaussianBlur(image, blurImg, Size(GAUSSIAN_KERNEL_SIZE, GAUSSIAN_KERNEL_SIZE), GAUSSIAN_KERNEL_DEVIATION_X);
-    imageData.release();
-    image.release();
+    int yBottom = image.rows;
+    int yTop = image.rows * 3 / 5;
 
-    Canny(blurImg, cannyImg, CANNY_THRESHOLD_1, CANNY_THRESHOLD_2);
-    blurImg.release();
+    // fill the detector result
+    LaneDetectorResult detectorResult = LaneDetectorResult();
 
-    // preparing the mask
-    Mat mask = Mat::zeros(cannyImg.size(), cannyImg.type());
+    detectorResult.coordinates[0] = Point((int) right.xTop, yTop);
+    detectorResult.coordinates[1] = Point((int) right.xBottom, yBottom);
+    detectorResult.coordinates[2] = Point((int) left.xTop, yTop);
+    detectorResult.coordinates[3] = Point((int) left.xBottom, yBottom);
 
-    Point points[1][4];
-    points[0][0] = Point(0, cannyImg.rows);
-    points[0][1] = Point(cannyImg.cols * MASK_CONSTANT_1, cannyImg.rows * MAST_CONSTANT_2);
-    points[0][2] = Point(cannyImg.cols * MAST_CONSTANT_3, cannyImg.rows * MAST_CONSTANT_2);
-    points[0][3] = Point(cannyImg.cols, cannyImg.rows);
+    detectorResult.thickness = LANE_THICKNESS;
+    return detectorResult;
+}
 
-    const Point *ppt[1] = {points[0]};
-    int npt[] = {4};
+/**
+ * Runs the full detection when it's due or tracking isn't sure anymore, otherwise lanes are predicted.
+ * @return true if both lanes are tracked
+ */
+bool LaneDetector::track(const Mat& image, Lane& left, Lane& right) {
+    if (trackedSize != image.size()) {
+        reset();
+        trackedSize = image.size();
+    }
 
-    fillPoly(mask, ppt, npt, 1, Scalar(POLYGON_COLOR));
+    bool confident = leftTrack.isValid() && rightTrack.isValid()
+                     && min(leftTrack.getConfidence(), rightTrack.getConfidence()) >= FULL_PASS_CONFIDENCE;
+    if (frameCounter++ % fullPassInterval == 0 || !confident) {
+        Lane measuredLeft, measuredRight;
+        detect(image, measuredLeft, measuredRight);
+        if (measuredLeft.found) {
+            leftTrack.predict();
+            leftTrack.update(measuredLeft, image.cols);
+        } else {
+            leftTrack.miss();
+        }
+        if (measuredRight.found) {
+            rightTrack.predict();
+            rightTrack.update(measuredRight, image.cols);
+        } else {
+            rightTrack.miss();
+        }
+    } else {
+        leftTrack.predict();
+        rightTrack.predict();
+    }
+
+    if (!leftTrack.isValid() || !rightTrack.isValid()) {
+        return false;
+    }
+    left = leftTrack.getLane();
+    right = rightTrack.getLane();
+    return true;
+}
+
+/**
+ * Trapezoid mask is built once per resolution. Cropped mask covers the bounding box
+ * of the trapezoid only, so its top is at the first row.
+ */
+const Mat& LaneDetector::getMask(Size size, bool cropped) {
+    if (mask.size() != size || maskCropped != cropped) {
+        mask = Mat::zeros(size, CV_8U);
+        maskCropped = cropped;
+        int top = cropped ? 0 : (int) (size.height * MAST_CONSTANT_2);
+
+        Point points[1][4];
+        points[0][0] = Point(0, size.height);
+        points[0][1] = Point(size.width * MASK_CONSTANT_1, top);
+        points[0][2] = Point(size.width * MAST_CONSTANT_3, top);
+        points[0][3] = Point(size.width, size.height);
+
+        const Point *ppt[1] = {points[0]};
+        int npt[] = {4};
+
+        fillPoly(mask, ppt, npt, 1, Scalar(POLYGON_COLOR));
+    }
+    return mask;
+}
+
+/**
+ * Full Canny + Hough pass, buffers are reused between frames.
+ * Lanes are returned in source image coordinates in both modes.
+ */
+void LaneDetector::detect(const Mat& image, Lane& left, Lane& right) {
+
+    // we already get grayscale image. need not convert again.
+    // cvtColor(image, retImg, COLOR_RGB2GRAY, 0);
+
+    Mat input = image;
+    int offsetY = 0;
+    int factor = 1;
+    int kernelSize = GAUSSIAN_KERNEL_SIZE;
+    if (downscaled) {
+        // everything above the trapezoid top is masked out anyway
+        offsetY = (int) (image.rows * MAST_CONSTANT_2);
+        input = image(Rect(0, offsetY, image.cols, image.rows - offsetY));
+        if (scale > 1) {
+            factor = scale;
+            kernelSize = SCALED_GAUSSIAN_KERNEL_SIZE;
+            resize(input, scaledImg, Size(input.cols / factor, input.rows / factor), 0, 0, INTER_AREA);
+            input = scaledImg;
+        }
+    }
+
+    GaussianBlur(input, blurImg, Size(kernelSize, kernelSize), GAUSSIAN_KERNEL_DEVIATION_X);
+    Canny(blurImg, cannyImg, CANNY_THRESHOLD_1, CANNY_THRESHOLD_2);
 
     // apply the mask
-    Mat maskedImage;
-    bitwise_and(cannyImg, mask, maskedImage);
+    bitwise_and(cannyImg, getMask(cannyImg.size(), downscaled), maskedImg);
+
+    SourceMapping mapping = SourceMapping();
+    mapping.factor = factor;
+    mapping.offsetY = offsetY;
+    mapping.yBottom = image.rows;
+    mapping.yTop = image.rows * 3 / 5;
+
+    switch (fitting) {
+        case SLIDING_WINDOW:
+            fitSlidingWindow(mapping, left, right);
+            break;
+        case RANSAC:
+            fitRansac(mapping, left, right);
+            break;
+        default:
+            fitHough(mapping, left, right);
+    }
+}
 
-    cannyImg.release();
-    mask.release();
+/**
+ * Averages slopes and centres of Hough segments on both sides
+ */
+void LaneDetector::fitHough(const SourceMapping& mapping, Lane& left, Lane& right) {
+    int factor = mapping.factor;
 
-    vector<Vec4i> lines;
-    HoughLinesP(maskedImage, lines, RHO_CONST, CV_PI / 180, THRESHOLD1, LINE_LENGTH, LINE_GAP);
+    // lengths and votes are in pixels, so they shrink with the image
+    lines.clear();
+    HoughLinesP(maskedImg, lines, max(1.0, (double) RHO_CONST / factor), CV_PI / 180,
+                max(1, THRESHOLD1 / factor), (double) LINE_LENGTH / factor, (double) LINE_GAP / factor);
 
     // calculate the slope of the lane and center point of lanes for extrapolation
-    vector<float> rSlopes;
-    vector<float> lSlopes;
-    vector<Point> rightLines;
-    vector<Point> leftLines;
+    rSlopes.clear();
+    lSlopes.clear();
+    rightLines.clear();
+    leftLines.clear();
 
     for(auto l: lines) {
 
+        // back to source image coordinates
+        l[0] *= factor;
+        l[2] *= factor;
+        l[1] = l[1] * factor + mapping.offsetY;
+        l[3] = l[3] * factor + mapping.offsetY;
         auto slope = ((float) (l[3] - l[1]) / (float) (l[2] - l[0]));
         auto center = Point((l[0] + l[2]) / 2, (l[1] + l[3]) / 2);
 
@@ -118,37 +333,186 @@ LaneDetectorResult LaneDetector::recognize(unsigned char *pixelData, int bytesPe
         }
     }
 
-    auto rSlope = average(rSlopes);
-    auto lSlope = average(lSlopes);
-
-    if ( lines.size() > 0 && rSlope == rSlope && lSlope == lSlope) { // == checks for nan references
+    // extrapolate center and slope to determine lane coordinates
+    float yBottom = mapping.yBottom;
+    float yTop = mapping.yTop;
+    if (!rightLines.empty()) {
+        auto rSlope = average(rSlopes);
         Point rCenter = center(rightLines);
+        right.xBottom = (yBottom - rCenter.y) / rSlope + rCenter.x;
+        right.xTop = (yTop - rCenter.y) / rSlope + rCenter.x;
+        right.found = true;
+    }
+    if (!leftLines.empty()) {
+        auto lSlope = average(lSlopes);
         Point lCenter = center(leftLines);
+        left.xBottom = (yBottom - lCenter.y) / lSlope + lCenter.x;
+        left.xTop = (yTop - lCenter.y) / lSlope + lCenter.x;
+        left.found = true;
+    }
+}
 
-        // extrapolate center and slope to determine lane coordinates
+/**
+ * Starts at the strongest edge columns of the bottom half on both sides and follows
+ * each lane upwards in stacked windows, re-centering a window on its edge pixels
+ */
+void LaneDetector::fitSlidingWindow(const SourceMapping& mapping, Lane& left, Lane& right) {
+    int cols = maskedImg.cols;
+    int rows = maskedImg.rows;
+    histogram.assign(cols, 0);
+    for (int y = rows / 2; y < rows; y++) {
+        auto row = maskedImg.ptr<unsigned char>(y);
+        for (int x = 0; x < cols; x++) {
+            if (row[x]) {
+                histogram[x]++;
+            }
+        }
+    }
+
+    int middle = cols / 2;
+    int leftBase = (int) (max_element(histogram.begin(), histogram.begin() + middle) - histogram.begin());
+    int rightBase = (int) (max_element(histogram.begin() + middle, histogram.end()) - histogram.begin());
 
-        int y2 = maskedImage.rows;
-        int x2 = (y2 - rCenter.y) / rSlope + rCenter.x;
-        int y1 = maskedImage.rows * 3 / 5;
-        int x1 = (y1 - rCenter.y) / rSlope + rCenter.x;
+    if (histogram[leftBase] > 0) {
+        slideWindows(leftBase, lanePoints, mapping);
+        fitLine(lanePoints, mapping, left);
+    }
+    if (histogram[rightBase] > 0) {
+        slideWindows(rightBase, lanePoints, mapping);
+        fitLine(lanePoints, mapping, right);
+    }
+}
 
-        int y12 = maskedImage.rows;
-        int x12 = (y12 - lCenter.y) / lSlope + lCenter.x;
-        int y11 = maskedImage.rows * 3 / 5;
-        int x11 = (y11 - lCenter.y) / lSlope + lCenter.x;
+void LaneDetector::slideWindows(int baseX, vector<Point2f>& lanePoints, const SourceMapping& mapping) {
+    int cols = maskedImg.cols;
+    int rows = maskedImg.rows;
+    int windowHeight = max(1, rows / WINDOWS);
+    int margin = max(1, (int) (cols * WINDOW_MARGIN));
+    int minPixels = max(1, (int) (cols * WINDOW_MIN_PIXELS));
+
+    lanePoints.clear();
+    int x = baseX;
+    for (int window = 0; window < WINDOWS; window++) {
+        int bottom = rows - window * windowHeight;
+        int top = max(0, bottom - windowHeight);
+        int from = max(0, x - margin);
+        int to = min(cols, x + margin);
+        long sumX = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y++) {
+            auto row = maskedImg.ptr<unsigned char>(y);
+            for (int wx = from; wx < to; wx++) {
+                if (row[wx]) {
+                    lanePoints.push_back(mapping.toSource(wx, y));
+                    sumX += wx;
+                    count++;
+                }
+            }
+        }
+        if (count >= minPixels) {
+            x = (int) (sumX / count);
+        }
+    }
+}
 
-        // fill the detector result
-        LaneDetectorResult detectorResult = LaneDetectorResult();
+/**
+ * Fits a line through a random pair of edge points on each side and keeps the one
+ * most edge points agree with, stray edges don't move the result
+ */
+void LaneDetector::fitRansac(const SourceMapping& mapping, Lane& left, Lane& right) {
+    edgePoints.clear();
+    findNonZero(maskedImg, edgePoints);
+    int middle = maskedImg.cols / 2;
+
+    for (int side = 0; side < 2; side++) {
+        bool leftLane = side == 0;
+        sidePoints.clear();
+        for (auto& point : edgePoints) {
+            if ((point.x < middle) == leftLane) {
+                sidePoints.push_back(point);
+            }
+        }
+        if (ransac(sidePoints, leftLane, lanePoints, mapping)) {
+            fitLine(lanePoints, mapping, leftLane ? left : right);
+        }
+    }
+}
 
-        detectorResult.coordinates[0] = Point(x1, y1);
-        detectorResult.coordinates[1] = Point(x2, y2);
-        detectorResult.coordinates[2] = Point(x11, y11);
-        detectorResult.coordinates[3] = Point(x12, y12);
+bool LaneDetector::ransac(const vector<Point>& points, bool leftLane, vector<Point2f>& inliers,
+                          const SourceMapping& mapping) {
+    inliers.clear();
+    if ((int) points.size() < MIN_LANE_POINTS) {
+        return false;
+    }
+    // cap the cost on edge dense frames
+    int step = max(1, (int) points.size() / RANSAC_MAX_POINTS);
+
+    float bestA = 0, bestB = 0;
+    int bestCount = 0;
+    for (int i = 0; i < RANSAC_ITERATIONS; i++) {
+        auto& p1 = points[rng.uniform(0, (int) points.size())];
+        auto& p2 = points[rng.uniform(0, (int) points.size())];
+        if (p1.y == p2.y || p1.x == p2.x) {
+            continue;
+        }
+        float slope = (float) (p2.y - p1.y) / (p2.x - p1.x);
+        // image y grows downwards, so the left lane has a negative slope
+        if ((leftLane ? -slope : slope) < MIN_SLOPE || (leftLane ? -slope : slope) > MAX_SLOPE) {
+            continue;
+        }
+        // x = a * y + b, lanes are closer to vertical than to horizontal
+        float a = (float) (p2.x - p1.x) / (p2.y - p1.y);
+        float b = p1.x - a * p1.y;
+        // distance to the line measured along x, scaled to the perpendicular one
+        float norm = sqrt(1 + a * a);
+        int count = 0;
+        for (size_t j = 0; j < points.size(); j += step) {
+            if (fabs(points[j].x - a * points[j].y - b) / norm <= RANSAC_INLIER_DISTANCE) {
+                count++;
+            }
+        }
+        if (count > bestCount) {
+            bestCount = count;
+            bestA = a;
+            bestB = b;
+        }
+    }
+    if (bestCount * step < MIN_LANE_POINTS) {
+        return false;
+    }
 
-        detectorResult.thickness = LANE_THICKNESS;
-        return detectorResult;
-    } else {
-        return LaneDetectorResult();
+    float norm = sqrt(1 + bestA * bestA);
+    for (auto& point : points) {
+        if (fabs(point.x - bestA * point.y - bestB) / norm <= RANSAC_INLIER_DISTANCE) {
+            inliers.push_back(mapping.toSource(point.x, point.y));
+        }
     }
+    return true;
 }
 
+/**
+ * Least squares fit of x = a * y + b through source image points
+ */
+bool LaneDetector::fitLine(const vector<Point2f>& points, const SourceMapping& mapping, Lane& lane) {
+    if ((int) points.size() < MIN_LANE_POINTS) {
+        return false;
+    }
+    double sumY = 0, sumX = 0, sumYY = 0, sumXY = 0;
+    for (auto& point : points) {
+        sumY += point.y;
+        sumX += point.x;
+        sumYY += point.y * point.y;
+        sumXY += point.x * point.y;
+    }
+    double n = points.size();
+    double denominator = n * sumYY - sumY * sumY;
+    if (fabs(denominator) < 1e-6) {
+        return false;
+    }
+    double a = (n * sumXY - sumY * sumX) / denominator;
+    double b = (sumX - a * sumY) / n;
+    lane.xBottom = (float) (a * mapping.yBottom + b);
+    lane.xTop = (float) (a * mapping.yTop + b);
+    lane.found = true;
+    return true;
+}
@@ -1,5 +1,8 @@
+#ifndef DASH_I_LANEDETECTOR_H
+#define DASH_I_LANEDETECTOR_H
+
 #include <vector>
-#include <opencv2/core/types.hpp>
+#include <opencv2/core.hpp>
 
 namespace vision {
 
@@ -9,16 +12,132 @@ namespace vision {
             float thickness;
 
 
-        LaneDetectorResult() { }
+        LaneDetectorResult() : thickness(0) { }
+    };
+
+    /**
+     * Lane line given by its x at the bottom row and at the top row of the detected area
+     */
+    class Lane {
+        public:
+            bool found;
+            float xBottom;
+            float xTop;
+
+        Lane() : found(false), xBottom(0), xTop(0) { }
+    };
+
+    /**
+     * Alpha-beta filter of a lane line, positions are in pixels, velocities in pixels per frame
+     */
+    class LaneTrack {
+        public:
+            LaneTrack();
+
+            bool isValid() const { return confidence > 0; }
+            float getConfidence() const { return confidence; }
+            const Lane& getLane() const { return lane; }
+
+            void predict();
+            void update(const Lane& measurement, int imgWidth);
+            void miss();
+            void reset();
+
+        private:
+            Lane lane;
+            float velocityBottom;
+            float velocityTop;
+            float confidence;
+    };
+
+    /**
+     * How lane lines are fitted to the edges, values match LaneDetector.Strategy on the Java side
+     */
+    enum LaneFitting {
+        HOUGH = 0,
+        SLIDING_WINDOW = 1,
+        RANSAC = 2
+    };
+
+    /**
+     * Maps processed image coordinates back to the source image
+     */
+    struct SourceMapping {
+        int factor;
+        int offsetY;
+        float yBottom;
+        float yTop;
+
+        cv::Point2f toSource(int x, int y) const {
+            return cv::Point2f(x * factor, y * factor + offsetY);
+        }
     };
 
     class LaneDetector {
 
         public:
+            LaneDetector();
+
             LaneDetectorResult recognize(unsigned char* pixelData, int bytesPerPixel, int imgWidth, int imgHeight);
 
+            /**
+             * In tracking mode lanes are followed across frames, the full detection runs every
+             * fullPassInterval frames or when tracking confidence drops.
+             */
+            void setTracking(bool enabled, int fullPassInterval);
+
+            /**
+             * In downscaled mode only the bounding box of the lane mask is processed,
+             * at 1/scale of the source resolution.
+             */
+            void setDownscaled(bool enabled, int scale);
+            void setFitting(LaneFitting fitting);
+            void reset();
+
         private:
+            void detect(const cv::Mat& image, Lane& left, Lane& right);
+            void fitHough(const SourceMapping& mapping, Lane& left, Lane& right);
+            void fitSlidingWindow(const SourceMapping& mapping, Lane& left, Lane& right);
+            void fitRansac(const SourceMapping& mapping, Lane& left, Lane& right);
+            void slideWindows(int baseX, std::vector<cv::Point2f>& lanePoints, const SourceMapping& mapping);
+            bool ransac(const std::vector<cv::Point>& points, bool leftLane, std::vector<cv::Point2f>& inliers,
+                        const SourceMapping& mapping);
+
+            static bool fitLine(const std::vector<cv::Point2f>& points, const SourceMapping& mapping, Lane& lane);
+            const cv::Mat& getMask(cv::Size size, bool cropped);
+            bool track(const cv::Mat& image, Lane& left, Lane& right);
+
             static cv::Point center(const std::vector<cv::Point>& points);
             static float average(const std::vector<float>& items);
+
+            // workspace reused between frames
+            cv::Mat blurImg;
+            cv::Mat cannyImg;
+            cv::Mat maskedImg;
+            cv::Mat scaledImg;
+            cv::Mat mask;
+            bool maskCropped;
+            std::vector<cv::Vec4i> lines;
+            std::vector<float> rSlopes;
+            std::vector<float> lSlopes;
+            std::vector<cv::Point> rightLines;
+            std::vector<cv::Point> leftLines;
+            std::vector<cv::Point> edgePoints;
+            std::vector<cv::Point> sidePoints;
+            std::vector<cv::Point2f> lanePoints;
+            std::vector<int> histogram;
+            cv::RNG rng;
+
+            bool tracking;
+            int fullPassInterval;
+            bool downscaled;
+            int scale;
+            LaneFitting fitting;
+            long frameCounter;
+            cv::Size trackedSize;
+            LaneTrack leftTrack;
+            LaneTrack rightTrack;
     };
-}
\ No newline at end of file
+}
+
+#endif //DASH_I_LANEDETECTOR_H
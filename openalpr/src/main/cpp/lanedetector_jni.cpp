@@ -6,6 +6,7 @@
 #include "utils_jni.h"
 #include "opencv/cv.h"
 #include "jobject_helper.h"
+#include "compact_result.h"
 
 using namespace alpr;
 using namespace std;
@@ -63,8 +64,10 @@ jobject createJLaneDetectorResult(JNIEnv *env, const LaneDetectorResult &laneDet
         env->DeleteLocalRef(jpoint);
     }
 
-    return laneResultsConstructor.newObject(env, (jfloat) laneDetectorResult.thickness,
-                                                jCoordinates);
+    auto jresult = laneResultsConstructor.newObject(env, (jfloat) laneDetectorResult.thickness,
+                                                    jCoordinates);
+    env->DeleteLocalRef(jCoordinates);
+    return jresult;
 }
 
 JNIEXPORT jobject JNICALL
@@ -89,6 +92,66 @@ Java_com_andrasta_dashi_openalpr_LaneDetector_nRecognizeLaneByteBuffer(JNIEnv *e
 
 }
 
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_LaneDetector_nRecognizeLaneByteBufferCompact(JNIEnv *env, jclass type,
+                                                                              jlong nativeReference,
+                                                                              jobject byteBuffer,
+                                                                              jint pixelSize, jint width,
+                                                                              jint height,
+                                                                              jobject resultBuffer) {
+    auto laneDetector = getLaneDetector(env, nativeReference);
+    if (!laneDetector) {
+        return;
+    }
+    auto directBuffer = env->GetDirectBufferAddress(byteBuffer);
+    auto resultPtr = env->GetDirectBufferAddress(resultBuffer);
+    if (!directBuffer || !resultPtr
+        || env->GetDirectBufferCapacity(resultBuffer) < CompactResult::LANE_RESULT_SIZE) {
+        JUtils::throwRuntimeException(env, "direct buffers expected");
+        return;
+    }
+    auto pixels = reinterpret_cast<unsigned char *>(directBuffer);
+    CompactResult::write(reinterpret_cast<unsigned char *>(resultPtr),
+                         laneDetector->recognize(pixels, pixelSize, width, height));
+}
+
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_LaneDetector_nSetTracking(JNIEnv *env, jclass type,
+                                                           jlong nativeReference,
+                                                           jboolean enabled, jint fullPassInterval) {
+    auto laneDetector = getLaneDetector(env, nativeReference);
+    if (laneDetector) {
+        laneDetector->setTracking(enabled, fullPassInterval);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_LaneDetector_nSetDownscaled(JNIEnv *env, jclass type,
+                                                             jlong nativeReference,
+                                                             jboolean enabled, jint scale) {
+    auto laneDetector = getLaneDetector(env, nativeReference);
+    if (laneDetector) {
+        laneDetector->setDownscaled(enabled, scale);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_LaneDetector_nSetFitting(JNIEnv *env, jclass type,
+                                                          jlong nativeReference, jint fitting) {
+    auto laneDetector = getLaneDetector(env, nativeReference);
+    if (laneDetector) {
+        laneDetector->setFitting((LaneFitting) fitting);
+    }
+}
+
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_LaneDetector_nReset(JNIEnv *env, jclass type,
+                                                     jlong nativeReference) {
+    auto laneDetector = getLaneDetector(env, nativeReference);
+    if (laneDetector) {
+        laneDetector->reset();
+    }
+}
 
 JNIEXPORT void JNICALL
 Java_com_andrasta_dashi_openalpr_LaneDetector_nDelete(JNIEnv *env, jclass type,
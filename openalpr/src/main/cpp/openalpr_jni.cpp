@@ -1,10 +1,15 @@
 #include <jni.h>
 #include <string>
 #include <functional>
+#include <algorithm>
+#include <cstring>
+#include <mutex>
 #include "alpr.h"
 #include "utils_jni.h"
 #include "opencv/cv.h"
+#include "opencv2/imgcodecs.hpp"
 #include "jobject_helper.h"
+#include "compact_result.h"
 
 using namespace alpr;
 using namespace std;
@@ -70,7 +75,9 @@ static JConstructor plateConstructor = JConstructor(PLATE_CLASS_NAME, PLATE_CONS
 
 static jobject createJPlate(JNIEnv *env, const AlprPlate& plate) {
     auto plate_jstring = JUtils::jstringFromString(env, plate.characters);
-    return plateConstructor.newObject(env, plate_jstring, (jfloat)plate.overall_confidence);
+    auto jplate = plateConstructor.newObject(env, plate_jstring, (jfloat)plate.overall_confidence);
+    env->DeleteLocalRef(plate_jstring);
+    return jplate;
 }
 
 static const char* PLATE_RESULT_CLASS_NAME = "com/andrasta/dashi/openalpr/PlateResult";
@@ -90,11 +97,11 @@ static jobject createJPlateResult(JNIEnv *env, const AlprPlateResult& alprPlateR
     JEXCEPTION_CHECK(env);
     for (int i=0; i < topNplatesSize; i++) {
         auto plate = topNplates.at(i);
-        auto jplate = createJPlate(env, plate);
+        auto jcandidate = createJPlate(env, plate);
         JEXCEPTION_CHECK(env);
-        env->SetObjectArrayElement(jtopNplates, i, jplate);
+        env->SetObjectArrayElement(jtopNplates, i, jcandidate);
         JEXCEPTION_CHECK(env);
-        env->DeleteLocalRef(jplate);
+        env->DeleteLocalRef(jcandidate);
     }
 
     auto jCoordinates = JObjectHelper::createJPointArray(env, 4);
@@ -108,9 +115,13 @@ static jobject createJPlateResult(JNIEnv *env, const AlprPlateResult& alprPlateR
         env->DeleteLocalRef(jpoint);
     }
 
-    return plateResultConstructor.newObject(env, jplate, jtopNplates,
-                                            (jint)alprPlateResults.processing_time_ms, jCoordinates,
-                                            (jint)alprPlateResults.plate_index);
+    auto jplateResult = plateResultConstructor.newObject(env, jplate, jtopNplates,
+                                                         (jint)alprPlateResults.processing_time_ms, jCoordinates,
+                                                         (jint)alprPlateResults.plate_index);
+    env->DeleteLocalRef(jplate);
+    env->DeleteLocalRef(jtopNplates);
+    env->DeleteLocalRef(jCoordinates);
+    return jplateResult;
 
 }
 
@@ -121,31 +132,64 @@ void sigsegvHandler(int signo) {
     }
 }
 
+static const char* REGION_OF_INTEREST_CLASS_NAME = "com/andrasta/dashi/openalpr/RegionOfInterest";
 static jclass regionOfInterestClass;
 static jfieldID regionOfInterestX;
 static jfieldID regionOfInterestY;
 static jfieldID regionOfInterestWidth;
 static jfieldID regionOfInterestHeight;
+static std::mutex regionOfInterestFieldsMutex;
+
+/**
+ * Looks the fields up once. Recognition threads call this concurrently, so it's guarded,
+ * a failed lookup leaves an exception pending and is tried again on the next call.
+ */
+static bool initRegionOfInterestFields(JNIEnv *env) {
+    std::lock_guard<std::mutex> lock(regionOfInterestFieldsMutex);
+    if (! regionOfInterestClass) {
+        auto clazz = JUtils::findClass(env, REGION_OF_INTEREST_CLASS_NAME);
+        JEXCEPTION_CHECKR(env, false);
+        regionOfInterestX = env->GetFieldID(clazz, "x", "I");
+        regionOfInterestY = env->GetFieldID(clazz, "y", "I");
+        regionOfInterestWidth = env->GetFieldID(clazz, "width", "I");
+        regionOfInterestHeight = env->GetFieldID(clazz, "height", "I");
+        JEXCEPTION_CHECKR(env, false);
+        regionOfInterestClass = (jclass)env->NewGlobalRef(clazz);
+        env->DeleteLocalRef(clazz);
+    }
+    return true;
+}
 
-vector<AlprRegionOfInterest> getRegionOfInterest(JNIEnv *env, const jobject &regionOfInterest) {
-    vector<AlprRegionOfInterest> res = vector<AlprRegionOfInterest>();
-    if (regionOfInterest != NULL) {
-        if (regionOfInterestClass == NULL) {
-            regionOfInterestClass = env->GetObjectClass(regionOfInterest);
-            regionOfInterestX = env->GetFieldID(regionOfInterestClass, "x", "I");
-            regionOfInterestY = env->GetFieldID(regionOfInterestClass, "y", "I");
-            regionOfInterestWidth = env->GetFieldID(regionOfInterestClass, "width", "I");
-            regionOfInterestHeight = env->GetFieldID(regionOfInterestClass, "height", "I");
-        }
+/**
+ * Converts Java regions of interest to alpr ones. Regions are clipped to the image,
+ * empty regions are skipped.
+ */
+static vector<cv::Rect> getRegionsOfInterest(JNIEnv *env, jobjectArray regionsOfInterest,
+                                             int imgWidth, int imgHeight) {
+    vector<cv::Rect> res = vector<cv::Rect>();
+    if (regionsOfInterest == NULL || ! initRegionOfInterestFields(env)) {
+        return res;
+    }
 
-        int y = env->GetIntField(regionOfInterest, regionOfInterestX);
-        int x = env->GetIntField(regionOfInterest, regionOfInterestY);
+    auto size = env->GetArrayLength(regionsOfInterest);
+    for (int i = 0; i < size; i++) {
+        auto regionOfInterest = env->GetObjectArrayElement(regionsOfInterest, i);
+        if (regionOfInterest == NULL) {
+            continue;
+        }
+        int x = env->GetIntField(regionOfInterest, regionOfInterestX);
+        int y = env->GetIntField(regionOfInterest, regionOfInterestY);
         int width = env->GetIntField(regionOfInterest, regionOfInterestWidth);
         int height = env->GetIntField(regionOfInterest, regionOfInterestHeight);
-
-        AlprRegionOfInterest aroi = AlprRegionOfInterest(x, y, width, height);
-        printf("AlprRegionOfInterest added: %dx%d/%dx%d\n", aroi.x, aroi.y, aroi.width, aroi.height);
-        res.push_back(aroi);
+        env->DeleteLocalRef(regionOfInterest);
+
+        int left = max(0, x);
+        int top = max(0, y);
+        int right = min(imgWidth, x + width);
+        int bottom = min(imgHeight, y + height);
+        if (right > left && bottom > top) {
+            res.push_back(cv::Rect(left, top, right - left, bottom - top));
+        }
     }
     return res;
 }
@@ -154,6 +198,88 @@ static const char* ALPR_RESULT_CLASS_NAME = "com/andrasta/dashi/openalpr/AlprRes
 static const char* ALPR_RESULT_CONSTRUCTOR_SIG = "([Lcom/andrasta/dashi/openalpr/PlateResult;III)V";
 static JConstructor alprResultsConstructor = JConstructor(ALPR_RESULT_CLASS_NAME, ALPR_RESULT_CONSTRUCTOR_SIG);
 
+/**
+ * Layout of caller pixels. Rows may be padded (row stride) and pixels may be apart
+ * from each other (pixel stride), e.g. one channel of interleaved data.
+ */
+struct PixelLayout {
+    int pixelSize;
+    int width;
+    int height;
+    int rowStride;
+    int pixelStride;
+
+    jlong size() const {
+        return (jlong) (height - 1) * rowStride + (jlong) (width - 1) * pixelStride + pixelSize;
+    }
+
+    bool isValid() const {
+        return pixelSize > 0 && width > 0 && height > 0
+               && pixelStride >= pixelSize && rowStride >= (jlong) (width - 1) * pixelStride + pixelSize;
+    }
+};
+
+/**
+ * Wraps caller pixels without copying. Only pixels apart from each other can't be wrapped,
+ * they are gathered into a new image.
+ */
+static cv::Mat wrapPixels(unsigned char* pixels, const PixelLayout& layout) {
+    if (layout.pixelStride == layout.pixelSize) {
+        return cv::Mat(layout.height, layout.width, CV_8UC(layout.pixelSize), pixels, (size_t) layout.rowStride);
+    }
+    cv::Mat gathered = cv::Mat(layout.height, layout.width, CV_8UC(layout.pixelSize));
+    for (int y = 0; y < layout.height; y++) {
+        auto src = pixels + (size_t) y * layout.rowStride;
+        auto dst = gathered.ptr<unsigned char>(y);
+        for (int x = 0; x < layout.width; x++) {
+            memcpy(dst + x * layout.pixelSize, src + x * layout.pixelStride, layout.pixelSize);
+        }
+    }
+    return gathered;
+}
+
+/**
+ * @return pixels of a direct buffer or 0 with a pending exception if the buffer doesn't hold the layout
+ */
+static unsigned char* getPixels(JNIEnv *env, jobject byteBuffer, jlong offset, const PixelLayout& layout) {
+    if (!layout.isValid()) {
+        JUtils::throwRuntimeException(env, "invalid pixel layout");
+        return 0;
+    }
+    auto directBuffer = byteBuffer != NULL ? env->GetDirectBufferAddress(byteBuffer) : NULL;
+    if (directBuffer == NULL || offset < 0
+        || offset + layout.size() > env->GetDirectBufferCapacity(byteBuffer)) {
+        JUtils::throwRuntimeException(env, "pixels aren't inside a direct buffer");
+        return 0;
+    }
+    return reinterpret_cast<unsigned char*>(directBuffer) + offset;
+}
+
+static AlprResults emptyResults(int imgWidth, int imgHeight) {
+    AlprResults results = AlprResults();
+    results.img_width = imgWidth;
+    results.img_height = imgHeight;
+    results.total_processing_time_ms = 0;
+    return results;
+}
+
+/**
+ * Alpr public API takes packed rows only, so padded rows are packed here. Packed images,
+ * which is what the camera gives on most devices, are recognized in place. Images that
+ * couldn't be decoded are empty and have no plates.
+ */
+static AlprResults recognizeImage(Alpr* alpr, const cv::Mat& image, const vector<cv::Rect>& regionsOfInterest) {
+    if (image.empty()) {
+        return emptyResults(0, 0);
+    }
+    auto packed = image.isContinuous() ? image : image.clone();
+    auto regions = vector<AlprRegionOfInterest>();
+    for (auto& region : regionsOfInterest) {
+        regions.push_back(AlprRegionOfInterest(region.x, region.y, region.width, region.height));
+    }
+    return alpr->recognize(packed.data, (int) packed.elemSize(), packed.cols, packed.rows, regions);
+}
+
 static jobject createJAlprResult(JNIEnv *env, const AlprResults& alprResults) {
 
     auto plateResults = alprResults.plates;
@@ -168,10 +294,13 @@ static jobject createJAlprResult(JNIEnv *env, const AlprResults& alprResults) {
         JEXCEPTION_CHECK(env);
         env->SetObjectArrayElement(jplateResults, i, jplateResult);
         JEXCEPTION_CHECK(env);
+        env->DeleteLocalRef(jplateResult);
     }
 
-    return alprResultsConstructor.newObject(env, jplateResults, (jint) alprResults.total_processing_time_ms,
-                                            (jint)alprResults.img_width, (jint)alprResults.img_height);
+    auto jalprResult = alprResultsConstructor.newObject(env, jplateResults, (jint) alprResults.total_processing_time_ms,
+                                                        (jint)alprResults.img_width, (jint)alprResults.img_height);
+    env->DeleteLocalRef(jplateResults);
+    return jalprResult;
 }
 
 
@@ -192,48 +321,160 @@ JNIEXPORT jobject JNICALL
 Java_com_andrasta_dashi_openalpr_Alpr_nRecognizeFileData(JNIEnv *env, jclass type, jlong nativeReference,
                                                           jbyteArray fileData) {
     return withAlpr<jobject>(env, nativeReference, [&](auto alpr) {
-        auto bufferPtr = env->GetByteArrayElements(fileData, NULL);
-        auto data = reinterpret_cast<char*>(bufferPtr);
         auto size = env->GetArrayLength(fileData);
-        auto imageBytes = vector<char>(data, data+ size);
-        auto results = alpr->recognize(imageBytes);
-        env->ReleaseByteArrayElements(fileData,bufferPtr, JNI_ABORT);
+        // decoding is short, the array is pinned only for its duration and isn't copied
+        auto data = env->GetPrimitiveArrayCritical(fileData, NULL);
+        if (data == NULL) {
+            return (jobject)0;
+        }
+        auto image = cv::imdecode(cv::Mat(1, size, CV_8U, data), cv::IMREAD_COLOR);
+        env->ReleasePrimitiveArrayCritical(fileData, data, JNI_ABORT);
+        auto results = recognizeImage(alpr, image, vector<cv::Rect>());
         return createJAlprResult(env, results);
     });
 }
 
 JNIEXPORT jobject JNICALL
 Java_com_andrasta_dashi_openalpr_Alpr_nRecognizeByteArray(JNIEnv *env, jclass type, jlong nativeReference,
-                                                          jbyteArray pixelData, jint width, jint height) {
+                                                          jbyteArray pixelData, jint pixelSize, jint width, jint height,
+                                                          jint rowStride, jint pixelStride) {
     return withAlpr<jobject>(env, nativeReference, [&](auto alpr) {
+        auto layout = PixelLayout{pixelSize, width, height, rowStride, pixelStride};
+        if (!layout.isValid() || layout.size() > env->GetArrayLength(pixelData)) {
+            JUtils::throwRuntimeException(env, "pixels aren't inside the array");
+            return (jobject)0;
+        }
+        // recognition takes too long to block the GC with critical access, large arrays
+        // aren't moved by ART and so aren't copied here
         auto bufferPtr = env->GetByteArrayElements(pixelData, NULL);
+        if (bufferPtr == NULL) {
+            return (jobject)0;
+        }
         auto pixels = reinterpret_cast<unsigned char*>(bufferPtr);
-        auto regionsOfInterest = vector<AlprRegionOfInterest>();
-        auto results = alpr->recognize(pixels, 4, width, height, regionsOfInterest);
-        env->ReleaseByteArrayElements(pixelData,bufferPtr, JNI_ABORT);
+        auto results = recognizeImage(alpr, wrapPixels(pixels, layout), vector<cv::Rect>());
+        env->ReleaseByteArrayElements(pixelData, bufferPtr, JNI_ABORT);
         return createJAlprResult(env, results);
     });
 }
 
 
-
+/**
+ * @return true if regions were given but all of them are outside of the image,
+ * alpr would scan the whole image instead
+ */
+static bool allRegionsClipped(JNIEnv *env, const vector<cv::Rect>& regionsOfInterest, jobjectArray regionsOfInterest_jarray) {
+    return regionsOfInterest.empty() && regionsOfInterest_jarray != NULL
+           && env->GetArrayLength(regionsOfInterest_jarray) > 0;
+}
 
 JNIEXPORT jobject JNICALL
 Java_com_andrasta_dashi_openalpr_Alpr_nRecognizeByteBuffer(JNIEnv *env, jclass type,
                                                            jlong nativeReference, jobject byteBuffer,
                                                            jint pixelSize, jint width, jint height,
-                                                           jobject regionOfInterest) {
+                                                           jint rowStride, jint pixelStride,
+                                                           jobjectArray regionsOfInterest_jarray) {
     signal(SIGSEGV, sigsegvHandler);
     return withAlpr<jobject>(env, nativeReference, [&](auto alpr) {
-        auto directBuffer = env->GetDirectBufferAddress(byteBuffer);
-        if (directBuffer) {
-            auto pixels = reinterpret_cast<unsigned char*>(directBuffer);
-            auto regionsOfInterest = vector<AlprRegionOfInterest>();
-            auto results = alpr->recognize(pixels, pixelSize, width, height, regionsOfInterest);
-            return createJAlprResult(env, results);
-        } else {
+        auto layout = PixelLayout{pixelSize, width, height, rowStride, pixelStride};
+        auto pixels = getPixels(env, byteBuffer, 0, layout);
+        if (!pixels) {
+            return (jobject)0;
+        }
+        auto regionsOfInterest = getRegionsOfInterest(env, regionsOfInterest_jarray, width, height);
+        if (env->ExceptionCheck()) {
             return (jobject)0;
         }
+        if (allRegionsClipped(env, regionsOfInterest, regionsOfInterest_jarray)) {
+            return createJAlprResult(env, emptyResults(width, height));
+        }
+        auto results = recognizeImage(alpr, wrapPixels(pixels, layout), regionsOfInterest);
+        return createJAlprResult(env, results);
+    });
+}
+
+JNIEXPORT void JNICALL
+Java_com_andrasta_dashi_openalpr_Alpr_nRecognizeByteBufferCompact(JNIEnv *env, jclass type,
+                                                                  jlong nativeReference, jobject byteBuffer,
+                                                                  jint pixelSize, jint width, jint height,
+                                                                  jint rowStride, jint pixelStride,
+                                                                  jobjectArray regionsOfInterest_jarray,
+                                                                  jobject resultBuffer) {
+    signal(SIGSEGV, sigsegvHandler);
+    auto alpr = getAlpr(env, nativeReference);
+    if (!alpr) {
+        return;
+    }
+    auto layout = PixelLayout{pixelSize, width, height, rowStride, pixelStride};
+    auto pixels = getPixels(env, byteBuffer, 0, layout);
+    if (!pixels) {
+        return;
+    }
+    auto resultPtr = env->GetDirectBufferAddress(resultBuffer);
+    if (!resultPtr || env->GetDirectBufferCapacity(resultBuffer) < CompactResult::ALPR_RESULT_SIZE) {
+        JUtils::throwRuntimeException(env, "result isn't a direct buffer");
+        return;
+    }
+
+    auto regionsOfInterest = getRegionsOfInterest(env, regionsOfInterest_jarray, width, height);
+    if (env->ExceptionCheck()) {
+        return;
+    }
+    auto dst = reinterpret_cast<unsigned char*>(resultPtr);
+    if (allRegionsClipped(env, regionsOfInterest, regionsOfInterest_jarray)) {
+        CompactResult::write(dst, emptyResults(width, height));
+        return;
+    }
+    CompactResult::write(dst, recognizeImage(alpr, wrapPixels(pixels, layout), regionsOfInterest));
+}
+
+/**
+ * Recognizes frames of the same size either from several direct buffers (offsets == NULL)
+ * or from one direct buffer at given offsets. Local references of every result are released
+ * before the next frame, so batch size isn't limited by the local reference table.
+ */
+JNIEXPORT jobjectArray JNICALL
+Java_com_andrasta_dashi_openalpr_Alpr_nRecognizeByteBuffers(JNIEnv *env, jclass type,
+                                                            jlong nativeReference, jobjectArray byteBuffers,
+                                                            jintArray offsets_jarray,
+                                                            jint pixelSize, jint width, jint height,
+                                                            jint rowStride, jint pixelStride) {
+    signal(SIGSEGV, sigsegvHandler);
+    return withAlpr<jobjectArray>(env, nativeReference, [&](auto alpr) {
+        auto buffersSize = env->GetArrayLength(byteBuffers);
+        auto framesSize = offsets_jarray != NULL ? env->GetArrayLength(offsets_jarray) : buffersSize;
+        if (offsets_jarray != NULL && buffersSize != 1) {
+            JUtils::throwRuntimeException(env, "packed frames need exactly one buffer");
+            return (jobjectArray)0;
+        }
+        auto offsets = vector<jint>(framesSize, 0);
+        if (offsets_jarray != NULL) {
+            env->GetIntArrayRegion(offsets_jarray, 0, framesSize, offsets.data());
+        }
+
+        auto alprResultClass = alprResultsConstructor.getClass(env);
+        JEXCEPTION_CHECKR(env, (jobjectArray)0);
+        auto jresults = env->NewObjectArray(framesSize, alprResultClass, NULL);
+        JEXCEPTION_CHECKR(env, (jobjectArray)0);
+
+        auto layout = PixelLayout{pixelSize, width, height, rowStride, pixelStride};
+        for (int i = 0; i < framesSize; i++) {
+            auto byteBuffer = env->GetObjectArrayElement(byteBuffers, offsets_jarray != NULL ? 0 : i);
+            auto pixels = getPixels(env, byteBuffer, offsets[i], layout);
+            env->DeleteLocalRef(byteBuffer);
+            if (!pixels) {
+                return (jobjectArray)0;
+            }
+
+            if (env->PushLocalFrame(32) < 0) {
+                return (jobjectArray)0;
+            }
+            auto results = recognizeImage(alpr, wrapPixels(pixels, layout), vector<cv::Rect>());
+            auto jresult = env->PopLocalFrame(createJAlprResult(env, results));
+            JEXCEPTION_CHECKR(env, (jobjectArray)0);
+            env->SetObjectArrayElement(jresults, i, jresult);
+            env->DeleteLocalRef(jresult);
+        }
+        return jresults;
     });
 }
 
@@ -29,9 +29,20 @@ public final class Alpr implements Closeable {
         return nRecognizeFilePath(nativeReference, filePath);
     }
 
+    /**
+     * Recognizes tightly packed 4 bytes per pixel data.
+     */
     public @NonNull AlprResult recognizeFromByteArray(@NonNull byte[] pixelData, int width, int height) {
+        return recognizeFromByteArray(pixelData, 4, width, height, width * 4, 4);
+    }
+
+    /**
+     * @param rowStride   distance between rows in bytes
+     * @param pixelStride distance between pixels in bytes
+     */
+    public @NonNull AlprResult recognizeFromByteArray(@NonNull byte[] pixelData, int pixelSize, int width, int height, int rowStride, int pixelStride) {
         Preconditions.assertParameterNotNull(pixelData,"pixelData");
-        return nRecognizeByteArray(nativeReference, pixelData, width, height);
+        return nRecognizeByteArray(nativeReference, pixelData, pixelSize, width, height, rowStride, pixelStride);
     }
 
     public  @NonNull AlprResult recognizeFromFileData(@NonNull byte[] fileData) {
@@ -40,12 +51,80 @@ public final class Alpr implements Closeable {
     }
 
     public @NonNull AlprResult recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height) {
-        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, null);
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, width * pixelSize, pixelSize, null);
     }
 
     public @NonNull AlprResult recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, @Nullable RegionOfInterest regionOfInterest) {
         Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
-        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, regionOfInterest);
+        RegionOfInterest[] regionsOfInterest = regionOfInterest != null ? new RegionOfInterest[]{regionOfInterest} : null;
+        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, width * pixelSize, pixelSize, regionsOfInterest);
+    }
+
+    /**
+     * Plates are detected only inside given regions, an empty array means the whole image.
+     * Regions are clipped to the image.
+     */
+    public @NonNull AlprResult recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, @NonNull RegionOfInterest[] regionsOfInterest) {
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        Preconditions.assertParameterNotNull(regionsOfInterest,"regionsOfInterest");
+        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, width * pixelSize, pixelSize, regionsOfInterest);
+    }
+
+    /**
+     * Takes padded rows and pixels apart from each other, e.g. a plane of a camera image,
+     * so the caller doesn't have to pack them. Only packed pixels are recognized in place,
+     * padded rows and pixels apart are copied into a packed image natively, which still costs
+     * a copy of the image.
+     *
+     * @param rowStride   distance between rows in bytes
+     * @param pixelStride distance between pixels in bytes
+     */
+    public @NonNull AlprResult recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, int rowStride, int pixelStride, @NonNull RegionOfInterest[] regionsOfInterest) {
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        Preconditions.assertParameterNotNull(regionsOfInterest,"regionsOfInterest");
+        return nRecognizeByteBuffer(nativeReference, byteBuffer, pixelSize, width, height, rowStride, pixelStride, regionsOfInterest);
+    }
+
+    /**
+     * Same as {@link #recognizeFromByteBuffer(ByteBuffer, int, int, int, RegionOfInterest[])}
+     * but writes into a reusable result, so no objects are created for the frame.
+     */
+    public void recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, @NonNull RegionOfInterest[] regionsOfInterest, @NonNull CompactAlprResult result) {
+        recognizeFromByteBuffer(byteBuffer, pixelSize, width, height, width * pixelSize, pixelSize, regionsOfInterest, result);
+    }
+
+    /**
+     * Same as {@link #recognizeFromByteBuffer(ByteBuffer, int, int, int, int, int, RegionOfInterest[])}
+     * but writes into a reusable result.
+     */
+    public void recognizeFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, int rowStride, int pixelStride, @NonNull RegionOfInterest[] regionsOfInterest, @NonNull CompactAlprResult result) {
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        Preconditions.assertParameterNotNull(regionsOfInterest,"regionsOfInterest");
+        Preconditions.assertParameterNotNull(result,"result");
+        nRecognizeByteBufferCompact(nativeReference, byteBuffer, pixelSize, width, height, rowStride, pixelStride, regionsOfInterest, result.getBuffer());
+    }
+
+    /**
+     * Recognizes several frames of the same size in one native call.
+     *
+     * @return results in the order of buffers
+     */
+    public @NonNull AlprResult[] recognizeFromByteBuffers(@NonNull ByteBuffer[] byteBuffers, int pixelSize, int width, int height) {
+        Preconditions.assertParameterNotNull(byteBuffers,"byteBuffers");
+        return nRecognizeByteBuffers(nativeReference, byteBuffers, null, pixelSize, width, height, width * pixelSize, pixelSize);
+    }
+
+    /**
+     * Recognizes several frames of the same size packed in one buffer in one native call.
+     *
+     * @param offsets byte offset of every frame in the buffer
+     * @return results in the order of offsets
+     */
+    public @NonNull AlprResult[] recognizeFromPackedByteBuffer(@NonNull ByteBuffer byteBuffer, @NonNull int[] offsets, int pixelSize, int width, int height) {
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        Preconditions.assertParameterNotNull(offsets,"offsets");
+        return nRecognizeByteBuffers(nativeReference, new ByteBuffer[]{byteBuffer}, offsets, pixelSize, width, height, width * pixelSize, pixelSize);
     }
 
     @Override
@@ -64,7 +143,11 @@ public final class Alpr implements Closeable {
 
     private static native AlprResult nRecognizeFileData(long nativeReference, @NonNull byte[] fileData);
 
-    private static native AlprResult nRecognizeByteArray(long nativeReference, @NonNull byte[] pixelData, int width, int heigh);
+    private static native AlprResult nRecognizeByteArray(long nativeReference, @NonNull byte[] pixelData, int pixelSize, int width, int height, int rowStride, int pixelStride);
+
+    private static native AlprResult nRecognizeByteBuffer(long nativeReference, @NonNull ByteBuffer byteBuffer, int pixelSize, int width, int height, int rowStride, int pixelStride, @Nullable RegionOfInterest[] regionsOfInterest);
+
+    private static native void nRecognizeByteBufferCompact(long nativeReference, @NonNull ByteBuffer byteBuffer, int pixelSize, int width, int height, int rowStride, int pixelStride, @Nullable RegionOfInterest[] regionsOfInterest, @NonNull ByteBuffer resultBuffer);
 
-    private static native AlprResult nRecognizeByteBuffer(long nativeReference, @NonNull ByteBuffer byteBuffer, int pixelSize, int width, int height, @Nullable RegionOfInterest regionOfInterest);
+    private static native AlprResult[] nRecognizeByteBuffers(long nativeReference, @NonNull ByteBuffer[] byteBuffers, @Nullable int[] offsets, int pixelSize, int width, int height, int rowStride, int pixelStride);
 }
@@ -1,6 +1,7 @@
 package com.andrasta.dashi.openalpr;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
 import com.andrasta.dashi.utils.NativeCallback;
 
@@ -13,6 +14,10 @@ import java.util.List;
  */
 
 public final class AlprResult {
+    /**
+     * Result of a frame without plates whose details weren't kept, its processing time and source size are 0.
+     */
+    public static final AlprResult EMPTY = new AlprResult(new PlateResult[0], 0, 0, 0);
 
     private final int totalProcessingTime;
     private final int sourceWidth;
@@ -20,7 +25,8 @@ public final class AlprResult {
     private final List<PlateResult> plates;
 
     @NativeCallback
-    AlprResult(@NonNull PlateResult[] plateResults, int totalProcessingTime, int sourceWidth, int sourceHeight) {
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public AlprResult(@NonNull PlateResult[] plateResults, int totalProcessingTime, int sourceWidth, int sourceHeight) {
         if (plateResults != null) {
             this.plates = Collections.unmodifiableList(Arrays.asList(plateResults));
         } else {
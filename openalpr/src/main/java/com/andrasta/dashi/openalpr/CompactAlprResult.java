@@ -0,0 +1,170 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable recognition result written by native code into a direct {@link ByteBuffer}.
+ * Nothing is allocated per frame, entries are read on demand through index based getters.
+ * {@link #toAlprResult()} builds the regular object tree when it's needed.
+ * <p>
+ * Plate 0 candidate 0 is the best plate of the first plate result, other candidates follow
+ * in native order. At most {@link #MAX_PLATES} plates with {@link #MAX_CANDIDATES} candidates
+ * of {@link #MAX_PLATE_CHARS} characters are kept, the rest is cut off.
+ * <p>
+ * Layout has to match compact_result.h. Class isn't threadsafe, a result is meant
+ * to be reused by one thread.
+ */
+public final class CompactAlprResult {
+    public static final int MAX_PLATES = 16;
+    public static final int MAX_CANDIDATES = 10;
+    public static final int MAX_PLATE_CHARS = 16;
+
+    private static final int HEADER_SIZE = 4 * 4;
+    private static final int CANDIDATE_SIZE = 4 + 4 + MAX_PLATE_CHARS;
+    private static final int PLATE_HEADER_SIZE = 11 * 4;
+    private static final int PLATE_SIZE = PLATE_HEADER_SIZE + MAX_CANDIDATES * CANDIDATE_SIZE;
+    static final int SIZE = HEADER_SIZE + MAX_PLATES * PLATE_SIZE;
+
+    private static final int PLATE_COUNT = 0;
+    private static final int TOTAL_PROCESSING_TIME = 4;
+    private static final int SOURCE_WIDTH = 8;
+    private static final int SOURCE_HEIGHT = 12;
+    private static final int PLATE_PROCESSING_TIME = 0;
+    private static final int PLATE_INDEX = 4;
+    private static final int PLATE_COORDINATES = 8;
+    private static final int CANDIDATE_COUNT = 40;
+    private static final int CANDIDATE_CONFIDENCE = 0;
+    private static final int CANDIDATE_LENGTH = 4;
+    private static final int CANDIDATE_CHARS = 8;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+
+    @NonNull ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getPlateCount() {
+        return buffer.getInt(PLATE_COUNT);
+    }
+
+    public int getTotalProcessingTime() {
+        return buffer.getInt(TOTAL_PROCESSING_TIME);
+    }
+
+    public int getSourceWidth() {
+        return buffer.getInt(SOURCE_WIDTH);
+    }
+
+    public int getSourceHeight() {
+        return buffer.getInt(SOURCE_HEIGHT);
+    }
+
+    public int getProcessingTimeInMs(int plate) {
+        return buffer.getInt(plateOffset(plate) + PLATE_PROCESSING_TIME);
+    }
+
+    public int getPlateIndex(int plate) {
+        return buffer.getInt(plateOffset(plate) + PLATE_INDEX);
+    }
+
+    public int getCoordinateX(int plate, int point) {
+        return buffer.getInt(coordinateOffset(plate, point));
+    }
+
+    public int getCoordinateY(int plate, int point) {
+        return buffer.getInt(coordinateOffset(plate, point) + 4);
+    }
+
+    /**
+     * @return number of candidates including the best plate
+     */
+    public int getCandidateCount(int plate) {
+        return buffer.getInt(plateOffset(plate) + CANDIDATE_COUNT);
+    }
+
+    public float getConfidence(int plate, int candidate) {
+        return buffer.getFloat(candidateOffset(plate, candidate) + CANDIDATE_CONFIDENCE);
+    }
+
+    /**
+     * Copies candidate characters without allocation.
+     *
+     * @param dst array of at least {@link #MAX_PLATE_CHARS} chars
+     * @return number of copied chars
+     */
+    public int getPlateChars(int plate, int candidate, @NonNull char[] dst) {
+        int offset = candidateOffset(plate, candidate);
+        int length = buffer.getInt(offset + CANDIDATE_LENGTH);
+        for (int i = 0; i < length; i++) {
+            dst[i] = (char) (buffer.get(offset + CANDIDATE_CHARS + i) & 0xff);
+        }
+        return length;
+    }
+
+    public @NonNull String getPlate(int plate, int candidate) {
+        char[] chars = new char[MAX_PLATE_CHARS];
+        return new String(chars, 0, getPlateChars(plate, candidate, chars));
+    }
+
+    /**
+     * @return regular result holding a copy of this one, {@link AlprResult#EMPTY} if there are no plates
+     */
+    public @NonNull AlprResult toAlprResult() {
+        int plateCount = getPlateCount();
+        if (plateCount == 0) {
+            return AlprResult.EMPTY;
+        }
+        PlateResult[] plateResults = new PlateResult[plateCount];
+        for (int plate = 0; plate < plateCount; plate++) {
+            int candidateCount = getCandidateCount(plate);
+            Plate bestPlate = null;
+            Plate[] otherCandidates = new Plate[Math.max(0, candidateCount - 1)];
+            for (int candidate = 0; candidate < candidateCount; candidate++) {
+                Plate p = new Plate(getPlate(plate, candidate), getConfidence(plate, candidate));
+                if (candidate == 0) {
+                    bestPlate = p;
+                } else {
+                    otherCandidates[candidate - 1] = p;
+                }
+            }
+            Point[] coordinates = new Point[4];
+            for (int point = 0; point < 4; point++) {
+                coordinates[point] = new Point(getCoordinateX(plate, point), getCoordinateY(plate, point));
+            }
+            plateResults[plate] = new PlateResult(bestPlate, otherCandidates, getProcessingTimeInMs(plate), coordinates, getPlateIndex(plate));
+        }
+        return new AlprResult(plateResults, getTotalProcessingTime(), getSourceWidth(), getSourceHeight());
+    }
+
+    private int plateOffset(int plate) {
+        if (plate < 0 || plate >= getPlateCount()) {
+            throw new IndexOutOfBoundsException("Plate " + plate + " of " + getPlateCount());
+        }
+        return HEADER_SIZE + plate * PLATE_SIZE;
+    }
+
+    private int coordinateOffset(int plate, int point) {
+        if (point < 0 || point >= 4) {
+            throw new IndexOutOfBoundsException("Point " + point + " of 4");
+        }
+        return plateOffset(plate) + PLATE_COORDINATES + point * 8;
+    }
+
+    private int candidateOffset(int plate, int candidate) {
+        int offset = plateOffset(plate);
+        int count = buffer.getInt(offset + CANDIDATE_COUNT);
+        if (candidate < 0 || candidate >= count) {
+            throw new IndexOutOfBoundsException("Candidate " + candidate + " of " + count);
+        }
+        return offset + PLATE_HEADER_SIZE + candidate * CANDIDATE_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactAlprResult:{ plateCount: " + getPlateCount() + ", totalProcessingTime: " + getTotalProcessingTime() + " }";
+    }
+}
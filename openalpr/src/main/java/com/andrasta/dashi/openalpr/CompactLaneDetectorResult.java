@@ -0,0 +1,71 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable lane detection result written by native code into a direct {@link ByteBuffer},
+ * see {@link CompactAlprResult}. Layout has to match compact_result.h.
+ * Class isn't threadsafe.
+ */
+public final class CompactLaneDetectorResult {
+    private static final int THICKNESS = 0;
+    private static final int COORDINATES = 4;
+    static final int SIZE = 4 + 4 * 2 * 4;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(SIZE).order(ByteOrder.nativeOrder());
+
+    @NonNull ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public float getThickness() {
+        return buffer.getFloat(THICKNESS);
+    }
+
+    public int getCoordinateX(int point) {
+        return buffer.getInt(coordinateOffset(point));
+    }
+
+    public int getCoordinateY(int point) {
+        return buffer.getInt(coordinateOffset(point) + 4);
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < 4; i++) {
+            if (getCoordinateX(i) != 0 || getCoordinateY(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return regular result holding a copy of this one, {@link LaneDetectorResult#EMPTY} if there are no lanes
+     */
+    public @NonNull LaneDetectorResult toLaneDetectorResult() {
+        if (isEmpty()) {
+            return LaneDetectorResult.EMPTY;
+        }
+        Point[] coordinates = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            coordinates[i] = new Point(getCoordinateX(i), getCoordinateY(i));
+        }
+        return new LaneDetectorResult(getThickness(), coordinates);
+    }
+
+    private static int coordinateOffset(int point) {
+        if (point < 0 || point >= 4) {
+            throw new IndexOutOfBoundsException("Point " + point + " of 4");
+        }
+        return COORDINATES + point * 8;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactLaneDetectorResult{thickness=" + getThickness() + ", empty=" + isEmpty() + '}';
+    }
+}
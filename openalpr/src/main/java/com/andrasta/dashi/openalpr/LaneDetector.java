@@ -6,6 +6,10 @@ import com.andrasta.dashi.utils.Preconditions;
 
 import java.nio.ByteBuffer;
 
+/**
+ * Finds lanes in grayscale frames. Detector keeps its buffers between frames and in tracking
+ * mode follows lanes across frames, so it must be used by one thread at a time.
+ */
 public final class LaneDetector {
     private final long nativeReference;
 
@@ -18,15 +22,80 @@ public final class LaneDetector {
         return nRecognizeLaneByteBuffer(nativeReference, byteBuffer, pixelSize, width, height);
     }
 
+    /**
+     * Writes into a reusable result, so no objects are created for the frame.
+     */
+    public void recognizeLaneFromByteBuffer(@NonNull ByteBuffer byteBuffer,  int pixelSize, int width, int height, @NonNull CompactLaneDetectorResult result) {
+        Preconditions.assertParameterNotNull(byteBuffer,"byteBuffer");
+        Preconditions.assertParameterNotNull(result,"result");
+        nRecognizeLaneByteBufferCompact(nativeReference, byteBuffer, pixelSize, width, height, result.getBuffer());
+    }
+
+    /**
+     * In tracking mode lanes are followed across frames and smoothed. Full detection runs
+     * every fullPassInterval frames or when tracking confidence drops, lanes are predicted
+     * in between. Changing the mode resets tracking.
+     */
+    public void setTracking(boolean enabled, int fullPassInterval) {
+        if (fullPassInterval <= 0) {
+            throw new IllegalArgumentException("Full pass interval has to be positive");
+        }
+        nSetTracking(nativeReference, enabled, fullPassInterval);
+    }
+
+    /**
+     * In downscaled mode only the bounding box of the lane mask, the bottom part of the frame,
+     * is processed and at 1/scale of the frame resolution. Lane coordinates stay in frame space.
+     *
+     * @param scale 1, 2 or 4
+     */
+    public void setDownscaled(boolean enabled, int scale) {
+        if (scale != 1 && scale != 2 && scale != 4) {
+            throw new IllegalArgumentException("Scale has to be 1, 2 or 4");
+        }
+        nSetDownscaled(nativeReference, enabled, scale);
+    }
+
+    /**
+     * Sets how lane lines are fitted to the edges, {@link Strategy#HOUGH} by default.
+     */
+    public void setStrategy(@NonNull Strategy strategy) {
+        Preconditions.assertParameterNotNull(strategy, "strategy");
+        nSetFitting(nativeReference, strategy.ordinal());
+    }
+
+    /**
+     * Forgets tracked lanes, e.g. when frames of a new session come.
+     */
+    public void reset() {
+        nReset(nativeReference);
+    }
 
     @Override
     protected void finalize() throws Throwable {
         nDelete(nativeReference);
     }
 
+    /**
+     * Lane fitting algorithms, order matches the native LaneFitting enum.
+     */
+    public enum Strategy {
+        /** Averages Hough line segments on both sides */
+        HOUGH,
+        /** Follows each lane upwards from the strongest edge columns in stacked windows */
+        SLIDING_WINDOW,
+        /** Fits the line most edge pixels agree with, robust against stray edges */
+        RANSAC
+    }
+
     // native calls
     private static native long nCreate();
     private static native LaneDetectorResult nRecognizeLaneByteBuffer(long nativeReference, @NonNull ByteBuffer byteBuffer, int pixelSize, int width, int height);
+    private static native void nRecognizeLaneByteBufferCompact(long nativeReference, @NonNull ByteBuffer byteBuffer, int pixelSize, int width, int height, @NonNull ByteBuffer resultBuffer);
+    private static native void nSetTracking(long nativeReference, boolean enabled, int fullPassInterval);
+    private static native void nSetDownscaled(long nativeReference, boolean enabled, int scale);
+    private static native void nSetFitting(long nativeReference, int fitting);
+    private static native void nReset(long nativeReference);
     private static native void nDelete(long nativeReference);
 
 }
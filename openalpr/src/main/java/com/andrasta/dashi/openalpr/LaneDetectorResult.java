@@ -14,6 +14,10 @@ import java.util.List;
  */
 
 public final class LaneDetectorResult {
+    /**
+     * Result without lanes, shared by every caller. Its coordinates are handed out as new points.
+     */
+    public static final LaneDetectorResult EMPTY = new LaneDetectorResult(0, new Point[]{new Point(), new Point(), new Point(), new Point()});
 
     private final float thickness;
     private final Point[] plateCoordinates;
@@ -29,6 +33,9 @@ public final class LaneDetectorResult {
     }
 
     public @NonNull List<Point> getPlateCoordinates() {
+        if (this == EMPTY) {
+            return Collections.unmodifiableList(Arrays.asList(new Point(), new Point(), new Point(), new Point()));
+        }
         return Collections.unmodifiableList(Arrays.asList(plateCoordinates));
     }
 
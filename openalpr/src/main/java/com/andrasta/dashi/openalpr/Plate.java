@@ -1,6 +1,7 @@
 package com.andrasta.dashi.openalpr;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 
 import com.andrasta.dashi.utils.NativeCallback;
 
@@ -14,7 +15,8 @@ public final class Plate {
     private final float confidence;
 
     @NativeCallback
-    Plate(@NonNull String plate, float confidence) {
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public Plate(@NonNull String plate, float confidence) {
         this.plate = plate;
         this.confidence = confidence;
     }
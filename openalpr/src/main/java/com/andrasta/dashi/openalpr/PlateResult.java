@@ -3,6 +3,7 @@ package com.andrasta.dashi.openalpr;
 import android.graphics.Point;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 
 import com.andrasta.dashi.utils.NativeCallback;
 
@@ -24,7 +25,8 @@ public final class PlateResult {
     private final int plateIndex;
 
     @NativeCallback
-    PlateResult(@Nullable Plate bestPlate, @Nullable Plate[] otherCandidates, int processingTimeInMs,
+    @VisibleForTesting(otherwise = VisibleForTesting.PACKAGE_PRIVATE)
+    public PlateResult(@Nullable Plate bestPlate, @Nullable Plate[] otherCandidates, int processingTimeInMs,
                 @Nullable Point[] plateCoordinates, int plateIndex) {
         this.bestPlate = bestPlate;
         if (otherCandidates != null) {
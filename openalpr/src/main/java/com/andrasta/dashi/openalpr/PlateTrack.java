@@ -0,0 +1,171 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One vehicle's plate followed across consecutive frames by {@link PlateTracker}.
+ * Every observation votes with its best plate and all its top-N candidates, the reading
+ * with the highest accumulated confidence wins.
+ *
+ * @param <E> type of the evidence attached to the observations (e.g. a thumbnail)
+ */
+public final class PlateTrack<E> {
+
+    private final long id;
+    private final long firstSeen;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final Map<String, Float> votes = new HashMap<>();
+    private final Map<String, Float> frameVotes = new HashMap<>();
+
+    private long lastSeen;
+    private int observations;
+    private Point[] lastCoordinates;
+    private PlateResult bestResult;
+    private E bestEvidence;
+    private String leader;
+
+    PlateTrack(long id, long timestamp, int sourceWidth, int sourceHeight) {
+        this.id = id;
+        this.firstSeen = timestamp;
+        this.lastSeen = timestamp;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    void add(@NonNull PlateResult result, long timestamp, @Nullable E evidence) {
+        observations++;
+        lastSeen = Math.max(lastSeen, timestamp);
+        if (result.getPlateCoordinates() != null) {
+            lastCoordinates = result.getPlateCoordinates();
+        }
+
+        Plate best = result.getBestPlate();
+        if (best != null && (bestResult == null || best.getConfidence() > bestResult.getBestPlate().getConfidence())) {
+            bestResult = result;
+            bestEvidence = evidence;
+        }
+
+        // a reading votes only once per frame even if it's both best plate and a candidate
+        frameVotes.clear();
+        if (best != null) {
+            frameVotes.put(best.getPlate(), best.getConfidence());
+        }
+        for (Plate candidate : result.getOtherCandidates()) {
+            Float confidence = frameVotes.get(candidate.getPlate());
+            if (confidence == null || confidence < candidate.getConfidence()) {
+                frameVotes.put(candidate.getPlate(), candidate.getConfidence());
+            }
+        }
+
+        float leaderVotes = leader == null ? 0 : votes.get(leader);
+        for (Map.Entry<String, Float> vote : frameVotes.entrySet()) {
+            Float current = votes.get(vote.getKey());
+            float sum = (current == null ? 0 : current) + vote.getValue();
+            votes.put(vote.getKey(), sum);
+            if (sum > leaderVotes) {
+                leader = vote.getKey();
+                leaderVotes = sum;
+            }
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getObservationCount() {
+        return observations;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * @return the fused reading; its confidence is the winner's confidence averaged over
+     * all observations, so frames that didn't see the reading lower it
+     */
+    public @Nullable Plate getBestPlate() {
+        if (leader == null) {
+            return null;
+        }
+        return new Plate(leader, fusedConfidence(leader));
+    }
+
+    /**
+     * @return all readings of this track ordered by their fused confidence
+     */
+    public @NonNull List<Plate> getCandidates() {
+        List<Plate> candidates = new ArrayList<>(votes.size());
+        for (String plate : votes.keySet()) {
+            candidates.add(new Plate(plate, fusedConfidence(plate)));
+        }
+        Collections.sort(candidates, CONFIDENCE_COMPARATOR);
+        return candidates;
+    }
+
+    /**
+     * @return single frame observation with the highest confidence
+     */
+    public @Nullable PlateResult getBestResult() {
+        return bestResult;
+    }
+
+    /**
+     * @return evidence attached to {@link #getBestResult()}
+     */
+    public @Nullable E getEvidence() {
+        return bestEvidence;
+    }
+
+    @Nullable
+    Point[] getLastCoordinates() {
+        return lastCoordinates;
+    }
+
+    @Nullable
+    String getLeader() {
+        return leader;
+    }
+
+    private float fusedConfidence(@NonNull String plate) {
+        Float sum = votes.get(plate);
+        return sum == null || observations == 0 ? 0 : sum / observations;
+    }
+
+    private static final Comparator<Plate> CONFIDENCE_COMPARATOR = new Comparator<Plate>() {
+        @Override
+        public int compare(Plate lhs, Plate rhs) {
+            return Float.compare(rhs.getConfidence(), lhs.getConfidence());
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "PlateTrack{" + "id=" + id + ", bestPlate=" + getBestPlate() +
+                ", observations=" + observations + ", firstSeen=" + firstSeen +
+                ", lastSeen=" + lastSeen + '}';
+    }
+}
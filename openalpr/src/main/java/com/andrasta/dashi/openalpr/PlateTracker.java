@@ -0,0 +1,188 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.andrasta.dashi.utils.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Links {@link PlateResult}s of consecutive frames into {@link PlateTrack}s, one per vehicle.
+ * A plate joins a track when its polygon overlaps the track's last position and its
+ * characters are similar enough, or when the characters are nearly the same.
+ * A track is completed once it wasn't seen for the track timeout.
+ * <p>
+ * Class isn't threadsafe, results have to be posted from a single thread.
+ *
+ * @param <E> type of the evidence attached to the observations
+ */
+public final class PlateTracker<E> {
+    private static final long DEFAULT_TRACK_TIMEOUT = 1500;
+    private static final float MIN_OVERLAP = 0.1f;
+    private static final float MIN_SIMILARITY = 0.5f;
+    private static final float STRONG_SIMILARITY = 0.8f;
+
+    private final List<PlateTrack<E>> activeTracks = new ArrayList<>();
+    private final List<PlateTrack<E>> updatedTracks = new ArrayList<>();
+    private final long trackTimeout;
+    private long nextTrackId;
+
+    public PlateTracker() {
+        this(DEFAULT_TRACK_TIMEOUT);
+    }
+
+    /**
+     * @param trackTimeout time in ms after which a track that wasn't seen is completed
+     */
+    public PlateTracker(long trackTimeout) {
+        this.trackTimeout = trackTimeout;
+    }
+
+    /**
+     * Adds plates of one frame. Has to be called for frames without plates too,
+     * that's where tracks get completed.
+     *
+     * @param result    recognition result of the frame
+     * @param timestamp frame time in ms
+     * @param evidence  evidence attached to the frame, kept for the best observation of a track
+     * @return tracks completed by this frame
+     */
+    public @NonNull List<PlateTrack<E>> update(@NonNull AlprResult result, long timestamp, @Nullable E evidence) {
+        Preconditions.assertParameterNotNull(result, "result");
+        List<PlateTrack<E>> completed = expire(timestamp);
+
+        updatedTracks.clear();
+        for (PlateResult plateResult : result.getPlates()) {
+            if (plateResult == null || plateResult.getBestPlate() == null) {
+                continue;
+            }
+            PlateTrack<E> track = findTrack(plateResult);
+            if (track == null) {
+                track = new PlateTrack<>(nextTrackId++, timestamp, result.getSourceWidth(), result.getSourceHeight());
+                activeTracks.add(track);
+            }
+            track.add(plateResult, timestamp, evidence);
+            updatedTracks.add(track);
+        }
+        return completed;
+    }
+
+    /**
+     * Completes all active tracks.
+     */
+    public @NonNull List<PlateTrack<E>> flush() {
+        if (activeTracks.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<PlateTrack<E>> completed = new ArrayList<>(activeTracks);
+        activeTracks.clear();
+        return completed;
+    }
+
+    public int getActiveTrackCount() {
+        return activeTracks.size();
+    }
+
+    private @NonNull List<PlateTrack<E>> expire(long timestamp) {
+        List<PlateTrack<E>> completed = null;
+        for (Iterator<PlateTrack<E>> it = activeTracks.iterator(); it.hasNext(); ) {
+            PlateTrack<E> track = it.next();
+            if (timestamp - track.getLastSeen() > trackTimeout) {
+                it.remove();
+                if (completed == null) {
+                    completed = new ArrayList<>();
+                }
+                completed.add(track);
+            }
+        }
+        return completed == null ? Collections.<PlateTrack<E>>emptyList() : completed;
+    }
+
+    @Nullable
+    private PlateTrack<E> findTrack(@NonNull PlateResult plateResult) {
+        String plate = plateResult.getBestPlate().getPlate();
+        PlateTrack<E> bestTrack = null;
+        float bestScore = 0;
+        for (PlateTrack<E> track : activeTracks) {
+            // two plates of one frame are never the same vehicle
+            if (updatedTracks.contains(track)) {
+                continue;
+            }
+            float similarity = similarity(plate, track.getLeader());
+            float overlap = overlap(plateResult.getPlateCoordinates(), track.getLastCoordinates());
+            if ((overlap >= MIN_OVERLAP && similarity >= MIN_SIMILARITY) || similarity >= STRONG_SIMILARITY) {
+                float score = overlap + similarity;
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestTrack = track;
+                }
+            }
+        }
+        return bestTrack;
+    }
+
+    /**
+     * @return intersection over union of the polygons' bounding boxes
+     */
+    static float overlap(@Nullable Point[] a, @Nullable Point[] b) {
+        if (a == null || b == null || a.length == 0 || b.length == 0) {
+            return 0;
+        }
+        int aLeft = Integer.MAX_VALUE, aTop = Integer.MAX_VALUE, aRight = Integer.MIN_VALUE, aBottom = Integer.MIN_VALUE;
+        for (Point p : a) {
+            aLeft = Math.min(aLeft, p.x);
+            aTop = Math.min(aTop, p.y);
+            aRight = Math.max(aRight, p.x);
+            aBottom = Math.max(aBottom, p.y);
+        }
+        int bLeft = Integer.MAX_VALUE, bTop = Integer.MAX_VALUE, bRight = Integer.MIN_VALUE, bBottom = Integer.MIN_VALUE;
+        for (Point p : b) {
+            bLeft = Math.min(bLeft, p.x);
+            bTop = Math.min(bTop, p.y);
+            bRight = Math.max(bRight, p.x);
+            bBottom = Math.max(bBottom, p.y);
+        }
+        long intersectionWidth = Math.min(aRight, bRight) - Math.max(aLeft, bLeft);
+        long intersectionHeight = Math.min(aBottom, bBottom) - Math.max(aTop, bTop);
+        if (intersectionWidth <= 0 || intersectionHeight <= 0) {
+            return 0;
+        }
+        long intersection = intersectionWidth * intersectionHeight;
+        long union = (long) (aRight - aLeft) * (aBottom - aTop) + (long) (bRight - bLeft) * (bBottom - bTop) - intersection;
+        return union <= 0 ? 0 : (float) intersection / union;
+    }
+
+    /**
+     * @return 1 - normalized edit distance of the two strings
+     */
+    static float similarity(@Nullable String a, @Nullable String b) {
+        if (a == null || b == null) {
+            return 0;
+        }
+        int maxLength = Math.max(a.length(), b.length());
+        if (maxLength == 0) {
+            return 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return 1f - (float) previous[b.length()] / maxLength;
+    }
+}
@@ -0,0 +1,30 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class LaneDetectorResultTest {
+
+    @Test
+    public void emptyNotShared() {
+        List<Point> coordinates = LaneDetectorResult.EMPTY.getPlateCoordinates();
+        Assert.assertEquals(4, coordinates.size());
+        coordinates.get(0).x = 10;
+        coordinates.get(0).y = 20;
+
+        Assert.assertTrue(LaneDetectorResult.EMPTY.isEmpty());
+        for (Point point : LaneDetectorResult.EMPTY.getPlateCoordinates()) {
+            Assert.assertEquals(0, point.x);
+            Assert.assertEquals(0, point.y);
+        }
+    }
+
+    @Test
+    public void emptyFromCompactResult() {
+        Assert.assertSame(LaneDetectorResult.EMPTY, new CompactLaneDetectorResult().toLaneDetectorResult());
+    }
+}
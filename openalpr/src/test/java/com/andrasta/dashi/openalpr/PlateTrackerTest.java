@@ -0,0 +1,143 @@
+package com.andrasta.dashi.openalpr;
+
+import android.graphics.Point;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class PlateTrackerTest {
+    private final PlateTracker<String> tracker = new PlateTracker<>(1500);
+
+    @Test
+    public void overlap() {
+        Assert.assertEquals(1f, PlateTracker.overlap(box(0, 0, 100, 50), box(0, 0, 100, 50)), 1e-6f);
+        Assert.assertEquals(1f / 3, PlateTracker.overlap(box(0, 0, 100, 50), box(50, 0, 100, 50)), 1e-6f);
+        Assert.assertEquals(0f, PlateTracker.overlap(box(0, 0, 100, 50), box(100, 0, 100, 50)), 1e-6f);
+        Assert.assertEquals(0f, PlateTracker.overlap(box(0, 0, 100, 50), null), 1e-6f);
+        Assert.assertEquals(0f, PlateTracker.overlap(new Point[0], box(0, 0, 100, 50)), 1e-6f);
+    }
+
+    @Test
+    public void similarity() {
+        Assert.assertEquals(1f, PlateTracker.similarity("7ABC123", "7ABC123"), 1e-6f);
+        Assert.assertEquals(6f / 7, PlateTracker.similarity("7ABC123", "7A8C123"), 1e-6f);
+        Assert.assertEquals(6f / 7, PlateTracker.similarity("7ABC123", "ABC123"), 1e-6f);
+        Assert.assertEquals(0f, PlateTracker.similarity("7ABC123", "XYZ"), 0.15f);
+        Assert.assertEquals(0f, PlateTracker.similarity(null, "7ABC123"), 1e-6f);
+        Assert.assertEquals(1f, PlateTracker.similarity("", ""), 1e-6f);
+    }
+
+    @Test
+    public void readingsVote() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7A8C123", 85, "7ABC123", 80)), 0, "first");
+        tracker.update(result(plate(box(10, 0, 100, 50), "7ABC123", 90, "7A8C123", 70)), 100, "second");
+        tracker.update(result(plate(box(20, 0, 100, 50), "7ABC123", 88)), 200, "third");
+
+        List<PlateTrack<String>> tracks = tracker.flush();
+        Assert.assertEquals(1, tracks.size());
+        PlateTrack<String> track = tracks.get(0);
+        Assert.assertEquals(3, track.getObservationCount());
+        Assert.assertEquals("7ABC123", track.getBestPlate().getPlate());
+        Assert.assertEquals((80 + 90 + 88) / 3f, track.getBestPlate().getConfidence(), 1e-4f);
+
+        List<Plate> candidates = track.getCandidates();
+        Assert.assertEquals(2, candidates.size());
+        Assert.assertEquals("7ABC123", candidates.get(0).getPlate());
+        Assert.assertEquals("7A8C123", candidates.get(1).getPlate());
+        Assert.assertEquals((85 + 70) / 3f, candidates.get(1).getConfidence(), 1e-4f);
+
+        // the most confident single observation keeps its evidence
+        Assert.assertEquals("second", track.getEvidence());
+        Assert.assertEquals(90f, track.getBestResult().getBestPlate().getConfidence(), 1e-6f);
+    }
+
+    @Test
+    public void readingVotesOncePerFrame() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 60, "7ABC123", 50, "7A8C123", 55)), 0, null);
+        PlateTrack<String> track = tracker.flush().get(0);
+        Assert.assertEquals("7ABC123", track.getBestPlate().getPlate());
+        Assert.assertEquals(60f, track.getBestPlate().getConfidence(), 1e-6f);
+    }
+
+    @Test
+    public void platesJoinTracks() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 90)), 0, null);
+        // overlapping and similar
+        tracker.update(result(plate(box(20, 5, 100, 50), "7ABC12", 85)), 100, null);
+        Assert.assertEquals(1, tracker.getActiveTrackCount());
+        // nearly the same characters elsewhere in the frame
+        tracker.update(result(plate(box(600, 300, 100, 50), "7ABC123", 85)), 200, null);
+        Assert.assertEquals(1, tracker.getActiveTrackCount());
+        // overlapping but different characters
+        tracker.update(result(plate(box(600, 300, 100, 50), "XYZ9876", 85)), 300, null);
+        Assert.assertEquals(2, tracker.getActiveTrackCount());
+        // a far and different plate
+        tracker.update(result(plate(box(1000, 600, 100, 50), "5KLM456", 85)), 400, null);
+        Assert.assertEquals(3, tracker.getActiveTrackCount());
+    }
+
+    @Test
+    public void platesOfOneFrameAreDifferentVehicles() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 90)), 0, null);
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 90), plate(box(5, 0, 100, 50), "7ABC123", 80)), 100, null);
+        List<PlateTrack<String>> tracks = tracker.flush();
+        Assert.assertEquals(2, tracks.size());
+        Assert.assertEquals(2, tracks.get(0).getObservationCount());
+        Assert.assertEquals(1, tracks.get(1).getObservationCount());
+    }
+
+    @Test
+    public void tracksExpire() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 90)), 1000, null);
+        Assert.assertTrue(tracker.update(result(), 2500, null).isEmpty());
+        List<PlateTrack<String>> completed = tracker.update(result(), 2501, null);
+        Assert.assertEquals(1, completed.size());
+        Assert.assertEquals(1000, completed.get(0).getFirstSeen());
+        Assert.assertEquals(1000, completed.get(0).getLastSeen());
+        Assert.assertEquals(0, tracker.getActiveTrackCount());
+        Assert.assertTrue(tracker.flush().isEmpty());
+    }
+
+    @Test
+    public void lateFramesDoNotMoveTracksBack() {
+        tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 90)), 1000, null);
+        // a frame captured earlier whose recognition finished later
+        Assert.assertTrue(tracker.update(result(plate(box(0, 0, 100, 50), "7ABC123", 85)), 900, null).isEmpty());
+        Assert.assertEquals(1, tracker.getActiveTrackCount());
+        Assert.assertTrue(tracker.update(result(), 2500, null).isEmpty());
+
+        List<PlateTrack<String>> completed = tracker.update(result(), 2501, null);
+        Assert.assertEquals(1, completed.size());
+        Assert.assertEquals(1000, completed.get(0).getLastSeen());
+        Assert.assertEquals(2, completed.get(0).getObservationCount());
+    }
+
+    private static AlprResult result(PlateResult... plates) {
+        return new AlprResult(plates, 0, 1280, 720);
+    }
+
+    /**
+     * @param readings best plate and other candidates as pairs of plate and confidence
+     */
+    private static PlateResult plate(Point[] box, Object... readings) {
+        Plate[] candidates = new Plate[readings.length / 2 - 1];
+        for (int i = 2; i < readings.length; i += 2) {
+            candidates[i / 2 - 1] = new Plate((String) readings[i], ((Number) readings[i + 1]).floatValue());
+        }
+        return new PlateResult(new Plate((String) readings[0], ((Number) readings[1]).floatValue()), candidates, 0, box, 0);
+    }
+
+    private static Point[] box(int x, int y, int width, int height) {
+        return new Point[]{point(x, y), point(x + width, y), point(x + width, y + height), point(x, y + height)};
+    }
+
+    private static Point point(int x, int y) {
+        // constructors of the android.jar used by unit tests don't set the fields
+        Point point = new Point();
+        point.x = x;
+        point.y = y;
+        return point;
+    }
+}
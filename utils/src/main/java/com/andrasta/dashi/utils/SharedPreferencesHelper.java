@@ -10,6 +10,7 @@ public class SharedPreferencesHelper {
     public static final String KEY_ALPR_CONFIG_COPIED = "key_alpr_config_copied";
     public static final String KEY_ALPR_CONFIG_DIR = "key_alpr_config_dir";
     public static final String KEY_APP_INITIALIZED = "key_app_initialized2";
+    public static final String KEY_REALERT_WINDOW_MS = "key_realert_window_ms";
 
     private final String PREF_NAME = "SharedPreference";
     private final Context context;